@@ -0,0 +1,91 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+import org.smooks.api.ApplicationContext;
+import org.smooks.api.SmooksConfigException;
+import org.smooks.api.SmooksException;
+import org.smooks.api.delivery.ContentHandler;
+import org.smooks.api.delivery.ContentHandlerFactory;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.engine.injector.Scope;
+import org.smooks.engine.lifecycle.PostConstructLifecyclePhase;
+import org.smooks.engine.lookup.LifecycleManagerLookup;
+
+import javax.inject.Inject;
+
+/**
+ * {@link ContentHandlerFactory} for a {@link TemplateEngine}.
+ * <p/>
+ * Creates a {@link AbstractTemplateProcessor template processor} per template resource and applies the Smooks
+ * lifecycle to it (configuration injection and template compilation).  Register implementations in
+ * <code>META-INF/services/org.smooks.api.delivery.ContentHandlerFactory</code>.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public abstract class AbstractTemplateEngine implements TemplateEngine, ContentHandlerFactory {
+
+    @Inject
+    private ApplicationContext applicationContext;
+
+    /**
+     * Create a template processor for the supplied template resource.
+     *
+     * @param resourceConfig The template resource configuration.
+     * @return The template processor {@link ContentHandler}.
+     */
+    @Override
+    public synchronized ContentHandler create(ResourceConfig resourceConfig) throws SmooksConfigException {
+        final AbstractTemplateProcessor templateProcessor = newTemplateProcessor();
+        try {
+            applicationContext.getRegistry().lookup(new LifecycleManagerLookup()).applyPhase(templateProcessor, new PostConstructLifecyclePhase(new Scope(applicationContext.getRegistry(), resourceConfig, templateProcessor)));
+            return templateProcessor;
+        } catch (SmooksConfigException e) {
+            throw e;
+        } catch (Exception e) {
+            InstantiationException instanceException = new InstantiationException("Template resource [" + resourceConfig.getResource() + "] not loadable by the '" + getType() + "' template engine.  Template resource invalid.");
+            instanceException.initCause(e);
+            throw new SmooksException(instanceException.getMessage(), instanceException);
+        }
+    }
+}
@@ -46,22 +46,31 @@ import org.smooks.api.ApplicationContext;
 import org.smooks.api.ExecutionContext;
 import org.smooks.api.SmooksConfigException;
 import org.smooks.api.SmooksException;
+import org.smooks.api.delivery.ContentDeliveryConfig;
+import org.smooks.api.delivery.ordering.Consumer;
 import org.smooks.api.resource.config.ResourceConfig;
 import org.smooks.api.resource.visitor.sax.ng.AfterVisitor;
 import org.smooks.api.resource.visitor.sax.ng.BeforeVisitor;
 import org.smooks.assertion.AssertArgument;
 import org.smooks.engine.resource.config.DefaultResourceConfig;
+import org.smooks.engine.resource.config.ParameterAccessor;
 import org.smooks.io.Stream;
 import org.w3c.dom.Element;
 
 import jakarta.annotation.PostConstruct;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.xml.transform.TransformerConfigurationException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * Abstract template processing unit.
@@ -69,19 +78,52 @@ import java.nio.charset.StandardCharsets;
  * Defines abstract methods for loading the template in question, as well as convienience methods for
  * processing the template action against the templating result (REPLACE, ADD_TO, INSERT_BEFORE and INSERT_AFTER).
  * <p/>
+ * Template processors are created by a {@link TemplateEngine}.  Rendering, whether applied to the message or
+ * called directly through {@link #render(Element, ExecutionContext, Writer)} or
+ * {@link #render(Element, ExecutionContext)}, goes through the diagnostics common to all engines.
+ * <p/>
  * See implementations.
  *
  * @author tfennelly
  */
 @SuppressWarnings("unchecked")
-public abstract class AbstractTemplateProcessor implements BeforeVisitor, AfterVisitor {
+public abstract class AbstractTemplateProcessor implements BeforeVisitor, AfterVisitor, Consumer {
 
     /**
      * Template split point processing instruction.
      */
     public static final String TEMPLATE_SPLIT_PI = "<\\?TEMPLATE-SPLIT-PI\\?>";
 
+    /**
+     * Is the Java Flight Recorder API available on this JVM.  Compile and render events are only
+     * emitted when it is (see {@link TemplateCompileEvent} and {@link TemplateRenderEvent}).
+     */
+    private static final boolean FLIGHT_RECORDER_AVAILABLE = isFlightRecorderAvailable();
+
+    /**
+     * Slow render threshold parameter (milliseconds).  Template applications taking longer are logged
+     * (see {@link SlowRenderLog}).  Can be set on the resource, or globally as a global parameter
+     * or system property.  Not set by default (no slow render logging).
+     */
+    public static final String SLOW_RENDER_THRESHOLD = "templating.slowRenderThreshold";
+
+    /**
+     * Minimum interval (milliseconds) between two slow render log lines of the same resource.
+     * Can be set on the resource, or globally as a global parameter or system property.
+     * Default 1000.
+     */
+    public static final String SLOW_RENDER_LOG_INTERVAL = "templating.slowRenderLogInterval";
+
+    /**
+     * Render result cache size parameter (bytes).  When set on a resource, the outputs of the resource's template
+     * are cached, keyed on the fragment content and the beans referenced by the template (see
+     * {@link RenderResultCache}).  Only for templates whose output depends on nothing else.  Not set by default
+     * (no caching).
+     */
+    public static final String RESULT_CACHE_SIZE = "templating.resultCacheSize";
+
     private TemplatingConfiguration templatingConfiguration;
+    private String templateName;
 
     @Inject
     private Boolean applyTemplateBefore = false;
@@ -95,15 +137,35 @@ public abstract class AbstractTemplateProcessor implements BeforeVisitor, AfterV
     @Inject
     private ApplicationContext applicationContext;
 
+    @Inject
+    @Named(SLOW_RENDER_THRESHOLD)
+    private Optional<Long> slowRenderThreshold = Optional.empty();
+
+    @Inject
+    @Named(SLOW_RENDER_LOG_INTERVAL)
+    private Optional<Long> slowRenderLogInterval = Optional.empty();
+
+    @Inject
+    @Named(RESULT_CACHE_SIZE)
+    private Optional<Long> resultCacheSize = Optional.empty();
+
+    private RenderResultCache resultCache;
+
+    private volatile boolean isSlowRenderLogResolved;
+    private SlowRenderLog slowRenderLog;
+
     @PostConstruct
     public void postConstruct() {
         if (templatingConfiguration != null) {
             ResourceConfig config = new DefaultResourceConfig();
 
             config.setResource(templatingConfiguration.getTemplate());
+            if (templatingConfiguration.getResultCacheSize() != null) {
+                resultCacheSize = Optional.of(templatingConfiguration.getResultCacheSize());
+            }
 
             try {
-                loadTemplate(config);
+                compileTemplate(config);
             } catch (Exception e) {
                 throw new SmooksConfigException("Error loading Templating resource: " + config, e);
             }
@@ -113,13 +175,20 @@ public abstract class AbstractTemplateProcessor implements BeforeVisitor, AfterV
             }
 
             try {
-                loadTemplate(resourceConfig);
+                compileTemplate(resourceConfig);
             } catch (Exception e) {
                 throw new SmooksConfigException("Error loading Templating resource: " + resourceConfig, e);
             }
         } else {
             throw new SmooksConfigException(getClass().getSimpleName() + " not configured.");
         }
+
+        if (resultCacheSize.isPresent()) {
+            if (resultCacheSize.get() <= 0) {
+                throw new SmooksConfigException("Invalid '" + RESULT_CACHE_SIZE + "' parameter value '" + resultCacheSize.get() + "'. Must be greater than zero.");
+            }
+            resultCache = new RenderResultCache(resultCacheSize.get());
+        }
     }
 
     protected void setTemplatingConfiguration(TemplatingConfiguration templatingConfiguration) {
@@ -127,8 +196,67 @@ public abstract class AbstractTemplateProcessor implements BeforeVisitor, AfterV
         this.templatingConfiguration = templatingConfiguration;
     }
 
+    private void compileTemplate(ResourceConfig resourceConfig) throws IOException, TransformerConfigurationException {
+        templateName = resourceConfig.isInline() ? "inline" : resourceConfig.getResource();
+        if (FLIGHT_RECORDER_AVAILABLE) {
+            FlightRecorderSupport.loadTemplate(this, resourceConfig);
+        } else {
+            loadTemplate(resourceConfig);
+        }
+    }
+
     protected abstract void loadTemplate(ResourceConfig resourceConfig) throws IOException, TransformerConfigurationException;
 
+    /**
+     * Is the named variable (e.g. a bean ID) referenced by the template.
+     * <p/>
+     * May answer true for a variable the template doesn't actually reference (e.g. when the name only appears
+     * in the template text), but never answers false for a variable the template references, including through
+     * the templates it includes, imports or invokes.  Implementations that can't see those templates must answer
+     * true for every name.  Answers true by default.  Implementations able to analyse their template should
+     * override this method.
+     *
+     * @param name The variable name.
+     * @return True if the template may reference the variable, otherwise false.
+     */
+    protected boolean isReferenced(String name) {
+        return true;
+    }
+
+    /**
+     * Get the streaming capabilities of this template processor.
+     *
+     * @return The streaming capabilities.  None by default.
+     */
+    public Set<TemplateCapability> getCapabilities() {
+        return EnumSet.noneOf(TemplateCapability.class);
+    }
+
+    @Override
+    public boolean consumes(Object object) {
+        return isReferenced(object.toString());
+    }
+
+    /**
+     * Get the templating engine type e.g. "ftl".
+     * <p/>
+     * Used to identify the engine in diagnostics such as the JFR {@link TemplateRenderEvent}.
+     *
+     * @return The templating engine type.
+     */
+    protected String getTemplateType() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Get the name of the template resource applied by this processor.
+     *
+     * @return The template resource URI, or "inline" for inlined templates.
+     */
+    protected String getTemplateName() {
+        return templateName;
+    }
+
     public boolean applyTemplateBefore() {
         return applyTemplateBefore;
     }
@@ -140,7 +268,7 @@ public abstract class AbstractTemplateProcessor implements BeforeVisitor, AfterV
     @Override
     public void visitBefore(Element element, ExecutionContext executionContext) throws SmooksException {
         if (applyTemplateBefore()) {
-            applyTemplate(element, executionContext, Stream.out(executionContext));
+            renderTemplate(element, executionContext);
         }
     }
 
@@ -149,7 +277,99 @@ public abstract class AbstractTemplateProcessor implements BeforeVisitor, AfterV
     @Override
     public void visitAfter(Element element, ExecutionContext executionContext) throws SmooksException {
         if (!applyTemplateBefore()) {
-            applyTemplate(element, executionContext, Stream.out(executionContext));
+            renderTemplate(element, executionContext);
+        }
+    }
+
+    private void renderTemplate(Element element, ExecutionContext executionContext) {
+        render(element, executionContext, Stream.out(executionContext));
+    }
+
+    /**
+     * Render the template for the supplied fragment to a writer.
+     *
+     * @param element The targeted fragment.
+     * @param executionContext The execution context.
+     * @param writer The writer to which the template output is written.
+     */
+    public void render(Element element, ExecutionContext executionContext, Writer writer) {
+        if (FLIGHT_RECORDER_AVAILABLE) {
+            FlightRecorderSupport.applyTemplate(this, element, executionContext, writer);
+        } else {
+            applyTemplateMonitored(element, executionContext, writer);
+        }
+    }
+
+    /**
+     * Render the template for the supplied fragment to bytes, in the template {@link #getEncoding() encoding}.
+     *
+     * @param element The targeted fragment.
+     * @param executionContext The execution context.
+     * @return The template output.
+     */
+    public byte[] render(Element element, ExecutionContext executionContext) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(outputStream, encoding);
+
+        render(element, executionContext, writer);
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new SmooksException(e.getMessage(), e);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Get the statistics of the render result cache.
+     *
+     * @return The cache statistics, or empty if the {@link #RESULT_CACHE_SIZE render result cache} isn't enabled.
+     */
+    public Optional<RenderCacheStatistics> getResultCacheStatistics() {
+        return Optional.ofNullable(resultCache).map(RenderResultCache::getStatistics);
+    }
+
+    void applyTemplateMonitored(Element element, ExecutionContext executionContext, Writer writer) {
+        if (resultCache == null) {
+            applyTemplateUncached(element, executionContext, writer);
+        } else {
+            resultCache.applyTemplate(this, element, executionContext, writer);
+        }
+    }
+
+    void applyTemplateUncached(Element element, ExecutionContext executionContext, Writer writer) {
+        SlowRenderLog slowRenderLog = getSlowRenderLog(executionContext);
+        if (slowRenderLog == null) {
+            applyTemplate(element, executionContext, writer);
+        } else {
+            slowRenderLog.applyTemplate(this, element, executionContext, writer);
+        }
+    }
+
+    private SlowRenderLog getSlowRenderLog(ExecutionContext executionContext) {
+        if (!isSlowRenderLogResolved) {
+            synchronized (this) {
+                if (!isSlowRenderLogResolved) {
+                    ContentDeliveryConfig contentDeliveryConfig = executionContext.getContentDeliveryRuntime().getContentDeliveryConfig();
+                    long threshold = slowRenderThreshold.orElseGet(() -> Long.parseLong(ParameterAccessor.getParameterValue(SLOW_RENDER_THRESHOLD, String.class, "-1", contentDeliveryConfig).trim()));
+                    if (threshold >= 0) {
+                        long interval = slowRenderLogInterval.orElseGet(() -> Long.parseLong(ParameterAccessor.getParameterValue(SLOW_RENDER_LOG_INTERVAL, String.class, "1000", contentDeliveryConfig).trim()));
+                        slowRenderLog = new SlowRenderLog(threshold, interval);
+                    }
+                    isSlowRenderLogResolved = true;
+                }
+            }
+        }
+        return slowRenderLog;
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, AbstractTemplateProcessor.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
         }
     }
 }
@@ -0,0 +1,120 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+import org.smooks.api.ExecutionContext;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.support.DomUtils;
+import org.w3c.dom.Element;
+
+import javax.xml.transform.TransformerConfigurationException;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Emits the {@link TemplateCompileEvent} and {@link TemplateRenderEvent} JFR events.
+ * <p/>
+ * Only referenced once {@link AbstractTemplateProcessor} has established that the
+ * <code>jdk.jfr</code> API is present on the running JVM.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class FlightRecorderSupport {
+
+    private static final ThreadLocal<CountingWriter> COUNTING_WRITER_THREAD_LOCAL = ThreadLocal.withInitial(() -> new CountingWriter(null));
+
+    private FlightRecorderSupport() {
+    }
+
+    static void loadTemplate(AbstractTemplateProcessor templateProcessor, ResourceConfig resourceConfig) throws IOException, TransformerConfigurationException {
+        TemplateCompileEvent event = new TemplateCompileEvent();
+        if (!event.isEnabled()) {
+            templateProcessor.loadTemplate(resourceConfig);
+            return;
+        }
+
+        event.begin();
+        try {
+            templateProcessor.loadTemplate(resourceConfig);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.engine = templateProcessor.getTemplateType();
+                event.resource = templateProcessor.getTemplateName();
+                event.commit();
+            }
+        }
+    }
+
+    static void applyTemplate(AbstractTemplateProcessor templateProcessor, Element element, ExecutionContext executionContext, Writer writer) {
+        TemplateRenderEvent event = new TemplateRenderEvent();
+        if (!event.isEnabled()) {
+            templateProcessor.applyTemplateMonitored(element, executionContext, writer);
+            return;
+        }
+
+        CountingWriter countingWriter = COUNTING_WRITER_THREAD_LOCAL.get();
+        if (countingWriter.getDelegate() != null) {
+            // Nested render on this thread...
+            countingWriter = new CountingWriter(writer);
+        } else {
+            countingWriter.reset(writer);
+        }
+
+        event.begin();
+        try {
+            templateProcessor.applyTemplateMonitored(element, executionContext, countingWriter);
+        } finally {
+            event.end();
+            long outputSize = countingWriter.getCount();
+            countingWriter.reset(null);
+            if (event.shouldCommit()) {
+                event.engine = templateProcessor.getTemplateType();
+                event.resource = templateProcessor.getTemplateName();
+                event.fragment = DomUtils.getXPath(element);
+                event.outputSize = outputSize;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+/**
+ * Snapshot of the render result cache statistics of a template processor.
+ * <p/>
+ * See {@link AbstractTemplateProcessor#RESULT_CACHE_SIZE}.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public final class RenderCacheStatistics {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long uncacheableCount;
+    private final long evictionCount;
+    private final int entryCount;
+    private final long size;
+
+    RenderCacheStatistics(long hitCount, long missCount, long uncacheableCount, long evictionCount, int entryCount, long size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.uncacheableCount = uncacheableCount;
+        this.evictionCount = evictionCount;
+        this.entryCount = entryCount;
+        this.size = size;
+    }
+
+    /**
+     * Get the number of renders served from the cache.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of renders not found in the cache.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the number of renders that couldn't be cached because a referenced bean couldn't be digested.
+     */
+    public long getUncacheableCount() {
+        return uncacheableCount;
+    }
+
+    /**
+     * Get the number of entries evicted to keep the cache under its maximum size.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get the number of cached outputs.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Get the (estimated) size of the cached outputs, in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the ratio of renders served from the cache.
+     *
+     * @return The hit ratio (0 to 1), or 0 if there were no renders.
+     */
+    public double getHitRatio() {
+        long renderCount = hitCount + missCount + uncacheableCount;
+        return (renderCount == 0 ? 0 : (double) hitCount / renderCount);
+    }
+
+    @Override
+    public String toString() {
+        return "RenderCacheStatistics{hitCount=" + hitCount + ", missCount=" + missCount + ", uncacheableCount=" + uncacheableCount
+                + ", evictionCount=" + evictionCount + ", entryCount=" + entryCount + ", size=" + size + ", hitRatio=" + getHitRatio() + "}";
+    }
+}
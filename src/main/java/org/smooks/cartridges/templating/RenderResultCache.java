@@ -0,0 +1,445 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+import org.smooks.api.ExecutionContext;
+import org.smooks.api.SmooksException;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of template outputs.
+ * <p/>
+ * Renders are keyed on a SHA-256 digest of the targeted fragment (its DOM content) and of the beans referenced by
+ * the template (see {@link AbstractTemplateProcessor#isReferenced(String)}).  A render whose key is cached is
+ * skipped: the cached output is written instead.  The template output must therefore depend on nothing else.
+ * Templates that include, import or invoke other templates reference every bean, including the preinstalled
+ * per-message ones, so their renders aren't cached.
+ * <p/>
+ * Beans are digested by value: strings, numbers, booleans, characters, enums, dates, UUIDs, DOM nodes, and maps,
+ * collections and arrays of these.  Other objects aren't introspected, as that would call getters the template
+ * might never read: an object whose class overrides {@link Object#equals(Object)} and {@link Object#hashCode()}
+ * is digested through its hash code, and the entry keeps the object so that a hit is only taken when the object
+ * still {@link Object#equals(Object) equals} the object the output was rendered for.  A render referencing a bean
+ * that can't be digested (e.g. an object without value equality, or a cyclic or very deep object graph) isn't
+ * cached.
+ * <p/>
+ * Entries are weighed at two bytes per output character, not counting the objects they keep.  The least recently used entries are evicted once the
+ * cache holds more than its maximum size.  Outputs larger than a quarter of the maximum size are not cached.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+class RenderResultCache {
+
+    private static final int MAX_DIGEST_DEPTH = 32;
+    private static final ClassValue<Boolean> HAS_VALUE_EQUALITY = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return hasValueEquality(type);
+        }
+    };
+
+    private final ThreadLocal<MessageDigest> messageDigest = ThreadLocal.withInitial(RenderResultCache::newMessageDigest);
+    private final long maxSize;
+    private final long maxEntrySize;
+    private final Map<String, Boolean> isReferenced = new ConcurrentHashMap<>();
+    private final Map<ByteBuffer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long evictionCount;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder uncacheableCount = new LongAdder();
+
+    /**
+     * @param maxSize The maximum cache size, in bytes.
+     */
+    RenderResultCache(long maxSize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxSize / 4;
+    }
+
+    void applyTemplate(AbstractTemplateProcessor templateProcessor, Element element, ExecutionContext executionContext, Writer writer) {
+        List<Object> comparands = new ArrayList<>();
+        ByteBuffer key = getKey(templateProcessor, element, executionContext, comparands);
+        if (key == null) {
+            uncacheableCount.increment();
+            templateProcessor.applyTemplateUncached(element, executionContext, writer);
+            return;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.isFor(comparands)) {
+            hitCount.increment();
+            try {
+                writer.write(entry.output);
+            } catch (IOException e) {
+                throw new SmooksException(e.getMessage(), e);
+            }
+            return;
+        }
+
+        missCount.increment();
+        CapturingWriter capturingWriter = new CapturingWriter(writer, maxEntrySize / 2);
+        templateProcessor.applyTemplateUncached(element, executionContext, capturingWriter);
+        if (!capturingWriter.isOverflowed()) {
+            put(key, new Entry(capturingWriter.getCaptured(), comparands.toArray()));
+        }
+    }
+
+    private synchronized void put(ByteBuffer key, Entry entry) {
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null) {
+            size -= weigh(replaced.output);
+        }
+        size += weigh(entry.output);
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= weigh(iterator.next().output);
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private static long weigh(String output) {
+        return 2L * output.length();
+    }
+
+    RenderCacheStatistics getStatistics() {
+        synchronized (this) {
+            return new RenderCacheStatistics(hitCount.sum(), missCount.sum(), uncacheableCount.sum(), evictionCount, entries.size(), size);
+        }
+    }
+
+    private ByteBuffer getKey(AbstractTemplateProcessor templateProcessor, Element element, ExecutionContext executionContext, List<Object> comparands) {
+        MessageDigest digest = messageDigest.get();
+        digest.reset();
+        try {
+            Digester digester = new Digester(digest, comparands);
+            digester.node(element);
+
+            List<Map.Entry<String, Object>> referencedBeans = new ArrayList<>();
+            for (Map.Entry<String, Object> bean : executionContext.getBeanContext().getBeanMap().entrySet()) {
+                if (isReferenced.computeIfAbsent(bean.getKey(), templateProcessor::isReferenced)) {
+                    referencedBeans.add(bean);
+                }
+            }
+            referencedBeans.sort(Map.Entry.comparingByKey());
+            for (Map.Entry<String, Object> bean : referencedBeans) {
+                digester.string(bean.getKey());
+                digester.value(bean.getValue(), 0);
+            }
+        } catch (UndigestableException e) {
+            return null;
+        }
+
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean hasValueEquality(Class<?> type) {
+        try {
+            return type.getMethod("equals", Object.class).getDeclaringClass() != Object.class && type.getMethod("hashCode").getDeclaringClass() != Object.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A cached output, with the objects digested through their hash code when it was rendered.
+     */
+    private static final class Entry {
+
+        private final String output;
+        private final Object[] comparands;
+
+        private Entry(String output, Object[] comparands) {
+            this.output = output;
+            this.comparands = comparands;
+        }
+
+        private boolean isFor(List<Object> comparands) {
+            if (comparands.size() != this.comparands.length) {
+                return false;
+            }
+            for (int i = 0; i < this.comparands.length; i++) {
+                if (!Objects.equals(comparands.get(i), this.comparands[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Feeds nodes and bean values into a {@link MessageDigest}.  Every value is prefixed with a type tag, and
+     * strings with their length, so that different content can't produce the same digest input.  Objects digested
+     * through their hash code are added to the comparands, in digest order.
+     */
+    private static final class Digester {
+
+        private final MessageDigest digest;
+        private final List<Object> comparands;
+        private final Set<Object> visiting = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private Digester(MessageDigest digest, List<Object> comparands) {
+            this.digest = digest;
+            this.comparands = comparands;
+        }
+
+        private void node(Node node) {
+            digest.update((byte) node.getNodeType());
+            switch (node.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    string(node.getNamespaceURI());
+                    string(node.getNodeName());
+                    NamedNodeMap attributes = node.getAttributes();
+                    integer(attributes.getLength());
+                    for (int i = 0; i < attributes.getLength(); i++) {
+                        Attr attribute = (Attr) attributes.item(i);
+                        string(attribute.getNamespaceURI());
+                        string(attribute.getName());
+                        string(attribute.getValue());
+                    }
+                    break;
+                case Node.DOCUMENT_NODE:
+                case Node.DOCUMENT_FRAGMENT_NODE:
+                    break;
+                default:
+                    string(node.getNodeName());
+                    string(node.getNodeValue());
+            }
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                node(child);
+            }
+            digest.update((byte) 0);
+        }
+
+        private void value(Object value, int depth) throws UndigestableException {
+            if (value == null) {
+                digest.update((byte) 'N');
+            } else if (value instanceof CharSequence) {
+                digest.update((byte) 'S');
+                string(value.toString());
+            } else if (value instanceof Number || value instanceof Boolean || value instanceof Character
+                    || value instanceof Enum || value instanceof TemporalAccessor || value instanceof UUID) {
+                digest.update((byte) 'V');
+                string(value.getClass().getName());
+                string(value.toString());
+            } else if (value instanceof Date) {
+                digest.update((byte) 'D');
+                string(value.getClass().getName());
+                string(Long.toString(((Date) value).getTime()));
+            } else if (value instanceof Node) {
+                node((Node) value);
+            } else {
+                if (depth >= MAX_DIGEST_DEPTH || !visiting.add(value)) {
+                    throw new UndigestableException();
+                }
+                if (value instanceof Map) {
+                    digest.update((byte) 'M');
+                    integer(((Map<?, ?>) value).size());
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                        value(entry.getKey(), depth + 1);
+                        value(entry.getValue(), depth + 1);
+                    }
+                } else if (value instanceof Iterable) {
+                    digest.update((byte) 'L');
+                    for (Object item : (Iterable<?>) value) {
+                        value(item, depth + 1);
+                    }
+                } else if (value.getClass().isArray()) {
+                    digest.update((byte) 'A');
+                    int length = Array.getLength(value);
+                    integer(length);
+                    for (int i = 0; i < length; i++) {
+                        value(Array.get(value, i), depth + 1);
+                    }
+                } else {
+                    bean(value);
+                }
+                digest.update((byte) 0);
+                visiting.remove(value);
+            }
+        }
+
+        private void bean(Object bean) throws UndigestableException {
+            if (!HAS_VALUE_EQUALITY.get(bean.getClass())) {
+                // Nothing to tell two instances apart...
+                throw new UndigestableException();
+            }
+
+            digest.update((byte) 'B');
+            string(bean.getClass().getName());
+            try {
+                integer(bean.hashCode());
+            } catch (RuntimeException e) {
+                throw new UndigestableException();
+            }
+            comparands.add(bean);
+        }
+
+        private void string(String string) {
+            if (string == null) {
+                integer(-1);
+            } else {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                integer(bytes.length);
+                digest.update(bytes);
+            }
+        }
+
+        private void integer(int value) {
+            digest.update((byte) (value >>> 24));
+            digest.update((byte) (value >>> 16));
+            digest.update((byte) (value >>> 8));
+            digest.update((byte) value);
+        }
+    }
+
+    private static final class UndigestableException extends Exception {
+        private UndigestableException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Writes through to the render's writer, capturing the output for the cache.
+     */
+    private static final class CapturingWriter extends Writer {
+
+        private final Writer delegate;
+        private final long maxLength;
+        private StringBuilder captured = new StringBuilder();
+
+        private CapturingWriter(Writer delegate, long maxLength) {
+            this.delegate = delegate;
+            this.maxLength = maxLength;
+        }
+
+        private boolean isOverflowed() {
+            return captured == null;
+        }
+
+        private String getCaptured() {
+            return captured.toString();
+        }
+
+        private void capture(int length) {
+            if (captured != null && captured.length() + (long) length > maxLength) {
+                captured = null;
+            }
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            delegate.write(c);
+            capture(1);
+            if (captured != null) {
+                captured.append((char) c);
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            delegate.write(cbuf, off, len);
+            capture(len);
+            if (captured != null) {
+                captured.append(cbuf, off, len);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            delegate.write(str, off, len);
+            capture(len);
+            if (captured != null) {
+                captured.append(str, off, off + len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
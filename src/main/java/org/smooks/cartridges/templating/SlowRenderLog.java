@@ -0,0 +1,114 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smooks.api.ExecutionContext;
+import org.smooks.support.DomUtils;
+import org.w3c.dom.Element;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs template applications exceeding a duration threshold.
+ * <p/>
+ * At most one line is logged per log interval.  Slow renders occurring within the interval are
+ * counted and reported as "suppressed" on the next logged line.  Renders under the threshold
+ * do not allocate.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+class SlowRenderLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowRenderLog.class);
+
+    private final ThreadLocal<CountingWriter> countingWriterThreadLocal = ThreadLocal.withInitial(() -> new CountingWriter(null));
+    private final long thresholdNanos;
+    private final long intervalNanos;
+    private final AtomicLong nextLogTime;
+    private final LongAdder suppressed = new LongAdder();
+
+    SlowRenderLog(long thresholdMillis, long intervalMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.nextLogTime = new AtomicLong(System.nanoTime());
+    }
+
+    void applyTemplate(AbstractTemplateProcessor templateProcessor, Element element, ExecutionContext executionContext, Writer writer) {
+        CountingWriter countingWriter = countingWriterThreadLocal.get();
+        if (countingWriter.getDelegate() != null) {
+            // Nested render on this thread...
+            countingWriter = new CountingWriter(writer);
+        } else {
+            countingWriter.reset(writer);
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            templateProcessor.applyTemplate(element, executionContext, countingWriter);
+        } finally {
+            long endTime = System.nanoTime();
+            long outputSize = countingWriter.getCount();
+
+            countingWriter.reset(null);
+            if (endTime - startTime >= thresholdNanos) {
+                log(templateProcessor, element, executionContext, endTime, endTime - startTime, outputSize);
+            }
+        }
+    }
+
+    private void log(AbstractTemplateProcessor templateProcessor, Element element, ExecutionContext executionContext, long now, long durationNanos, long outputSize) {
+        long logTime = nextLogTime.get();
+        if (now - logTime >= 0 && nextLogTime.compareAndSet(logTime, now + intervalNanos)) {
+            LOGGER.warn("Slow template render: engine={} resource={} fragment={} source={} durationMs={} outputSize={} suppressed={}",
+                    templateProcessor.getTemplateType(), templateProcessor.getTemplateName(), DomUtils.getXPath(element),
+                    executionContext.getDocumentSource(), TimeUnit.NANOSECONDS.toMillis(durationNanos), outputSize, suppressed.sumThenReset());
+        } else {
+            suppressed.increment();
+        }
+    }
+}
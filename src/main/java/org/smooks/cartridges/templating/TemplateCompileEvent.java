@@ -0,0 +1,82 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * <a href="https://docs.oracle.com/en/java/javase/17/jfapi/">Java Flight Recorder</a> event emitted when an
+ * {@link AbstractTemplateProcessor} loads and compiles its template.
+ * <p/>
+ * The threshold (default 0 ms) can be overridden in a JFR settings (.jfc) file under the event name
+ * "org.smooks.cartridges.templating.Compile".
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+@Name(TemplateCompileEvent.NAME)
+@Label("Template Compile")
+@Category({"Smooks", "Templating"})
+@Description("Loading and compilation of a template resource")
+@StackTrace(false)
+@Threshold("0 ms")
+public class TemplateCompileEvent extends Event {
+
+    /**
+     * JFR event name.
+     */
+    public static final String NAME = "org.smooks.cartridges.templating.Compile";
+
+    @Label("Engine")
+    @Description("Templating engine type, e.g. ftl, xsl or st")
+    String engine;
+
+    @Label("Resource")
+    @Description("Template resource name")
+    String resource;
+}
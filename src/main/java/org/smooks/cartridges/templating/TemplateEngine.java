@@ -0,0 +1,82 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+/**
+ * Templating engine SPI.
+ * <p/>
+ * An engine compiles template resources of its type into {@link AbstractTemplateProcessor} instances, one per
+ * resource.  The processor carries the engine specific parts of the templating lifecycle:
+ * <ul>
+ *     <li>compile: {@link AbstractTemplateProcessor#loadTemplate(org.smooks.api.resource.config.ResourceConfig)},</li>
+ *     <li>render to a writer or to bytes: {@link AbstractTemplateProcessor#render(org.w3c.dom.Element, org.smooks.api.ExecutionContext, java.io.Writer)}
+ *         and {@link AbstractTemplateProcessor#render(org.w3c.dom.Element, org.smooks.api.ExecutionContext)},</li>
+ *     <li>referenced variable discovery: {@link AbstractTemplateProcessor#isReferenced(String)}, and</li>
+ *     <li>streaming capabilities: {@link AbstractTemplateProcessor#getCapabilities()}.</li>
+ * </ul>
+ * Everything else (resource configuration, template actions, diagnostics such as the JFR events and the slow
+ * render log) is common to all engines.
+ * <p/>
+ * Engines are plugged into Smooks through {@link AbstractTemplateEngine}, registered as an
+ * {@link org.smooks.api.delivery.ContentHandlerFactory} service.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public interface TemplateEngine {
+
+    /**
+     * Get the type of template resource handled by this engine e.g. "ftl".
+     *
+     * @return The template resource type.
+     */
+    String getType();
+
+    /**
+     * Create an uninitialised template processor.
+     * <p/>
+     * The processor is configured and its template compiled by the Smooks lifecycle.
+     *
+     * @return The template processor.
+     */
+    AbstractTemplateProcessor newTemplateProcessor();
+}
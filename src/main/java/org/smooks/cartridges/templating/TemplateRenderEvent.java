@@ -0,0 +1,96 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * <a href="https://docs.oracle.com/en/java/javase/17/jfapi/">Java Flight Recorder</a> event emitted when an
+ * {@link AbstractTemplateProcessor} applies its template to a message fragment.
+ * <p/>
+ * The event is only committed when it is enabled and its duration exceeds the configured threshold
+ * (default 20 ms). The threshold can be overridden in a JFR settings (.jfc) file, e.g.
+ * <pre>
+ * &lt;event name="org.smooks.cartridges.templating.Render"&gt;
+ *     &lt;setting name="enabled"&gt;true&lt;/setting&gt;
+ *     &lt;setting name="threshold"&gt;5 ms&lt;/setting&gt;
+ * &lt;/event&gt;</pre>
+ * Fragment XPaths are only computed for committed events.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+@Name(TemplateRenderEvent.NAME)
+@Label("Template Render")
+@Category({"Smooks", "Templating"})
+@Description("Application of a template to a message fragment")
+@StackTrace(false)
+@Threshold("20 ms")
+public class TemplateRenderEvent extends Event {
+
+    /**
+     * JFR event name.
+     */
+    public static final String NAME = "org.smooks.cartridges.templating.Render";
+
+    @Label("Engine")
+    @Description("Templating engine type, e.g. ftl, xsl or st")
+    String engine;
+
+    @Label("Resource")
+    @Description("Template resource name")
+    String resource;
+
+    @Label("Fragment")
+    @Description("XPath of the fragment the template was applied to")
+    String fragment;
+
+    @Label("Output Size")
+    @Description("Number of characters written by the template")
+    long outputSize;
+}
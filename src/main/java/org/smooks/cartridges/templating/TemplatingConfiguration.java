@@ -56,6 +56,7 @@ public class TemplatingConfiguration {
 
     private String template;
     private boolean applyBefore = false;
+    private Long resultCacheSize;
 
     /**
      * Public constructor.
@@ -99,4 +100,25 @@ public class TemplatingConfiguration {
         this.applyBefore = applyBefore;
         return this;
     }
+
+    /**
+     * Get the render result cache size.
+     *
+     * @return The render result cache size (bytes), or null if render results are not cached.
+     */
+    protected Long getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * Cache the template outputs, keyed on the fragment content and the beans referenced by the template.
+     * See {@link AbstractTemplateProcessor#RESULT_CACHE_SIZE}.
+     *
+     * @param resultCacheSize The maximum size of the cached outputs (bytes).
+     * @return This instance.
+     */
+    public TemplatingConfiguration setResultCacheSize(long resultCacheSize) {
+        this.resultCacheSize = resultCacheSize;
+        return this;
+    }
 }
@@ -0,0 +1,94 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.compiled;
+
+import org.smooks.api.bean.context.BeanContext;
+import org.smooks.cartridges.templating.AbstractTemplateEngine;
+import org.smooks.cartridges.templating.AbstractTemplateProcessor;
+
+/**
+ * Compiled Java template {@link org.smooks.api.delivery.ContentHandlerFactory}.
+ * <p/>
+ * Creates {@link CompiledTemplateProcessor} instances for applying templates compiled to Java classes
+ * (i.e. ".ctl" files).  Like FreeMarker templates, compiled templates render the {@link BeanContext} beans,
+ * populated by the Smooks JavaBean Cartridge.
+ *
+ * <h2>Targeting ".ctl" Files for Transformation</h2>
+ * <pre>
+ * &lt;resource-config selector="<i>target-element</i>"&gt;
+ *     &lt;!-- See {@link org.smooks.resource.URIResourceLocator} --&gt;
+ *     &lt;resource&gt;<b>/com/acme/AcmeTemplate.ctl</b>&lt;/resource&gt;
+ *
+ *     &lt;!-- (Optional) The action to be applied on the template content.  See the FreeMarker or
+ *          StringTemplate configuration.  Default "replace".--&gt;
+ *     &lt;param name="<b>action</b>"&gt;<i>REPLACE/ADD_TO/INSERT_BEFORE/INSERT_AFTER/BIND_TO</i>&lt;/param&gt;
+ *
+ *     &lt;!-- (Optional) Should the template be applied before (true) or
+ *             after (false) Smooks visits the child elements of the target element.
+ *             Default "false".--&gt;
+ *     &lt;param name="<b>applyTemplateBefore</b>"&gt;<i>true/false</i>&lt;/param&gt;
+ *
+ *     &lt;!-- (Optional) Template encoding.
+ *          Default "UTF-8".--&gt;
+ *     &lt;param name="<b>encoding</b>"&gt;<i>encoding</i>&lt;/param&gt;
+ *
+ *     &lt;!-- (Optional) The directory in which the compiled template classes are cached. --&gt;
+ *     &lt;param name="<b>templating.compiled.classDirectory</b>"&gt;<i>directory</i>&lt;/param&gt;
+ * &lt;/resource-config&gt;
+ * </pre>
+ * See {@link CompiledTemplateProcessor} for the template syntax.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public class CompiledTemplateContentHandlerFactory extends AbstractTemplateEngine {
+
+    @Override
+    public AbstractTemplateProcessor newTemplateProcessor() {
+        return new CompiledTemplateProcessor();
+    }
+
+    @Override
+    public String getType() {
+        return "ctl";
+    }
+}
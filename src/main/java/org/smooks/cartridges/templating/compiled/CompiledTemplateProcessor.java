@@ -0,0 +1,173 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.compiled;
+
+import org.smooks.api.ApplicationContext;
+import org.smooks.api.ExecutionContext;
+import org.smooks.api.SmooksConfigException;
+import org.smooks.api.SmooksException;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.api.resource.visitor.VisitAfterReport;
+import org.smooks.api.resource.visitor.VisitBeforeReport;
+import org.smooks.cartridges.templating.AbstractTemplateProcessor;
+import org.smooks.cartridges.templating.TemplateCapability;
+import org.smooks.cartridges.templating.TemplatingConfiguration;
+import org.w3c.dom.Element;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Compiled Java template application ProcessingUnit.
+ * <p/>
+ * See {@link CompiledTemplateContentHandlerFactory}.
+ * <p/>
+ * The template (a ".ctl" file, or inline) is compiled to a {@link CompiledTemplate} Java class by the
+ * {@link TemplateCompiler}, so rendering runs no interpreter: text is written straight to the output writer and
+ * expressions are plain Java, type checked when the template is compiled.  Template syntax:
+ * <ul>
+ *     <li><code>@import <i>type</i></code> at the start of a line imports a Java type.</li>
+ *     <li><code>@param <i>type</i> <i>name</i></code> at the start of a line declares a variable read from the
+ *         {@link org.smooks.api.bean.context.BeanContext} bean of the same name.  The targeted fragment is
+ *         available as the <code>fragment</code> {@link Element} variable.</li>
+ *     <li><code>${<i>expression</i>}</code> writes the value of a Java expression.  Null values write nothing.</li>
+ *     <li><code>@if(<i>condition</i>)</code>, <code>@elseif(<i>condition</i>)</code>, <code>@else</code>,
+ *         <code>@endif</code>, <code>@for(<i>loop</i>)</code> and <code>@endfor</code> are Java control flow.
+ *         A line holding only a directive outputs nothing.</li>
+ *     <li><code>@@</code> writes a '@'.</li>
+ * </ul>
+ * E.g.
+ * <pre>
+ * &#64;param com.acme.Order order
+ * &lt;order id="${order.getId()}"&gt;
+ * &#64;for(com.acme.OrderItem item : order.getItems())
+ *     &lt;item sku="${item.getSku()}"/&gt;
+ * &#64;endfor
+ * &lt;/order&gt;
+ * </pre>
+ * The compiled classes are cached in the "<b>templating.compiled.classDirectory</b>" parameter (or system property)
+ * directory (default: see {@link TemplateCompiler#getDefaultClassDirectory()}), so a template is only compiled again
+ * when it, or a class it references, changes.  The directory must be owned by the current user and must not be
+ * writable by other users.
+ * Compiling at startup requires a JDK.  Templates compiled at build time through {@link TemplateCompiler#main(String[])}
+ * are loaded from the classpath and never compiled at runtime.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+@VisitBeforeReport(condition = "false")
+@VisitAfterReport(summary = "Applied compiled template.")
+public class CompiledTemplateProcessor extends AbstractTemplateProcessor {
+
+    /**
+     * Class directory parameter/system property.
+     */
+    public static final String CLASS_DIRECTORY = "templating.compiled.classDirectory";
+
+    @Inject
+    private ApplicationContext applicationContext;
+
+    @Inject
+    @Named(CLASS_DIRECTORY)
+    private Optional<String> classDirectory = Optional.empty();
+
+    private String templateSource;
+    private CompiledTemplate template;
+
+    /**
+     * Default constructor.
+     */
+    protected CompiledTemplateProcessor() {
+    }
+
+    /**
+     * Programmatically configure the compiled template Templating Visitor.
+     *
+     * @param templatingConfiguration The templating configuration.
+     */
+    public CompiledTemplateProcessor(TemplatingConfiguration templatingConfiguration) {
+        super.setTemplatingConfiguration(templatingConfiguration);
+    }
+
+    @Override
+    protected void loadTemplate(ResourceConfig resourceConfig) throws IOException {
+        templateSource = new String(resourceConfig.getBytes(), getEncoding());
+
+        TemplateCompiler templateCompiler = TemplateCompiler.getInstance(applicationContext, classDirectory.map(Optional::of).orElseGet(() -> Optional.ofNullable(System.getProperty(CLASS_DIRECTORY))).map(Paths::get).orElseGet(TemplateCompiler::getDefaultClassDirectory));
+        Class<? extends CompiledTemplate> templateClass = templateCompiler.getTemplateClass(getTemplateName(), templateSource);
+        try {
+            template = templateClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new SmooksConfigException("Failed to create compiled template '" + templateClass.getName() + "'.", e);
+        }
+    }
+
+    @Override
+    protected void applyTemplate(Element element, ExecutionContext executionContext, Writer writer) {
+        try {
+            template.render(executionContext.getBeanContext().getBeanMap(), element, writer);
+        } catch (IOException e) {
+            throw new SmooksException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected String getTemplateType() {
+        return "ctl";
+    }
+
+    @Override
+    protected boolean isReferenced(String name) {
+        return templateSource.contains(name);
+    }
+
+    @Override
+    public Set<TemplateCapability> getCapabilities() {
+        return EnumSet.of(TemplateCapability.STREAMING_OUTPUT, TemplateCapability.STREAMING_INPUT);
+    }
+}
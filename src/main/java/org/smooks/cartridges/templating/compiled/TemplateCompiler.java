@@ -0,0 +1,522 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.compiled;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smooks.api.ApplicationContext;
+import org.smooks.api.SmooksConfigException;
+import org.smooks.api.TypedKey;
+import org.smooks.support.StreamUtils;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * Compiles templates to {@link CompiledTemplate} classes, caching the classes in a directory.
+ * <p/>
+ * A template class is named after a digest of the template, and is loaded rather than compiled when it's:
+ * <ol>
+ *     <li>on the classpath, having been compiled at build time (see {@link #main(String[])}), or</li>
+ *     <li>in the class directory, having been compiled by an earlier run.</li>
+ * </ol>
+ * Compiling a template at runtime requires the JDK compiler ({@link ToolProvider#getSystemJavaCompiler()}).
+ * <p/>
+ * The class directory must be owned by the current user and must not be writable by other users.  The default
+ * class directory must not be accessible to other users at all.  Every class compiled to the class directory is
+ * stored with a digest file holding the SHA-256 digest of the class, and of each (non JDK) class it references as
+ * found by the parent class loader.  A class is only loaded from the class directory when those digests still
+ * match, so a tampered class is never loaded, and a class referencing a class that has changed since (e.g. a bean
+ * class of a new application version) is compiled again.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public final class TemplateCompiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TemplateCompiler.class);
+    private static final TypedKey<ConcurrentMap<Path, TemplateCompiler>> COMPILERS_TYPED_KEY = TypedKey.of(TemplateCompiler.class.getName());
+
+    private static final String DIGEST_FILE_EXTENSION = ".digest";
+    private static final String GENERATED_PACKAGE_PATH = TemplateSourceGenerator.GENERATED_PACKAGE.replace('.', '/') + '/';
+
+    private final Path classDirectory;
+    private final ClassLoader classLoader;
+
+    /**
+     * Create a template compiler.
+     *
+     * @param classDirectory The directory in which the template classes are cached.
+     * @param parentClassLoader The class loader from which the template classes and the types they reference are
+     *                          loaded.
+     * @throws IOException Error creating the class directory.
+     * @throws SmooksConfigException The class directory is not private to the current user.
+     */
+    public TemplateCompiler(Path classDirectory, ClassLoader parentClassLoader) throws IOException {
+        this.classDirectory = checkDirectory(createDirectory(classDirectory));
+        this.classLoader = new TemplateClassLoader(this.classDirectory, parentClassLoader);
+    }
+
+    static TemplateCompiler getInstance(ApplicationContext applicationContext, Path classDirectory) throws IOException {
+        ConcurrentMap<Path, TemplateCompiler> compilers = applicationContext.getRegistry().lookup(COMPILERS_TYPED_KEY);
+        if (compilers == null) {
+            synchronized (TemplateCompiler.class) {
+                compilers = applicationContext.getRegistry().lookup(COMPILERS_TYPED_KEY);
+                if (compilers == null) {
+                    compilers = new ConcurrentHashMap<>();
+                    applicationContext.getRegistry().registerObject(COMPILERS_TYPED_KEY, compilers);
+                }
+            }
+        }
+
+        Path directory = classDirectory.toAbsolutePath().normalize();
+        TemplateCompiler templateCompiler = compilers.get(directory);
+        if (templateCompiler == null) {
+            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            templateCompiler = new TemplateCompiler(directory, contextClassLoader != null ? contextClassLoader : TemplateCompiler.class.getClassLoader());
+            TemplateCompiler existingCompiler = compilers.putIfAbsent(directory, templateCompiler);
+            if (existingCompiler != null) {
+                templateCompiler = existingCompiler;
+            }
+        }
+
+        return templateCompiler;
+    }
+
+    /**
+     * Get the default class directory: a directory private to the current user under <code>java.io.tmpdir</code>.
+     * An existing directory that is not owned by the current user, or that other users can access, is refused.
+     *
+     * @return The default class directory.
+     */
+    public static Path getDefaultClassDirectory() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "smooks-compiled-templates-" + System.getProperty("user.name"));
+    }
+
+    /**
+     * Get the template class, compiling it if it's neither on the classpath nor in the class directory.
+     *
+     * @param templateName The template name, used in error messages.
+     * @param template The template.
+     * @return The template class.
+     * @throws SmooksConfigException Template syntax or compilation error.
+     */
+    public Class<? extends CompiledTemplate> getTemplateClass(String templateName, String template) {
+        String className = getClassName(template);
+
+        try {
+            return classLoader.loadClass(className).asSubclass(CompiledTemplate.class);
+        } catch (ClassNotFoundException e) {
+            LOGGER.debug("Compiling template '{}' to class '{}'.", templateName, className);
+        }
+
+        compile(templateName, template, classDirectory, classLoader.getParent());
+        try {
+            return classLoader.loadClass(className).asSubclass(CompiledTemplate.class);
+        } catch (ClassNotFoundException e) {
+            throw new SmooksConfigException("Compiled template class '" + className + "' not found in '" + classDirectory + "'.", e);
+        }
+    }
+
+    /**
+     * Get the name of the class compiled from a template.
+     *
+     * @param template The template.
+     * @return The class name.
+     */
+    public static String getClassName(String template) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(TemplateSourceGenerator.VERSION.getBytes(StandardCharsets.UTF_8));
+            byte[] digest = messageDigest.digest(template.getBytes(StandardCharsets.UTF_8));
+            StringBuilder className = new StringBuilder(TemplateSourceGenerator.GENERATED_PACKAGE).append(".Template_");
+            for (int i = 0; i < 16; i++) {
+                className.append(String.format("%02x", digest[i]));
+            }
+            return className.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compile a template, writing its class to the supplied directory.
+     *
+     * @param templateName The template name, used in error messages.
+     * @param template The template.
+     * @param outputDirectory The directory to which the class is written.
+     * @throws SmooksConfigException Template syntax or compilation error.
+     */
+    public static void compile(String templateName, String template, Path outputDirectory) {
+        compile(templateName, template, outputDirectory, null);
+    }
+
+    /**
+     * Compile a template, writing its class to the supplied directory.
+     *
+     * @param dependencyClassLoader The class loader from which the classes referenced by the template class are
+     *                              digested, or null if no digest file is to be written.
+     */
+    private static void compile(String templateName, String template, Path outputDirectory, ClassLoader dependencyClassLoader) {
+        String className = getClassName(template);
+        String simpleClassName = className.substring(className.lastIndexOf('.') + 1);
+        String source = new TemplateSourceGenerator(templateName, template).generate(simpleClassName);
+        JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+
+        if (javaCompiler == null) {
+            throw new SmooksConfigException("Template '" + templateName + "' must be compiled but no Java compiler is available.  Run on a JDK, or compile the template at build time.");
+        }
+
+        Path workDirectory = null;
+        try {
+            // Compile to a work directory, then move the class into place so that concurrent
+            // compilations of the same template never expose a partially written class...
+            workDirectory = Files.createTempDirectory(createDirectory(outputDirectory), "compile");
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            try (StandardJavaFileManager fileManager = javaCompiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+                JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+                    @Override
+                    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                        return source;
+                    }
+                };
+                boolean success = javaCompiler.getTask(null, fileManager, diagnostics, Arrays.asList("-d", workDirectory.toString(), "-classpath", getClassPath(), "-proc:none", "-g:source,lines"), null, Collections.singletonList(sourceFile)).call();
+                if (!success) {
+                    StringBuilder message = new StringBuilder("Failed to compile template '").append(templateName).append("':");
+                    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                        if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                            message.append("\n    ").append(diagnostic.getMessage(null));
+                        }
+                    }
+                    throw new SmooksConfigException(message.append("\nGenerated source:\n").append(source).toString());
+                }
+            }
+
+            String classFile = className.replace('.', File.separatorChar) + ".class";
+            Path targetDirectory = createDirectory(outputDirectory.resolve(classFile).getParent());
+            if (dependencyClassLoader != null) {
+                // The digest file goes first: a class without its digest file is never loaded...
+                Path digestFile = workDirectory.resolve(className.replace('.', File.separatorChar) + DIGEST_FILE_EXTENSION);
+                Files.write(digestFile, getDigests(Files.readAllBytes(workDirectory.resolve(classFile)), dependencyClassLoader), StandardCharsets.UTF_8);
+                move(digestFile, targetDirectory.resolve(simpleClassName + DIGEST_FILE_EXTENSION));
+            }
+            move(workDirectory.resolve(classFile), targetDirectory.resolve(simpleClassName + ".class"));
+        } catch (IOException e) {
+            throw new SmooksConfigException("Failed to compile template '" + templateName + "' to '" + outputDirectory + "'.", e);
+        } finally {
+            if (workDirectory != null) {
+                delete(workDirectory);
+            }
+        }
+    }
+
+    /**
+     * Compile templates at build time.
+     * <p/>
+     * Arguments: the output directory (e.g. <code>target/classes</code>), followed by the template files.
+     * The templates are read as UTF-8.
+     *
+     * @param args The output directory and template files.
+     * @throws IOException Error reading a template.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: " + TemplateCompiler.class.getName() + " <output-directory> <template-file>...");
+            System.exit(1);
+        }
+
+        Path outputDirectory = Paths.get(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            Path templateFile = Paths.get(args[i]);
+            compile(templateFile.toString(), new String(Files.readAllBytes(templateFile), StandardCharsets.UTF_8), outputDirectory);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Get the lines of the digest file of a template class: the digest of the class, followed by the name and
+     * digest of each class it references.
+     */
+    private static List<String> getDigests(byte[] classBytes, ClassLoader dependencyClassLoader) throws IOException {
+        List<String> digests = new ArrayList<>();
+        digests.add(digest(classBytes));
+        for (String referencedClassName : getReferencedClassNames(classBytes)) {
+            digests.add(referencedClassName + ' ' + getClassDigest(referencedClassName, dependencyClassLoader));
+        }
+        return digests;
+    }
+
+    /**
+     * Get the internal names of the classes referenced from the constant pool of a class, other than the JDK and
+     * template classes.
+     */
+    static Set<String> getReferencedClassNames(byte[] classBytes) throws IOException {
+        DataInputStream classStream = new DataInputStream(new ByteArrayInputStream(classBytes));
+        classStream.skipBytes(8);
+        int constantPoolCount = classStream.readUnsignedShort();
+        String[] utf8Constants = new String[constantPoolCount];
+        List<Integer> classNameIndexes = new ArrayList<>();
+
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = classStream.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8Constants[i] = classStream.readUTF();
+                    break;
+                case 7:
+                    classNameIndexes.add(classStream.readUnsignedShort());
+                    break;
+                case 8: case 16: case 19: case 20:
+                    classStream.skipBytes(2);
+                    break;
+                case 15:
+                    classStream.skipBytes(3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                    classStream.skipBytes(4);
+                    break;
+                case 5: case 6:
+                    // 8 byte constants take two constant pool entries...
+                    classStream.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unexpected constant pool tag " + tag + ".");
+            }
+        }
+
+        Set<String> classNames = new TreeSet<>();
+        for (int classNameIndex : classNameIndexes) {
+            String className = utf8Constants[classNameIndex];
+            int elementTypeStart = className.lastIndexOf('[') + 1;
+            if (elementTypeStart > 0) {
+                // Array type: keep its element class, if any...
+                className = className.charAt(elementTypeStart) == 'L' ? className.substring(elementTypeStart + 1, className.length() - 1) : null;
+            }
+            if (className != null && !className.startsWith("java/") && !className.startsWith(GENERATED_PACKAGE_PATH)) {
+                classNames.add(className);
+            }
+        }
+        return classNames;
+    }
+
+    private static String getClassDigest(String className, ClassLoader classLoader) throws IOException {
+        try (InputStream classStream = classLoader.getResourceAsStream(className + ".class")) {
+            return classStream != null ? digest(StreamUtils.readStream(classStream)) : "-";
+        }
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hexDigest = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hexDigest.append(String.format("%02x", b));
+            }
+            return hexDigest.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getClassPath() {
+        Set<String> classPath = new LinkedHashSet<>(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+
+        for (ClassLoader classLoader = Thread.currentThread().getContextClassLoader(); classLoader != null; classLoader = classLoader.getParent()) {
+            if (classLoader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) classLoader).getURLs()) {
+                    if (url.getProtocol().equals("file")) {
+                        classPath.add(new File(url.getPath()).getPath());
+                    }
+                }
+            }
+        }
+        CodeSource codeSource = CompiledTemplate.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation().getProtocol().equals("file")) {
+            classPath.add(new File(codeSource.getLocation().getPath()).getPath());
+        }
+
+        return String.join(File.pathSeparator, classPath);
+    }
+
+    private static Path createDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            try {
+                if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                    // Only the owner can add classes to the directory...
+                    Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                } else {
+                    Files.createDirectories(directory);
+                }
+            } catch (FileAlreadyExistsException e) {
+                // Created concurrently...
+            }
+        }
+        return directory;
+    }
+
+    private static Path checkDirectory(Path directory) throws IOException {
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            UserPrincipal owner = Files.getOwner(directory);
+            UserPrincipal currentUser = directory.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory);
+            Set<PosixFilePermission> otherPermissions = EnumSet.complementOf(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE));
+
+            if (!owner.equals(currentUser)) {
+                throw new SmooksConfigException("Template class directory '" + directory + "' is owned by '" + owner.getName() + "'.  It must be owned by the current user ('" + currentUser.getName() + "').");
+            }
+            if (directory.toAbsolutePath().normalize().equals(getDefaultClassDirectory().toAbsolutePath().normalize())) {
+                permissions.retainAll(otherPermissions);
+            } else {
+                permissions.retainAll(EnumSet.of(PosixFilePermission.GROUP_WRITE, PosixFilePermission.OTHERS_WRITE));
+            }
+            if (!permissions.isEmpty()) {
+                throw new SmooksConfigException("Template class directory '" + directory + "' grants " + permissions + " permissions to other users.  Remove them, e.g. 'chmod 700 " + directory + "'.");
+            }
+        }
+        return directory;
+    }
+
+    private static void delete(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            LOGGER.debug("Failed to delete '{}'.", directory, e);
+        }
+    }
+
+    /**
+     * Loads the template classes of the class directory, verifying them against their digest file.
+     */
+    private static final class TemplateClassLoader extends ClassLoader {
+
+        static {
+            registerAsParallelCapable();
+        }
+
+        private final Path classDirectory;
+
+        private TemplateClassLoader(Path classDirectory, ClassLoader parent) {
+            super(parent);
+            this.classDirectory = classDirectory;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            Path classFile = classDirectory.resolve(name.replace('.', File.separatorChar) + ".class");
+            byte[] classBytes;
+            List<String> digests;
+            try {
+                classBytes = Files.readAllBytes(classFile);
+                digests = Files.readAllLines(classFile.resolveSibling(name.substring(name.lastIndexOf('.') + 1) + DIGEST_FILE_EXTENSION), StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                throw new ClassNotFoundException(name);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+
+            if (digests.isEmpty() || !digests.get(0).equals(digest(classBytes))) {
+                LOGGER.warn("Template class file '{}' doesn't match its digest.  Compiling the template again.", classFile);
+                throw new ClassNotFoundException(name);
+            }
+            for (String dependencyDigest : digests.subList(1, digests.size())) {
+                String referencedClassName = dependencyDigest.substring(0, dependencyDigest.indexOf(' '));
+                try {
+                    if (!dependencyDigest.substring(referencedClassName.length() + 1).equals(getClassDigest(referencedClassName, getParent()))) {
+                        LOGGER.debug("Class '{}' referenced by template class '{}' has changed.  Compiling the template again.", referencedClassName, name);
+                        throw new ClassNotFoundException(name);
+                    }
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+
+            return defineClass(name, classBytes, 0, classBytes.length);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.compiled;
+
+import org.smooks.api.SmooksConfigException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Generates the Java source of a {@link CompiledTemplate} from a template.
+ * <p/>
+ * See {@link CompiledTemplateProcessor} for the template syntax.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class TemplateSourceGenerator {
+
+    /**
+     * Version of the generated code.  Part of the generated class names, so that classes generated by
+     * a different version are never loaded from the class cache.
+     */
+    static final String VERSION = "1";
+
+    static final String GENERATED_PACKAGE = "org.smooks.cartridges.templating.compiled.generated";
+
+    private static final int MAX_LITERAL_LENGTH = 8192;
+
+    private final String templateName;
+    private final String template;
+    private final StringBuilder imports = new StringBuilder();
+    private final StringBuilder params = new StringBuilder();
+    private final StringBuilder body = new StringBuilder();
+    private final Deque<String> blocks = new ArrayDeque<>();
+    private int pos;
+    private String blockCode;
+
+    TemplateSourceGenerator(String templateName, String template) {
+        this.templateName = templateName;
+        this.template = template;
+    }
+
+    /**
+     * Generate the source of the template class.
+     *
+     * @param simpleClassName The simple name of the class.
+     * @return The class source.
+     * @throws SmooksConfigException Template syntax error.
+     */
+    String generate(String simpleClassName) {
+        int textStart = 0;
+
+        while (pos < template.length()) {
+            char c = template.charAt(pos);
+
+            if (c == '$' && isAt(pos + 1, "{")) {
+                appendText(textStart, pos);
+                int exprEnd = findClosing(pos + 2, '{', '}');
+                body.append("        write(out, ").append(template, pos + 2, exprEnd).append(");\n");
+                pos = exprEnd + 1;
+                textStart = pos;
+            } else if (c == '@') {
+                int directiveStart = pos;
+                int lineStart = getLineStart(directiveStart);
+                if (isAt(pos + 1, "@")) {
+                    appendText(textStart, pos + 1);
+                    pos += 2;
+                    textStart = pos;
+                } else if (lineStart == directiveStart && (isKeyword("import") || isKeyword("param"))) {
+                    appendText(textStart, directiveStart);
+                    parseDeclaration();
+                    textStart = pos;
+                } else if (parseBlockDirective()) {
+                    // A directive alone on its line doesn't output the line...
+                    int lineEnd = getLineEnd(pos);
+                    if (lineStart >= 0 && lineEnd >= 0) {
+                        appendText(textStart, lineStart);
+                        pos = skipLineBreak(lineEnd);
+                    } else {
+                        appendText(textStart, directiveStart);
+                    }
+                    body.append(blockCode);
+                    textStart = pos;
+                } else {
+                    pos++;
+                }
+            } else {
+                pos++;
+            }
+        }
+        appendText(textStart, pos);
+
+        if (!blocks.isEmpty()) {
+            throw syntaxError("Unclosed @" + blocks.peek() + " block", template.length());
+        }
+
+        return "package " + GENERATED_PACKAGE + ";\n\n" +
+                imports +
+                "\n" +
+                "public final class " + simpleClassName + " implements " + CompiledTemplate.class.getName() + " {\n\n" +
+                "    @Override\n" +
+                "    @SuppressWarnings(\"unchecked\")\n" +
+                "    public void render(java.util.Map<String, Object> beans, org.w3c.dom.Element fragment, java.io.Writer out) throws java.io.IOException {\n" +
+                params +
+                body +
+                "    }\n\n" +
+                "    private static void write(java.io.Writer out, String value) throws java.io.IOException {\n" +
+                "        if (value != null) {\n" +
+                "            out.write(value);\n" +
+                "        }\n" +
+                "    }\n\n" +
+                "    private static void write(java.io.Writer out, Object value) throws java.io.IOException {\n" +
+                "        if (value != null) {\n" +
+                "            out.write(value.toString());\n" +
+                "        }\n" +
+                "    }\n\n" +
+                "    private static void write(java.io.Writer out, char value) throws java.io.IOException {\n" +
+                "        out.write(value);\n" +
+                "    }\n\n" +
+                "    private static void write(java.io.Writer out, int value) throws java.io.IOException {\n" +
+                "        out.write(Integer.toString(value));\n" +
+                "    }\n\n" +
+                "    private static void write(java.io.Writer out, long value) throws java.io.IOException {\n" +
+                "        out.write(Long.toString(value));\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private boolean parseBlockDirective() {
+        if (isKeyword("if")) {
+            blocks.push("if");
+            blockCode = "        if (" + parseCondition() + ") {\n";
+        } else if (isKeyword("elseif")) {
+            requireBlock("if", "@elseif");
+            blockCode = "        } else if (" + parseCondition() + ") {\n";
+        } else if (isKeyword("else")) {
+            requireBlock("if", "@else");
+            pos += "@else".length();
+            blockCode = "        } else {\n";
+        } else if (isKeyword("endif")) {
+            requireBlock("if", "@endif");
+            blocks.pop();
+            pos += "@endif".length();
+            blockCode = "        }\n";
+        } else if (isKeyword("for")) {
+            blocks.push("for");
+            blockCode = "        for (" + parseCondition() + ") {\n";
+        } else if (isKeyword("endfor")) {
+            requireBlock("for", "@endfor");
+            blocks.pop();
+            pos += "@endfor".length();
+            blockCode = "        }\n";
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void parseDeclaration() {
+        boolean isImport = isKeyword("import");
+        int declarationEnd = pos;
+        while (declarationEnd < template.length() && template.charAt(declarationEnd) != '\n' && template.charAt(declarationEnd) != '\r') {
+            declarationEnd++;
+        }
+        String declaration = template.substring(pos + (isImport ? "@import" : "@param").length(), declarationEnd).trim();
+
+        if (declaration.endsWith(";")) {
+            declaration = declaration.substring(0, declaration.length() - 1).trim();
+        }
+        if (isImport) {
+            imports.append("import ").append(declaration).append(";\n");
+        } else {
+            int nameStart = declaration.lastIndexOf(' ') + 1;
+            if (nameStart == 0) {
+                throw syntaxError("Invalid @param declaration '" + declaration + "'.  Expected '@param <type> <name>'", pos);
+            }
+            String type = declaration.substring(0, nameStart).trim();
+            String name = declaration.substring(nameStart);
+            params.append("        final ").append(type).append(' ').append(name).append(" = (").append(type).append(") beans.get(\"").append(name).append("\");\n");
+        }
+        pos = skipLineBreak(declarationEnd);
+    }
+
+    private String parseCondition() {
+        int parenStart = template.indexOf('(', pos);
+        int parenEnd = findClosing(parenStart + 1, '(', ')');
+
+        pos = parenEnd + 1;
+        return template.substring(parenStart + 1, parenEnd);
+    }
+
+    private void requireBlock(String block, String directive) {
+        if (!block.equals(blocks.peek())) {
+            throw syntaxError(directive + " outside of an @" + block + " block", pos);
+        }
+    }
+
+    private boolean isKeyword(String keyword) {
+        if (!isAt(pos + 1, keyword)) {
+            return false;
+        }
+
+        int next = pos + 1 + keyword.length();
+        if (keyword.equals("if") || keyword.equals("elseif") || keyword.equals("for")) {
+            while (next < template.length() && template.charAt(next) == ' ') {
+                next++;
+            }
+            return next < template.length() && template.charAt(next) == '(';
+        } else {
+            return next >= template.length() || !Character.isJavaIdentifierPart(template.charAt(next));
+        }
+    }
+
+    private boolean isAt(int index, String string) {
+        return template.startsWith(string, index);
+    }
+
+    /**
+     * Find the closing bracket of a Java expression, skipping nested brackets and string and char literals.
+     */
+    private int findClosing(int from, char open, char close) {
+        int depth = 0;
+
+        for (int i = from; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c == '"' || c == '\'') {
+                i++;
+                while (i < template.length() && template.charAt(i) != c) {
+                    if (template.charAt(i) == '\\') {
+                        i++;
+                    }
+                    i++;
+                }
+            } else if (c == open) {
+                depth++;
+            } else if (c == close) {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+            }
+        }
+
+        throw syntaxError("Missing closing '" + close + "'", from);
+    }
+
+    /**
+     * Get the start of the line containing the index if only whitespace precedes the index on the line, otherwise -1.
+     */
+    private int getLineStart(int index) {
+        int i = index - 1;
+        while (i >= 0 && (template.charAt(i) == ' ' || template.charAt(i) == '\t')) {
+            i--;
+        }
+        return (i < 0 || template.charAt(i) == '\n' || template.charAt(i) == '\r') ? i + 1 : -1;
+    }
+
+    /**
+     * Get the index of the line break ending the line if only whitespace follows the index on the line, otherwise -1.
+     */
+    private int getLineEnd(int index) {
+        int i = index;
+        while (i < template.length() && (template.charAt(i) == ' ' || template.charAt(i) == '\t')) {
+            i++;
+        }
+        return (i == template.length() || template.charAt(i) == '\n' || template.charAt(i) == '\r') ? i : -1;
+    }
+
+    private int skipLineBreak(int index) {
+        if (isAt(index, "\r\n")) {
+            return index + 2;
+        } else if (isAt(index, "\n") || isAt(index, "\r")) {
+            return index + 1;
+        } else {
+            return index;
+        }
+    }
+
+    private void appendText(int start, int end) {
+        for (int chunkStart = start; chunkStart < end; chunkStart += MAX_LITERAL_LENGTH) {
+            int chunkEnd = Math.min(end, chunkStart + MAX_LITERAL_LENGTH);
+            body.append("        out.write(\"");
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                char c = template.charAt(i);
+                switch (c) {
+                    case '"':
+                        body.append("\\\"");
+                        break;
+                    case '\\':
+                        body.append("\\\\");
+                        break;
+                    case '\n':
+                        body.append("\\n");
+                        break;
+                    case '\r':
+                        body.append("\\r");
+                        break;
+                    case '\t':
+                        body.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20 || c > 0x7e) {
+                            body.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            body.append(c);
+                        }
+                }
+            }
+            body.append("\");\n");
+        }
+    }
+
+    private SmooksConfigException syntaxError(String message, int index) {
+        int line = 1;
+        for (int i = 0; i < index && i < template.length(); i++) {
+            if (template.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return new SmooksConfigException(message + " in template '" + templateName + "' at line " + line + ".");
+    }
+}
@@ -0,0 +1,120 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.DefaultObjectWrapperConfiguration;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.Version;
+import org.w3c.dom.Node;
+
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * FreeMarker {@link freemarker.template.ObjectWrapper} reading JavaBean and record properties through generated accessors.
+ * <p/>
+ * Differences to the {@link DefaultObjectWrapper} configured by default:
+ * <ul>
+ *     <li>Bean property reads (e.g. <code>${order.customer.name}</code>) call the getter through a
+ *         {@link java.lang.invoke.LambdaMetafactory} generated accessor instead of reflection.  Accessors are
+ *         generated on the first read of a property.  Record components are readable by name.</li>
+ *     <li>{@link java.util.Map}s and {@link java.util.List}s are adapted instead of being copied into
+ *         {@link freemarker.template.SimpleHash}/{@link freemarker.template.SimpleSequence} instances.</li>
+ * </ul>
+ * Instances are shared (see {@link #getInstance(Version)}), so class introspection is done once for all
+ * {@link FreeMarkerTemplateProcessor}s configured with this wrapper.
+ * <p/>
+ * Select it on a FreeMarker resource by setting the "templating.freemarker.objectWrapper" parameter to "accessor".
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public class AccessorObjectWrapper extends DefaultObjectWrapper {
+
+    private static final ConcurrentMap<Version, AccessorObjectWrapper> INSTANCES = new ConcurrentHashMap<>();
+
+    private final ClassValue<BeanPropertyAccessors> beanPropertyAccessors = new ClassValue<BeanPropertyAccessors>() {
+        @Override
+        protected BeanPropertyAccessors computeValue(Class<?> type) {
+            return BeanPropertyAccessors.introspect(type, getMemberAccessPolicy());
+        }
+    };
+
+    /**
+     * Get the shared (read-only) instance for a FreeMarker incompatible improvements version.
+     *
+     * @param incompatibleImprovements The FreeMarker incompatible improvements version e.g. {@link Configuration#VERSION_2_3_21}.
+     * @return The shared instance.
+     */
+    public static AccessorObjectWrapper getInstance(Version incompatibleImprovements) {
+        return INSTANCES.computeIfAbsent(incompatibleImprovements, version -> {
+            DefaultObjectWrapperConfiguration configuration = new DefaultObjectWrapperConfiguration(version) {
+            };
+            configuration.setUseAdaptersForContainers(true);
+            return new AccessorObjectWrapper(configuration);
+        });
+    }
+
+    protected AccessorObjectWrapper(DefaultObjectWrapperConfiguration configuration) {
+        super(configuration, true);
+    }
+
+    @Override
+    protected TemplateModel handleUnknownType(Object obj) throws TemplateModelException {
+        if (obj instanceof Node || obj instanceof ResourceBundle || obj instanceof Iterator || obj instanceof Enumeration) {
+            return super.handleUnknownType(obj);
+        }
+
+        BeanPropertyAccessors accessors = beanPropertyAccessors.get(obj.getClass());
+        if (accessors.isEmpty()) {
+            return super.handleUnknownType(obj);
+        }
+
+        return new AccessorBeanModel(obj, this, accessors);
+    }
+}
@@ -0,0 +1,222 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.ext.beans.ClassMemberAccessPolicy;
+import freemarker.ext.beans.MemberAccessPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Property accessors of a JavaBean (or record) class.
+ * <p/>
+ * Accessors are generated lazily, the first time a property is read.  Where the read method is
+ * visible to this cartridge, the accessor is a {@link LambdaMetafactory} generated {@link Function}
+ * i.e. a direct call to the getter.  Otherwise it falls back to a {@link MethodHandle} invocation.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class BeanPropertyAccessors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BeanPropertyAccessors.class);
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType ACCESSOR_INVOKED_TYPE = MethodType.methodType(Function.class);
+    private static final MethodType ACCESSOR_METHOD_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final Function<Object, Object> UNSUPPORTED = bean -> null;
+
+    /**
+     * Java 16+ record reflection, looked up reflectively as this cartridge targets Java 8.
+     */
+    private static final Method IS_RECORD = findMethod(Class.class, "isRecord");
+    private static final Method GET_RECORD_COMPONENTS = findMethod(Class.class, "getRecordComponents");
+    private static final Method GET_ACCESSOR = IS_RECORD != null ? findMethod(GET_RECORD_COMPONENTS.getReturnType().getComponentType(), "getAccessor") : null;
+
+    static final BeanPropertyAccessors NONE = new BeanPropertyAccessors(Collections.emptyMap());
+
+    private final Map<String, Property> properties;
+
+    private BeanPropertyAccessors(Map<String, Property> properties) {
+        this.properties = properties;
+    }
+
+    static BeanPropertyAccessors introspect(Class<?> beanClass, MemberAccessPolicy memberAccessPolicy) {
+        if (!Modifier.isPublic(beanClass.getModifiers())) {
+            return NONE;
+        }
+
+        ClassMemberAccessPolicy classMemberAccessPolicy = memberAccessPolicy.forClass(beanClass);
+        Map<String, Property> properties = new HashMap<>();
+
+        try {
+            for (PropertyDescriptor propertyDescriptor : Introspector.getBeanInfo(beanClass, Object.class).getPropertyDescriptors()) {
+                Method readMethod = propertyDescriptor.getReadMethod();
+                if (readMethod != null && classMemberAccessPolicy.isMethodExposed(readMethod)) {
+                    properties.put(propertyDescriptor.getName(), new Property(readMethod));
+                }
+            }
+            for (Method accessor : getRecordAccessors(beanClass)) {
+                if (classMemberAccessPolicy.isMethodExposed(accessor)) {
+                    properties.putIfAbsent(accessor.getName(), new Property(accessor));
+                }
+            }
+        } catch (IntrospectionException | ReflectiveOperationException e) {
+            LOGGER.debug("Failed to introspect [{}]. Property reads will use the default bean model.", beanClass.getName(), e);
+            return NONE;
+        }
+
+        return properties.isEmpty() ? NONE : new BeanPropertyAccessors(properties);
+    }
+
+    boolean isEmpty() {
+        return properties.isEmpty();
+    }
+
+    /**
+     * Get the accessor of a property.
+     *
+     * @param name The property name.
+     * @return The property accessor, or null if the property is unknown or cannot be read with a generated accessor.
+     */
+    Function<Object, Object> getAccessor(String name) {
+        Property property = properties.get(name);
+        if (property == null) {
+            return null;
+        }
+
+        Function<Object, Object> accessor = property.accessor;
+        if (accessor == null) {
+            accessor = createAccessor(property.readMethod);
+            property.accessor = accessor;
+        }
+
+        return accessor != UNSUPPORTED ? accessor : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> createAccessor(Method readMethod) {
+        try {
+            MethodHandle readMethodHandle = LOOKUP.unreflect(readMethod);
+            if (isVisible(readMethod.getDeclaringClass()) && isVisible(readMethod.getReturnType())) {
+                MethodType instantiatedMethodType = MethodType.methodType(readMethod.getReturnType(), readMethod.getDeclaringClass()).wrap();
+                CallSite callSite = LambdaMetafactory.metafactory(LOOKUP, "apply", ACCESSOR_INVOKED_TYPE, ACCESSOR_METHOD_TYPE, readMethodHandle, instantiatedMethodType);
+
+                return (Function<Object, Object>) callSite.getTarget().invokeExact();
+            } else {
+                MethodHandle accessorMethodHandle = readMethodHandle.asType(ACCESSOR_METHOD_TYPE);
+
+                return bean -> {
+                    try {
+                        return accessorMethodHandle.invokeExact(bean);
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new IllegalStateException(t);
+                    }
+                };
+            }
+        } catch (Throwable t) {
+            LOGGER.debug("Failed to generate accessor for [{}]. Property reads will use the default bean model.", readMethod, t);
+            return UNSUPPORTED;
+        }
+    }
+
+    private static boolean isVisible(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive() || type.getClassLoader() == null) {
+            return true;
+        }
+        try {
+            return Class.forName(type.getName(), false, BeanPropertyAccessors.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static Method[] getRecordAccessors(Class<?> beanClass) throws ReflectiveOperationException {
+        if (IS_RECORD == null || GET_ACCESSOR == null || !((Boolean) IS_RECORD.invoke(beanClass))) {
+            return new Method[0];
+        }
+
+        Object[] recordComponents = (Object[]) GET_RECORD_COMPONENTS.invoke(beanClass);
+        Method[] accessors = new Method[recordComponents.length];
+        for (int i = 0; i < recordComponents.length; i++) {
+            accessors[i] = (Method) GET_ACCESSOR.invoke(recordComponents[i]);
+        }
+
+        return accessors;
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static final class Property {
+        private final Method readMethod;
+        private volatile Function<Object, Object> accessor;
+
+        private Property(Method readMethod) {
+            this.readMethod = readMethod;
+        }
+    }
+}
@@ -0,0 +1,978 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.core.MarkupOutputFormat;
+import freemarker.core.TemplateMarkupOutputModel;
+import freemarker.ext.beans.BeanModel;
+import freemarker.ext.dom.NodeModel;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.Template;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateCollectionModelEx;
+import freemarker.template.TemplateDateModel;
+import freemarker.template.TemplateExceptionHandler;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateMethodModel;
+import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.utility.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.Collator;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A FreeMarker {@link Template} compiled to a tree of Java nodes.
+ * <p/>
+ * Templates made of text, <code>${}</code> interpolations, <code>#if</code>/<code>#elseif</code>/<code>#else</code>
+ * and <code>#list</code> (or <code>#foreach</code>) directives, using the expressions accepted by
+ * {@link FreeMarkerSubsetParser}, are compiled when loaded.  A compiled template renders without a FreeMarker
+ * {@link freemarker.core.Environment} and without interpreting FTL: nodes write their text, or evaluate their
+ * expressions against the model exposed by the template's {@link ObjectWrapper}, and format values the way
+ * FreeMarker does.
+ * <p/>
+ * {@link #compile(Template)} returns null for templates using any other construct, or settings the compiled form
+ * doesn't reproduce (e.g. classic compatible mode or custom number formats).  Those templates are left to
+ * {@link Template#process(Object, Writer)}.
+ * <p/>
+ * Some values are only known at render time to be beyond the compiled form: DOM {@link NodeModel NodeModels} can be
+ * output, but not navigated (FreeMarker resolves node names against the namespaces of the current
+ * {@link freemarker.core.Environment}, which compiled templates don't have), and date values are neither formatted
+ * nor compared.  Rendering such a value throws an {@link UnsupportedValueException}, upon which the caller discards
+ * the compiled output and interprets the template instead (see {@link #setInterpreted()}).
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class CompiledFreeMarkerTemplate {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompiledFreeMarkerTemplate.class);
+
+    private final Template template;
+    private final Node[] nodes;
+    private final int loopDepth;
+    private final Set<String> variableNames;
+    private final ObjectWrapper objectWrapper;
+    private final boolean isDirectModelLookup;
+    private final boolean isXhtmlEscaping;
+    private final ThreadLocal<NumberFormat> numberFormat;
+    private final ThreadLocal<Collator> collator;
+    private volatile boolean isInterpreted;
+
+    private CompiledFreeMarkerTemplate(Template template, Node[] nodes, int loopDepth, Set<String> variableNames) {
+        this.template = template;
+        this.nodes = nodes;
+        this.loopDepth = loopDepth;
+        this.variableNames = variableNames;
+        this.objectWrapper = template.getObjectWrapper();
+        // The hashes DefaultObjectWrapper and AccessorObjectWrapper wrap a Map into (SimpleHash, DefaultMapAdapter)
+        // look values up by key, so the data model needn't be wrapped.  Subclasses might wrap Maps differently...
+        this.isDirectModelLookup = (objectWrapper.getClass() == DefaultObjectWrapper.class || objectWrapper.getClass() == AccessorObjectWrapper.class);
+        this.isXhtmlEscaping = template.getConfiguration().getIncompatibleImprovements().intValue() >= Configuration.VERSION_2_3_20.intValue();
+        final String numberFormatPattern = template.getNumberFormat();
+        final Locale locale = template.getLocale();
+        this.numberFormat = ThreadLocal.withInitial(() -> newNumberFormat(numberFormatPattern, locale));
+        this.collator = ThreadLocal.withInitial(() -> Collator.getInstance(locale));
+    }
+
+    /**
+     * Compile a template.
+     *
+     * @param template The template.
+     * @return The compiled template, or null if the template can't be compiled.
+     */
+    static CompiledFreeMarkerTemplate compile(Template template) {
+        try {
+            assertSettingsSupported(template);
+            FreeMarkerSubsetParser parser = new FreeMarkerSubsetParser(template.toString(), template.getArithmeticEngine());
+            Node[] nodes = parser.parse();
+
+            return new CompiledFreeMarkerTemplate(template, nodes, parser.getLoopDepth(), parser.getVariableNames());
+        } catch (FreeMarkerSubsetParser.UnsupportedConstructException e) {
+            LOGGER.debug("FreeMarker template '{}' not compiled: {}.  Processing it with the FreeMarker interpreter.", template.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static void assertSettingsSupported(Template template) throws FreeMarkerSubsetParser.UnsupportedConstructException {
+        String numberFormat = template.getNumberFormat();
+
+        if (template.isClassicCompatible()) {
+            throw new FreeMarkerSubsetParser.UnsupportedConstructException("classic compatible mode");
+        }
+        if (numberFormat.startsWith("@") || numberFormat.equals("c") || numberFormat.equals("computer") || numberFormat.indexOf(';') != -1) {
+            throw new FreeMarkerSubsetParser.UnsupportedConstructException("number format '" + numberFormat + "'");
+        }
+        if (!template.getBooleanFormat().equals("true,false")) {
+            throw new FreeMarkerSubsetParser.UnsupportedConstructException("boolean format '" + template.getBooleanFormat() + "'");
+        }
+        if (!template.getConfiguration().getFallbackOnNullLoopVariable()) {
+            throw new FreeMarkerSubsetParser.UnsupportedConstructException("fallback_on_null_loop_variable=false");
+        }
+        if (template.getOutputFormat() instanceof MarkupOutputFormat) {
+            throw new FreeMarkerSubsetParser.UnsupportedConstructException("output format '" + template.getOutputFormat().getName() + "'");
+        }
+        if (template.getActualTagSyntax() != Configuration.ANGLE_BRACKET_TAG_SYNTAX || template.getInterpolationSyntax() == Configuration.SQUARE_BRACKET_INTERPOLATION_SYNTAX) {
+            throw new FreeMarkerSubsetParser.UnsupportedConstructException("square bracket syntax");
+        }
+        if (!template.getConfiguration().getAutoImports().isEmpty() || !template.getConfiguration().getAutoIncludes().isEmpty()) {
+            throw new FreeMarkerSubsetParser.UnsupportedConstructException("auto-imports and auto-includes");
+        }
+        // Errors must abort the render, as they do in compiled templates...
+        TemplateExceptionHandler exceptionHandler = template.getTemplateExceptionHandler();
+        if (exceptionHandler != TemplateExceptionHandler.RETHROW_HANDLER && exceptionHandler != TemplateExceptionHandler.DEBUG_HANDLER && exceptionHandler != TemplateExceptionHandler.HTML_DEBUG_HANDLER) {
+            throw new FreeMarkerSubsetParser.UnsupportedConstructException("template exception handler " + exceptionHandler);
+        }
+    }
+
+    private static NumberFormat newNumberFormat(String pattern, Locale locale) {
+        switch (pattern) {
+            case "number":
+                return NumberFormat.getNumberInstance(locale);
+            case "currency":
+                return NumberFormat.getCurrencyInstance(locale);
+            case "percent":
+                return NumberFormat.getPercentInstance(locale);
+            default:
+                return new DecimalFormat(pattern, new DecimalFormatSymbols(locale));
+        }
+    }
+
+    /**
+     * Render the template.
+     *
+     * @param model The data model.
+     * @param writer The writer to which the template output is written.
+     * @throws TemplateException Error evaluating the template.
+     * @throws IOException Error writing the output.
+     */
+    void process(Map<String, Object> model, Writer writer) throws TemplateException, IOException {
+        Scope scope = new Scope(this, model, writer);
+        for (Node node : nodes) {
+            node.render(scope);
+        }
+    }
+
+    Template getTemplate() {
+        return template;
+    }
+
+    /**
+     * Should the template be interpreted rather than rendered by this compiled template.
+     *
+     * @return True if a render has failed with an {@link UnsupportedValueException}, otherwise false.
+     */
+    boolean isInterpreted() {
+        return isInterpreted;
+    }
+
+    /**
+     * Leave later renders of the template to the interpreter, after a render has failed with an
+     * {@link UnsupportedValueException}.  The values a template is rendered with are typically of the same types
+     * from one render to the next, so the compiled form isn't attempted again.
+     */
+    void setInterpreted() {
+        if (!isInterpreted) {
+            LOGGER.debug("FreeMarker template '{}' renders values its compiled form doesn't support.  Processing it with the FreeMarker interpreter.", template.getName());
+            isInterpreted = true;
+        }
+    }
+
+    /**
+     * Is the named data model (or shared) variable referenced by the template.
+     *
+     * @param name The variable name.
+     * @return True if the template references the variable, otherwise false.
+     */
+    boolean isVariableReferenced(String name) {
+        return variableNames.contains(name);
+    }
+
+    /**
+     * The state of a render.
+     */
+    static final class Scope {
+
+        private final CompiledFreeMarkerTemplate compiledTemplate;
+        private final Map<String, Object> model;
+        private final TemplateHashModel modelHash;
+        private final Writer writer;
+        private final Loop[] loops;
+
+        private Scope(CompiledFreeMarkerTemplate compiledTemplate, Map<String, Object> model, Writer writer) throws TemplateModelException {
+            this.compiledTemplate = compiledTemplate;
+            this.model = model;
+            if (compiledTemplate.isDirectModelLookup) {
+                this.modelHash = null;
+            } else {
+                TemplateModel wrappedModel = compiledTemplate.objectWrapper.wrap(model);
+                if (!(wrappedModel instanceof TemplateHashModel)) {
+                    throw new TemplateModelException(compiledTemplate.objectWrapper.getClass().getName() + " didn't convert the data model to a TemplateHashModel.");
+                }
+                this.modelHash = (TemplateHashModel) wrappedModel;
+            }
+            this.writer = writer;
+            this.loops = new Loop[compiledTemplate.loopDepth];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new Loop();
+            }
+        }
+
+        /**
+         * Get a data model or shared variable, like {@link freemarker.core.Environment#getGlobalVariable(String)}.
+         */
+        TemplateModel getVariable(String name) throws TemplateModelException {
+            TemplateModel variable;
+            if (modelHash == null) {
+                Object value = model.get(name);
+                variable = (value != null ? compiledTemplate.objectWrapper.wrap(value) : null);
+            } else {
+                variable = modelHash.get(name);
+            }
+
+            return (variable != null ? variable : compiledTemplate.template.getConfiguration().getSharedVariable(name));
+        }
+
+        String toText(TemplateModel model, Expression expression) throws TemplateModelException {
+            if (model instanceof TemplateNumberModel) {
+                Number number = ((TemplateNumberModel) model).getAsNumber();
+                if (number == null) {
+                    throw new TemplateModelException("The number value of the following is null:\n==> " + expression);
+                }
+                return compiledTemplate.numberFormat.get().format(number);
+            } else if (model instanceof TemplateDateModel) {
+                throw new UnsupportedValueException("Compiled FreeMarker templates don't format date values.  Expression:\n==> " + expression);
+            } else if (model instanceof TemplateScalarModel) {
+                String string = ((TemplateScalarModel) model).getAsString();
+                if (string == null) {
+                    throw new TemplateModelException("The string value of the following is null:\n==> " + expression);
+                }
+                return string;
+            } else if (model == null) {
+                throw new MissingValueException(expression);
+            } else if (model instanceof TemplateBooleanModel) {
+                throw new TemplateModelException("Can't convert boolean to string automatically, because the \"boolean_format\" setting was \"true,false\".  Expression:\n==> " + expression);
+            } else {
+                throw new TemplateModelException("Expected a string or something automatically convertible to string (number, date or boolean), but this has evaluated to " + describe(model) + ":\n==> " + expression);
+            }
+        }
+
+        private int compareNumbers(Number left, Number right) throws TemplateException {
+            return compiledTemplate.template.getArithmeticEngine().compareNumbers(left, right);
+        }
+    }
+
+    /**
+     * The state of a <code>#list</code> iteration.
+     */
+    static final class Loop {
+        private TemplateModel item;
+        private int index;
+        private boolean hasNext;
+    }
+
+    /**
+     * A compiled template element.
+     */
+    interface Node {
+        void render(Scope scope) throws TemplateException, IOException;
+    }
+
+    static final class TextNode implements Node {
+
+        private final String text;
+
+        TextNode(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void render(Scope scope) throws IOException {
+            scope.writer.write(text);
+        }
+    }
+
+    static final class InterpolationNode implements Node {
+
+        private final Expression expression;
+
+        InterpolationNode(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public void render(Scope scope) throws TemplateException, IOException {
+            scope.writer.write(scope.toText(expression.eval(scope), expression));
+        }
+    }
+
+    static final class IfNode implements Node {
+
+        private final Expression[] conditions;
+        private final Node[][] branches;
+
+        /**
+         * @param conditions The <code>#if</code> and <code>#elseif</code> conditions, followed by null for an
+         *                   <code>#else</code>.
+         * @param branches The nodes of each branch.
+         */
+        IfNode(Expression[] conditions, Node[][] branches) {
+            this.conditions = conditions;
+            this.branches = branches;
+        }
+
+        @Override
+        public void render(Scope scope) throws TemplateException, IOException {
+            for (int i = 0; i < conditions.length; i++) {
+                if (conditions[i] == null || conditions[i].evalToBoolean(scope)) {
+                    for (Node node : branches[i]) {
+                        node.render(scope);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    static final class ListNode implements Node {
+
+        private final Expression listed;
+        private final int depth;
+        private final Node[] body;
+
+        ListNode(Expression listed, int depth, Node[] body) {
+            this.listed = listed;
+            this.depth = depth;
+            this.body = body;
+        }
+
+        @Override
+        public void render(Scope scope) throws TemplateException, IOException {
+            TemplateModel listedModel = listed.evalNonNull(scope);
+            Loop loop = scope.loops[depth];
+
+            if (listedModel instanceof TemplateCollectionModel) {
+                TemplateModelIterator iterator = ((TemplateCollectionModel) listedModel).iterator();
+                loop.index = 0;
+                loop.hasNext = iterator.hasNext();
+                while (loop.hasNext) {
+                    loop.item = iterator.next();
+                    loop.hasNext = iterator.hasNext();
+                    renderBody(scope);
+                    loop.index++;
+                }
+            } else if (listedModel instanceof TemplateSequenceModel) {
+                TemplateSequenceModel sequence = (TemplateSequenceModel) listedModel;
+                int size = sequence.size();
+                for (loop.index = 0; loop.index < size; loop.index++) {
+                    loop.item = sequence.get(loop.index);
+                    loop.hasNext = (size > loop.index + 1);
+                    renderBody(scope);
+                }
+            } else {
+                throw new TemplateModelException("Expected a sequence or collection, but this has evaluated to " + describe(listedModel) + ":\n==> " + listed);
+            }
+            loop.item = null;
+        }
+
+        private void renderBody(Scope scope) throws TemplateException, IOException {
+            for (Node node : body) {
+                node.render(scope);
+            }
+        }
+    }
+
+    /**
+     * A compiled FTL expression.
+     */
+    abstract static class Expression {
+
+        private final String canonicalForm;
+
+        Expression(String canonicalForm) {
+            this.canonicalForm = canonicalForm;
+        }
+
+        /**
+         * Evaluate the expression.
+         *
+         * @return The value, or null if the value is missing.
+         */
+        abstract TemplateModel eval(Scope scope) throws TemplateException;
+
+        boolean isParenthetical() {
+            return false;
+        }
+
+        final TemplateModel evalNonNull(Scope scope) throws TemplateException {
+            TemplateModel model = eval(scope);
+            if (model == null) {
+                throw new MissingValueException(this);
+            }
+            return model;
+        }
+
+        /**
+         * Evaluate the target of an existence operator: missing values nested in a parenthetical expression
+         * are tolerated.
+         */
+        final TemplateModel evalMaybeMissing(Scope scope) throws TemplateException {
+            if (isParenthetical()) {
+                try {
+                    return eval(scope);
+                } catch (MissingValueException e) {
+                    return null;
+                }
+            }
+            return eval(scope);
+        }
+
+        final boolean evalToBoolean(Scope scope) throws TemplateException {
+            TemplateModel model = evalNonNull(scope);
+            if (model instanceof TemplateBooleanModel) {
+                return ((TemplateBooleanModel) model).getAsBoolean();
+            }
+            throw new TemplateModelException("Expected a boolean, but this has evaluated to " + describe(model) + ":\n==> " + this);
+        }
+
+        final String evalToText(Scope scope) throws TemplateException {
+            return scope.toText(eval(scope), this);
+        }
+
+        @Override
+        public String toString() {
+            return canonicalForm;
+        }
+    }
+
+    static final class Literal extends Expression {
+
+        private final TemplateModel value;
+
+        Literal(String canonicalForm, TemplateModel value) {
+            super(canonicalForm);
+            this.value = value;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) {
+            return value;
+        }
+    }
+
+    static final class Variable extends Expression {
+
+        private final String name;
+
+        Variable(String canonicalForm, String name) {
+            super(canonicalForm);
+            this.name = name;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateModelException {
+            return scope.getVariable(name);
+        }
+    }
+
+    static final class LoopVariable extends Expression {
+
+        private final int depth;
+        private final Expression fallback;
+
+        /**
+         * @param fallback The expression resolving the variable name outside the loop, used while the loop item is null.
+         */
+        LoopVariable(String canonicalForm, int depth, Expression fallback) {
+            super(canonicalForm);
+            this.depth = depth;
+            this.fallback = fallback;
+        }
+
+        int getDepth() {
+            return depth;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            TemplateModel item = scope.loops[depth].item;
+            return (item != null ? item : fallback.eval(scope));
+        }
+    }
+
+    enum LoopProperty {
+        INDEX, COUNTER, HAS_NEXT, IS_FIRST, IS_LAST
+    }
+
+    static final class LoopState extends Expression {
+
+        private final int depth;
+        private final LoopProperty property;
+
+        LoopState(String canonicalForm, int depth, LoopProperty property) {
+            super(canonicalForm);
+            this.depth = depth;
+            this.property = property;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) {
+            Loop loop = scope.loops[depth];
+            switch (property) {
+                case INDEX:
+                    return new SimpleNumber(loop.index);
+                case COUNTER:
+                    return new SimpleNumber(loop.index + 1);
+                case HAS_NEXT:
+                    return loop.hasNext ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+                case IS_FIRST:
+                    return loop.index == 0 ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+                default:
+                    return loop.hasNext ? TemplateBooleanModel.FALSE : TemplateBooleanModel.TRUE;
+            }
+        }
+    }
+
+    static final class Dot extends Expression {
+
+        private final Expression target;
+        private final String key;
+
+        Dot(String canonicalForm, Expression target, String key) {
+            super(canonicalForm);
+            this.target = target;
+            this.key = key;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            TemplateModel targetModel = target.evalNonNull(scope);
+            if (targetModel instanceof NodeModel) {
+                throw new UnsupportedValueException("Compiled FreeMarker templates can't navigate DOM node models.  Expression:\n==> " + this);
+            } else if (targetModel instanceof TemplateHashModel) {
+                return ((TemplateHashModel) targetModel).get(key);
+            }
+            throw new TemplateModelException("Expected a hash, but this has evaluated to " + describe(targetModel) + ":\n==> " + target);
+        }
+    }
+
+    static final class MethodCall extends Expression {
+
+        private final Expression target;
+        private final Expression[] arguments;
+
+        MethodCall(String canonicalForm, Expression target, Expression[] arguments) {
+            super(canonicalForm);
+            this.target = target;
+            this.arguments = arguments;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            TemplateModel targetModel = target.evalNonNull(scope);
+            if (!(targetModel instanceof TemplateMethodModel)) {
+                throw new TemplateModelException("Expected a method, but this has evaluated to " + describe(targetModel) + ":\n==> " + target);
+            }
+
+            List<Object> argumentValues = new ArrayList<>(arguments.length);
+            if (targetModel instanceof TemplateMethodModelEx) {
+                for (Expression argument : arguments) {
+                    argumentValues.add(argument.eval(scope));
+                }
+            } else {
+                for (Expression argument : arguments) {
+                    argumentValues.add(argument.evalToText(scope));
+                }
+            }
+            return scope.compiledTemplate.objectWrapper.wrap(((TemplateMethodModel) targetModel).exec(argumentValues));
+        }
+    }
+
+    enum StringBuiltIn {
+        HTML, XML, UPPER_CASE, LOWER_CASE, TRIM, LENGTH
+    }
+
+    static final class StringBuiltInCall extends Expression {
+
+        private final Expression target;
+        private final StringBuiltIn builtIn;
+
+        StringBuiltInCall(String canonicalForm, Expression target, StringBuiltIn builtIn) {
+            super(canonicalForm);
+            this.target = target;
+            this.builtIn = builtIn;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            String string = target.evalToText(scope);
+            switch (builtIn) {
+                case HTML:
+                    return new SimpleScalar(scope.compiledTemplate.isXhtmlEscaping ? StringUtil.XHTMLEnc(string) : StringUtil.HTMLEnc(string));
+                case XML:
+                    return new SimpleScalar(StringUtil.XMLEnc(string));
+                case UPPER_CASE:
+                    return new SimpleScalar(string.toUpperCase(scope.compiledTemplate.template.getLocale()));
+                case LOWER_CASE:
+                    return new SimpleScalar(string.toLowerCase(scope.compiledTemplate.template.getLocale()));
+                case TRIM:
+                    return new SimpleScalar(string.trim());
+                default:
+                    return new SimpleNumber(string.length());
+            }
+        }
+    }
+
+    static final class Size extends Expression {
+
+        private final Expression target;
+
+        Size(String canonicalForm, Expression target) {
+            super(canonicalForm);
+            this.target = target;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            TemplateModel model = target.evalNonNull(scope);
+            if (model instanceof TemplateSequenceModel) {
+                return new SimpleNumber(((TemplateSequenceModel) model).size());
+            } else if (model instanceof TemplateCollectionModelEx) {
+                return new SimpleNumber(((TemplateCollectionModelEx) model).size());
+            } else if (model instanceof TemplateHashModelEx) {
+                return new SimpleNumber(((TemplateHashModelEx) model).size());
+            }
+            throw new TemplateModelException("Expected an extended hash, sequence or extended collection, but this has evaluated to " + describe(model) + ":\n==> " + target);
+        }
+    }
+
+    static final class HasContent extends Expression {
+
+        private final Expression target;
+
+        HasContent(String canonicalForm, Expression target) {
+            super(canonicalForm);
+            this.target = target;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            return isEmpty(target.evalMaybeMissing(scope)) ? TemplateBooleanModel.FALSE : TemplateBooleanModel.TRUE;
+        }
+
+        private static boolean isEmpty(TemplateModel model) throws TemplateModelException {
+            if (model instanceof BeanModel) {
+                return ((BeanModel) model).isEmpty();
+            } else if (model instanceof TemplateSequenceModel) {
+                return ((TemplateSequenceModel) model).size() == 0;
+            } else if (model instanceof TemplateScalarModel) {
+                String string = ((TemplateScalarModel) model).getAsString();
+                return string == null || string.isEmpty();
+            } else if (model == null) {
+                return true;
+            } else if (model instanceof TemplateMarkupOutputModel) {
+                TemplateMarkupOutputModel markupOutputModel = (TemplateMarkupOutputModel) model;
+                return markupOutputModel.getOutputFormat().isEmpty(markupOutputModel);
+            } else if (model instanceof TemplateCollectionModel) {
+                return !((TemplateCollectionModel) model).iterator().hasNext();
+            } else if (model instanceof TemplateHashModel) {
+                return ((TemplateHashModel) model).isEmpty();
+            } else {
+                return !(model instanceof TemplateNumberModel || model instanceof TemplateDateModel || model instanceof TemplateBooleanModel);
+            }
+        }
+    }
+
+    static final class Exists extends Expression {
+
+        private final Expression target;
+
+        Exists(String canonicalForm, Expression target) {
+            super(canonicalForm);
+            this.target = target;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            return target.evalMaybeMissing(scope) != null ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+        }
+    }
+
+    static final class DefaultTo extends Expression {
+
+        private final Expression target;
+        private final Expression defaultValue;
+
+        /**
+         * @param defaultValue The default value expression, or null for an empty string, sequence and hash.
+         */
+        DefaultTo(String canonicalForm, Expression target, Expression defaultValue) {
+            super(canonicalForm);
+            this.target = target;
+            this.defaultValue = defaultValue;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            TemplateModel model = target.evalMaybeMissing(scope);
+            if (model != null) {
+                return model;
+            }
+            return (defaultValue != null ? defaultValue.eval(scope) : EmptyModel.INSTANCE);
+        }
+    }
+
+    static final class Parenthetical extends Expression {
+
+        private final Expression nested;
+
+        Parenthetical(String canonicalForm, Expression nested) {
+            super(canonicalForm);
+            this.nested = nested;
+        }
+
+        @Override
+        boolean isParenthetical() {
+            return true;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            return nested.eval(scope);
+        }
+    }
+
+    static final class Not extends Expression {
+
+        private final Expression target;
+
+        Not(String canonicalForm, Expression target) {
+            super(canonicalForm);
+            this.target = target;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            return target.evalToBoolean(scope) ? TemplateBooleanModel.FALSE : TemplateBooleanModel.TRUE;
+        }
+    }
+
+    static final class And extends Expression {
+
+        private final Expression left;
+        private final Expression right;
+
+        And(String canonicalForm, Expression left, Expression right) {
+            super(canonicalForm);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            return left.evalToBoolean(scope) && right.evalToBoolean(scope) ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+        }
+    }
+
+    static final class Or extends Expression {
+
+        private final Expression left;
+        private final Expression right;
+
+        Or(String canonicalForm, Expression left, Expression right) {
+            super(canonicalForm);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            return left.evalToBoolean(scope) || right.evalToBoolean(scope) ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+        }
+    }
+
+    static final class Equality extends Expression {
+
+        private final Expression left;
+        private final Expression right;
+        private final boolean isEquals;
+
+        Equality(String canonicalForm, Expression left, Expression right, boolean isEquals) {
+            super(canonicalForm);
+            this.left = left;
+            this.right = right;
+            this.isEquals = isEquals;
+        }
+
+        @Override
+        TemplateModel eval(Scope scope) throws TemplateException {
+            TemplateModel leftModel = left.evalNonNull(scope);
+            TemplateModel rightModel = right.evalNonNull(scope);
+            boolean isEqual;
+
+            if (leftModel instanceof TemplateNumberModel && rightModel instanceof TemplateNumberModel) {
+                isEqual = scope.compareNumbers(((TemplateNumberModel) leftModel).getAsNumber(), ((TemplateNumberModel) rightModel).getAsNumber()) == 0;
+            } else if (leftModel instanceof TemplateDateModel && rightModel instanceof TemplateDateModel) {
+                throw new UnsupportedValueException("Compiled FreeMarker templates don't compare date values.  Expression:\n==> " + this);
+            } else if (leftModel instanceof TemplateScalarModel && rightModel instanceof TemplateScalarModel) {
+                isEqual = scope.compiledTemplate.collator.get().compare(scope.toText(leftModel, left), scope.toText(rightModel, right)) == 0;
+            } else if (leftModel instanceof TemplateBooleanModel && rightModel instanceof TemplateBooleanModel) {
+                isEqual = ((TemplateBooleanModel) leftModel).getAsBoolean() == ((TemplateBooleanModel) rightModel).getAsBoolean();
+            } else {
+                throw new TemplateModelException("Can't compare values of these types.  Left hand operand is " + describe(leftModel) + ", right hand operand is " + describe(rightModel) + ":\n==> " + this);
+            }
+
+            return isEqual == isEquals ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+        }
+    }
+
+    /**
+     * The default value of a <code>!</code> operator without a right hand operand.
+     */
+    private static final class EmptyModel implements TemplateScalarModel, TemplateSequenceModel, TemplateHashModelEx {
+
+        private static final EmptyModel INSTANCE = new EmptyModel();
+
+        @Override
+        public String getAsString() {
+            return "";
+        }
+
+        @Override
+        public TemplateModel get(int index) {
+            return null;
+        }
+
+        @Override
+        public TemplateModel get(String key) {
+            return null;
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return true;
+        }
+
+        @Override
+        public TemplateCollectionModel keys() {
+            return EmptyCollection.INSTANCE;
+        }
+
+        @Override
+        public TemplateCollectionModel values() {
+            return EmptyCollection.INSTANCE;
+        }
+    }
+
+    private static final class EmptyCollection implements TemplateCollectionModel, TemplateModelIterator {
+
+        private static final EmptyCollection INSTANCE = new EmptyCollection();
+
+        @Override
+        public TemplateModelIterator iterator() {
+            return this;
+        }
+
+        @Override
+        public TemplateModel next() throws TemplateModelException {
+            throw new TemplateModelException("The collection has no more items.");
+        }
+
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+    }
+
+    /**
+     * Thrown when an expression evaluates to a missing (null) value.
+     */
+    static final class MissingValueException extends TemplateModelException {
+
+        MissingValueException(Expression expression) {
+            super("The following has evaluated to null or missing:\n==> " + expression);
+        }
+    }
+
+    /**
+     * Thrown when an expression evaluates to a value the compiled template can't render the way the interpreter
+     * does.  The template must be interpreted instead.
+     */
+    static final class UnsupportedValueException extends TemplateModelException {
+
+        UnsupportedValueException(String description) {
+            super(description);
+        }
+    }
+
+    private static String describe(TemplateModel model) {
+        return (model != null ? "a " + model.getClass().getName() : "null");
+    }
+}
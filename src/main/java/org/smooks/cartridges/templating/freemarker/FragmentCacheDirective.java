@@ -0,0 +1,215 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.core.DirectiveCallPlace;
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache the rendered body of the directive, keyed by the directive's call site and "key" parameter.
+ * <p/>
+ * Registered as <code>&lt;@smooks.cache key=... ttl=...&gt;...&lt;/@smooks.cache&gt;</code>.  The body is rendered
+ * on the first use of a key, and the same output is written for the key until the entry expires (after "ttl"
+ * milliseconds, if set) or is evicted.  The body must therefore render the same output for a given key.
+ * <p/>
+ * The cache is bounded: the least recently used entries are evicted once it holds more than the maximum number of
+ * entries.  A key only selects a body at the same call site (template and position): two directives using the same
+ * key in one or more templates cache their bodies separately.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public class FragmentCacheDirective implements TemplateDirectiveModel {
+
+    private final int maxEntries;
+    private final Map<Key, Entry> entries;
+
+    /**
+     * Public constructor.
+     *
+     * @param maxEntries The maximum number of cached bodies.
+     */
+    public FragmentCacheDirective(final int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be greater than zero.");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void execute(Environment environment, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body) throws TemplateException, IOException {
+        String key = null;
+        long ttl = -1;
+
+        for (Object param : params.entrySet()) {
+            Map.Entry paramEntry = (Map.Entry) param;
+            String paramName = (String) paramEntry.getKey();
+            TemplateModel paramValue = (TemplateModel) paramEntry.getValue();
+
+            if (paramName.equals("key")) {
+                key = toKey(paramValue);
+            } else if (paramName.equals("ttl")) {
+                if (!(paramValue instanceof TemplateNumberModel)) {
+                    throw new TemplateModelException("'ttl' parameter of the 'smooks.cache' directive must be a number (milliseconds).");
+                }
+                ttl = ((TemplateNumberModel) paramValue).getAsNumber().longValue();
+            } else {
+                throw new TemplateModelException("Unsupported parameter '" + paramName + "' on the 'smooks.cache' directive.  Supported parameters are 'key' and 'ttl'.");
+            }
+        }
+        if (key == null) {
+            throw new TemplateModelException("'key' parameter not defined on the 'smooks.cache' directive.");
+        }
+        if (body == null) {
+            return;
+        }
+
+        Key cacheKey = new Key(environment.getCurrentDirectiveCallPlace(), key);
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(cacheKey);
+        }
+        if (entry == null || entry.expiresAt <= now) {
+            StringWriter output = new StringWriter();
+            body.render(output);
+            entry = new Entry(output.toString(), ttl >= 0 ? now + ttl : Long.MAX_VALUE);
+            synchronized (entries) {
+                entries.put(cacheKey, entry);
+            }
+        }
+        environment.getOut().write(entry.output);
+    }
+
+    private static String toKey(TemplateModel paramValue) throws TemplateModelException {
+        if (paramValue instanceof TemplateScalarModel) {
+            return ((TemplateScalarModel) paramValue).getAsString();
+        } else if (paramValue instanceof TemplateNumberModel) {
+            return ((TemplateNumberModel) paramValue).getAsNumber().toString();
+        }
+        throw new TemplateModelException("'key' parameter of the 'smooks.cache' directive must be a string or a number.");
+    }
+
+    /**
+     * Get the maximum number of cached bodies.
+     *
+     * @return The maximum number of cached bodies.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Get the number of cached bodies.
+     *
+     * @return The number of cached bodies.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Key {
+
+        private final String templateName;
+        private final int line;
+        private final int column;
+        private final String key;
+
+        private Key(DirectiveCallPlace callPlace, String key) {
+            // No call place when the directive is called from Java...
+            this.templateName = (callPlace != null ? callPlace.getTemplate().getSourceName() : null);
+            this.line = (callPlace != null ? callPlace.getBeginLine() : 0);
+            this.column = (callPlace != null ? callPlace.getBeginColumn() : 0);
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return line == other.line && column == other.column && key.equals(other.key) && Objects.equals(templateName, other.templateName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(templateName, line, column, key);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String output;
+        private final long expiresAt;
+
+        private Entry(String output, long expiresAt) {
+            this.output = output;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.template.Template;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Load time analysis of whether a {@link Template} can reference a variable: the fragment it is applied to, or a bean.
+ * <p/>
+ * {@link FreeMarkerTemplateProcessor} exposes the targeted element to the template as a
+ * {@link freemarker.ext.dom.NodeModel} named after the element. This class scans the template source for that
+ * name so that the NodeModel (and the model copy it requires) can be skipped for templates that only use bean
+ * context data.  The same scan tells which beans the render result cache must key on. The scan is conservative:
+ * templates that look variables up dynamically (e.g. <code>.vars</code>, <code>?eval</code>) or pull in other
+ * templates (<code>#include</code>, <code>#import</code>, auto-imports) are always treated as referencing any
+ * variable.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class FragmentReferences {
+
+    private static final String[] DYNAMIC_ACCESS_TOKENS = {".vars", ".data_model", ".globals", ".main", ".namespace", ".get_optional_template", "?eval", "?interpret", "#include", "#import"};
+
+    private final String templateSource;
+    private final boolean dynamicAccess;
+    private final ConcurrentMap<String, Boolean> references = new ConcurrentHashMap<>();
+
+    FragmentReferences(Template template, boolean dynamicAccess) {
+        this.templateSource = template.toString();
+        this.dynamicAccess = dynamicAccess || containsDynamicAccess(templateSource);
+    }
+
+    /**
+     * Can the template reference a fragment with the supplied node name?
+     *
+     * @param nodeName The fragment node name.
+     * @return True if the template may reference the fragment, otherwise false.
+     */
+    boolean isReferenced(String nodeName) {
+        if (dynamicAccess) {
+            return true;
+        }
+
+        Boolean referenced = references.get(nodeName);
+        if (referenced == null) {
+            referenced = containsName(templateSource, nodeName) || containsName(templateSource, escape(nodeName));
+            references.put(nodeName, referenced);
+        }
+
+        return referenced;
+    }
+
+    private static boolean containsDynamicAccess(String templateSource) {
+        for (String token : DYNAMIC_ACCESS_TOKENS) {
+            if (templateSource.contains(token)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static boolean containsName(String templateSource, String name) {
+        int index = templateSource.indexOf(name);
+        while (index != -1) {
+            int end = index + name.length();
+            if ((index == 0 || !isIdentifierPart(templateSource.charAt(index - 1))) && (end == templateSource.length() || !isIdentifierPart(templateSource.charAt(end)))) {
+                return true;
+            }
+            index = templateSource.indexOf(name, index + 1);
+        }
+
+        return false;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '@' || c == '\\';
+    }
+
+    private static String escape(String nodeName) {
+        StringBuilder escapedName = new StringBuilder(nodeName.length() + 4);
+        for (int i = 0; i < nodeName.length(); i++) {
+            char c = nodeName.charAt(i);
+            if (c == '-' || c == '.' || c == ':') {
+                escapedName.append('\\');
+            }
+            escapedName.append(c);
+        }
+
+        return escapedName.toString();
+    }
+}
@@ -42,18 +42,9 @@
  */
 package org.smooks.cartridges.templating.freemarker;
 
-import org.smooks.api.ApplicationContext;
-import org.smooks.api.SmooksConfigException;
-import org.smooks.api.SmooksException;
 import org.smooks.api.bean.context.BeanContext;
-import org.smooks.api.delivery.ContentHandlerFactory;
-import org.smooks.api.delivery.ContentHandler;
-import org.smooks.api.resource.config.ResourceConfig;
-import org.smooks.engine.injector.Scope;
-import org.smooks.engine.lifecycle.PostConstructLifecyclePhase;
-import org.smooks.engine.lookup.LifecycleManagerLookup;
-
-import javax.inject.Inject;
+import org.smooks.cartridges.templating.AbstractTemplateEngine;
+import org.smooks.cartridges.templating.AbstractTemplateProcessor;
 
 /**
  * <a href="http://freemarker.org/">FreeMarker</a> templating {@link org.smooks.api.resource.visitor.Visitor} Creator class.
@@ -119,34 +110,15 @@ import javax.inject.Inject;
  *
  * @author tfennelly
  */
-public class FreeMarkerContentHandlerFactory implements ContentHandlerFactory {
-
-    @Inject
-    private ApplicationContext applicationContext;
+public class FreeMarkerContentHandlerFactory extends AbstractTemplateEngine {
 
-    /**
-     * Create a FreeMarker based ContentHandler.
-     *
-     * @param resourceConfig The SmooksResourceConfiguration for the FreeMarker.
-     * @return The FreeMarker {@link ContentHandler} instance.
-     */
-    public synchronized ContentHandler create(ResourceConfig resourceConfig) throws SmooksConfigException {
-        final FreeMarkerTemplateProcessor freeMarkerTemplateProcessor = new FreeMarkerTemplateProcessor();
-        try {
-            applicationContext.getRegistry().lookup(new LifecycleManagerLookup()).applyPhase(freeMarkerTemplateProcessor, new PostConstructLifecyclePhase(new Scope(applicationContext.getRegistry(), resourceConfig, freeMarkerTemplateProcessor)));
-            return freeMarkerTemplateProcessor;
-        } catch (SmooksConfigException e) {
-            throw e;
-        } catch (Exception e) {
-            InstantiationException instanceException = new InstantiationException("FreeMarker resource [" + resourceConfig.getResource() + "] not loadable.  FreeMarker resource invalid.");
-            instanceException.initCause(e);
-            throw new SmooksException(e.getMessage(), instanceException);
-        }
+    @Override
+    public AbstractTemplateProcessor newTemplateProcessor() {
+        return new FreeMarkerTemplateProcessor();
     }
 
     @Override
     public String getType() {
         return "ftl";
     }
-
 }
@@ -0,0 +1,610 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.core.ArithmeticEngine;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateBooleanModel;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.And;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.DefaultTo;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Dot;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Equality;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Exists;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Expression;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.HasContent;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.IfNode;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.InterpolationNode;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.ListNode;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Literal;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.LoopProperty;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.LoopState;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.LoopVariable;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.MethodCall;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Node;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Not;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Or;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Parenthetical;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Size;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.StringBuiltIn;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.StringBuiltInCall;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.TextNode;
+import org.smooks.cartridges.templating.freemarker.CompiledFreeMarkerTemplate.Variable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parses the canonical form of a FreeMarker template (see {@link freemarker.template.Template#toString()}) into the
+ * nodes of a {@link CompiledFreeMarkerTemplate}.
+ * <p/>
+ * The template has already been parsed by FreeMarker, so its canonical form is well-formed FTL, with whitespace
+ * stripping applied.  Only the FTL subset supported by compiled templates is accepted.  Anything else raises an
+ * {@link UnsupportedConstructException}.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class FreeMarkerSubsetParser {
+
+    private static final String IF = "#if";
+    private static final String LIST = "#list";
+    private static final String FOREACH = "#foreach";
+
+    private final String source;
+    private final ArithmeticEngine arithmeticEngine;
+    private final List<String> loopVariableNames = new ArrayList<>();
+    private final Set<String> variableNames = new HashSet<>();
+    private int position;
+    private int loopDepth;
+
+    FreeMarkerSubsetParser(String source, ArithmeticEngine arithmeticEngine) {
+        this.source = source;
+        this.arithmeticEngine = arithmeticEngine;
+    }
+
+    Node[] parse() throws UnsupportedConstructException {
+        Node[] nodes = parseNodes(null);
+        if (position < source.length()) {
+            throw unsupported("unexpected '" + source.substring(position, Math.min(source.length(), position + 10)) + "'");
+        }
+        return nodes;
+    }
+
+    /**
+     * Get the maximum <code>#list</code> nesting depth of the parsed template.
+     */
+    int getLoopDepth() {
+        return loopDepth;
+    }
+
+    /**
+     * Get the names of the data model and shared variables referenced by the parsed template.
+     */
+    Set<String> getVariableNames() {
+        return variableNames;
+    }
+
+    private Node[] parseNodes(String parentDirective) throws UnsupportedConstructException {
+        List<Node> nodes = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (c == '$' && lookingAt("${")) {
+                addText(nodes, text);
+                position += 2;
+                Expression expression = parseExpression();
+                expect("}");
+                nodes.add(new InterpolationNode(expression));
+            } else if (c == '#' && lookingAt("#{")) {
+                throw unsupported("#{} interpolation");
+            } else if (c == '<' && (lookingAt("<@") || lookingAt("</@"))) {
+                throw unsupported("user-defined directive");
+            } else if (c == '<' && lookingAt("<#--")) {
+                int end = source.indexOf("-->", position + 4);
+                if (end == -1) {
+                    throw unsupported("unclosed comment");
+                }
+                position = end + 3;
+            } else if (c == '<' && lookingAt("<#if ")) {
+                addText(nodes, text);
+                position += 5;
+                nodes.add(parseIf());
+            } else if (c == '<' && lookingAt("<#list ")) {
+                addText(nodes, text);
+                position += 7;
+                Expression listed = parseExpression();
+                expect(" as ");
+                String loopVariableName = parseIdentifier();
+                nodes.add(parseListBody(listed, loopVariableName, LIST));
+            } else if (c == '<' && lookingAt("<#foreach ")) {
+                addText(nodes, text);
+                position += 10;
+                String loopVariableName = parseIdentifier();
+                expect(" in ");
+                Expression listed = parseExpression();
+                nodes.add(parseListBody(listed, loopVariableName, FOREACH));
+            } else if (c == '<' && (lookingAt("<#") || lookingAt("</#"))) {
+                if (isEndOf(parentDirective)) {
+                    break;
+                }
+                throw unsupported("directive " + source.substring(position, Math.min(source.length(), position + 12)));
+            } else {
+                text.append(c);
+                position++;
+            }
+        }
+        addText(nodes, text);
+
+        return nodes.toArray(new Node[0]);
+    }
+
+    private static void addText(List<Node> nodes, StringBuilder text) {
+        if (text.length() > 0) {
+            nodes.add(new TextNode(text.toString()));
+            text.setLength(0);
+        }
+    }
+
+    private boolean isEndOf(String parentDirective) {
+        if (parentDirective == IF) {
+            return lookingAt("<#elseif ") || lookingAt("<#else>") || lookingAt("</#if>");
+        } else if (parentDirective == LIST) {
+            return lookingAt("</#list>");
+        } else if (parentDirective == FOREACH) {
+            return lookingAt("</#foreach>");
+        }
+        return false;
+    }
+
+    private Node parseIf() throws UnsupportedConstructException {
+        List<Expression> conditions = new ArrayList<>();
+        List<Node[]> branches = new ArrayList<>();
+
+        conditions.add(parseExpression());
+        expectDirectiveEnd();
+        while (true) {
+            branches.add(parseNodes(IF));
+            if (lookingAt("</#if>")) {
+                position += 6;
+                break;
+            } else if (conditions.get(conditions.size() - 1) == null) {
+                throw unsupported("#elseif or #else after #else");
+            } else if (lookingAt("<#elseif ")) {
+                position += 9;
+                conditions.add(parseExpression());
+                expectDirectiveEnd();
+            } else if (lookingAt("<#else>")) {
+                position += 7;
+                conditions.add(null);
+            } else {
+                throw unsupported("unclosed #if");
+            }
+        }
+
+        return new IfNode(conditions.toArray(new Expression[0]), branches.toArray(new Node[0][]));
+    }
+
+    private Node parseListBody(Expression listed, String loopVariableName, String directive) throws UnsupportedConstructException {
+        expectDirectiveEnd();
+
+        int depth = loopVariableNames.size();
+        loopVariableNames.add(loopVariableName);
+        loopDepth = Math.max(loopDepth, loopVariableNames.size());
+        Node[] body = parseNodes(directive);
+        loopVariableNames.remove(depth);
+
+        String end = "</" + directive + ">";
+        if (!lookingAt(end)) {
+            throw unsupported("unclosed " + directive);
+        }
+        position += end.length();
+
+        return new ListNode(listed, depth, body);
+    }
+
+    private Expression parseExpression() throws UnsupportedConstructException {
+        int start = position;
+        Expression left = parseAnd();
+        while (lookingAtOperator("||")) {
+            Expression right = parseAnd();
+            left = new Or(source.substring(start, position), left, right);
+        }
+        return left;
+    }
+
+    private Expression parseAnd() throws UnsupportedConstructException {
+        int start = position;
+        Expression left = parseEquality();
+        while (lookingAtOperator("&&")) {
+            Expression right = parseEquality();
+            left = new And(source.substring(start, position), left, right);
+        }
+        return left;
+    }
+
+    private Expression parseEquality() throws UnsupportedConstructException {
+        int start = position;
+        Expression left = parseUnary();
+        if (lookingAtOperator("==") || lookingAtOperator("=")) {
+            Expression right = parseUnary();
+            return new Equality(source.substring(start, position), left, right, true);
+        } else if (lookingAtOperator("!=")) {
+            Expression right = parseUnary();
+            return new Equality(source.substring(start, position), left, right, false);
+        }
+        return left;
+    }
+
+    private Expression parseUnary() throws UnsupportedConstructException {
+        int start = position;
+        if (lookingAt("!")) {
+            position++;
+            Expression target = parseUnary();
+            return new Not(source.substring(start, position), target);
+        }
+        return parsePostfix();
+    }
+
+    private Expression parsePostfix() throws UnsupportedConstructException {
+        int start = position;
+        Expression expression = parsePrimary();
+
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (c == '.') {
+                position++;
+                if (position == source.length() || !isIdentifierStart(source.charAt(position))) {
+                    throw unsupported("'.' operator not followed by a name");
+                }
+                String key = parseIdentifier();
+                expression = new Dot(source.substring(start, position), expression, key);
+            } else if (lookingAt("??")) {
+                position += 2;
+                expression = new Exists(source.substring(start, position), expression);
+            } else if (c == '?') {
+                position++;
+                String builtInName = parseIdentifier();
+                if (lookingAt("(")) {
+                    throw unsupported("built-in ?" + builtInName + " with parameters");
+                }
+                expression = newBuiltIn(source.substring(start, position), expression, builtInName);
+            } else if (c == '!' && !lookingAt("!=")) {
+                position++;
+                if (isDefaultValueOmitted()) {
+                    expression = new DefaultTo(source.substring(start, position), expression, null);
+                } else {
+                    // The default value operand extends to the end of the expression...
+                    Expression defaultValue = parseExpression();
+                    return new DefaultTo(source.substring(start, position), expression, defaultValue);
+                }
+            } else if (c == '(') {
+                position++;
+                List<Expression> arguments = new ArrayList<>();
+                if (!lookingAt(")")) {
+                    arguments.add(parseExpression());
+                    while (lookingAt(", ")) {
+                        position += 2;
+                        arguments.add(parseExpression());
+                    }
+                }
+                expect(")");
+                expression = new MethodCall(source.substring(start, position), expression, arguments.toArray(new Expression[0]));
+            } else if (c == '[') {
+                throw unsupported("'[' operator");
+            } else {
+                break;
+            }
+        }
+
+        return expression;
+    }
+
+    private boolean isDefaultValueOmitted() {
+        if (position == source.length()) {
+            return true;
+        }
+        char c = source.charAt(position);
+        return Character.isWhitespace(c) || c == '}' || c == ')' || c == '>' || c == ',' || c == ']' || c == '?' || c == ':' || c == ';';
+    }
+
+    private Expression newBuiltIn(String canonicalForm, Expression target, String name) throws UnsupportedConstructException {
+        switch (name) {
+            case "html":
+                return new StringBuiltInCall(canonicalForm, target, StringBuiltIn.HTML);
+            case "xml":
+                return new StringBuiltInCall(canonicalForm, target, StringBuiltIn.XML);
+            case "upper_case":
+            case "upperCase":
+                return new StringBuiltInCall(canonicalForm, target, StringBuiltIn.UPPER_CASE);
+            case "lower_case":
+            case "lowerCase":
+                return new StringBuiltInCall(canonicalForm, target, StringBuiltIn.LOWER_CASE);
+            case "trim":
+                return new StringBuiltInCall(canonicalForm, target, StringBuiltIn.TRIM);
+            case "length":
+                return new StringBuiltInCall(canonicalForm, target, StringBuiltIn.LENGTH);
+            case "size":
+                return new Size(canonicalForm, target);
+            case "has_content":
+            case "hasContent":
+                return new HasContent(canonicalForm, target);
+            case "exists":
+                return new Exists(canonicalForm, target);
+            case "index":
+                return newLoopState(canonicalForm, target, name, LoopProperty.INDEX);
+            case "counter":
+                return newLoopState(canonicalForm, target, name, LoopProperty.COUNTER);
+            case "has_next":
+            case "hasNext":
+                return newLoopState(canonicalForm, target, name, LoopProperty.HAS_NEXT);
+            case "is_first":
+            case "isFirst":
+                return newLoopState(canonicalForm, target, name, LoopProperty.IS_FIRST);
+            case "is_last":
+            case "isLast":
+                return newLoopState(canonicalForm, target, name, LoopProperty.IS_LAST);
+            default:
+                throw unsupported("built-in ?" + name);
+        }
+    }
+
+    private Expression newLoopState(String canonicalForm, Expression target, String name, LoopProperty property) throws UnsupportedConstructException {
+        if (!(target instanceof LoopVariable)) {
+            throw unsupported("built-in ?" + name + " applied to " + target);
+        }
+        return new LoopState(canonicalForm, ((LoopVariable) target).getDepth(), property);
+    }
+
+    private Expression parsePrimary() throws UnsupportedConstructException {
+        int start = position;
+        if (position == source.length()) {
+            throw unsupported("unexpected end of expression");
+        }
+
+        char c = source.charAt(position);
+        if (c == '"' || c == '\'') {
+            String value = parseStringLiteral(c);
+            return new Literal(source.substring(start, position), new SimpleScalar(value));
+        } else if (c >= '0' && c <= '9') {
+            while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                position++;
+            }
+            if (lookingAt(".") && position + 1 < source.length() && Character.isDigit(source.charAt(position + 1))) {
+                position++;
+                while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                    position++;
+                }
+            }
+            String number = source.substring(start, position);
+            try {
+                return new Literal(number, new SimpleNumber(arithmeticEngine.toNumber(number)));
+            } catch (RuntimeException e) {
+                throw unsupported("number literal " + number);
+            }
+        } else if (c == '(') {
+            position++;
+            Expression nested = parseExpression();
+            expect(")");
+            return new Parenthetical(source.substring(start, position), nested);
+        } else if (isIdentifierStart(c)) {
+            String name = parseIdentifier();
+            if (name.equals("true")) {
+                return new Literal(name, TemplateBooleanModel.TRUE);
+            } else if (name.equals("false")) {
+                return new Literal(name, TemplateBooleanModel.FALSE);
+            }
+            return resolveVariable(source.substring(start, position), name, loopVariableNames.size());
+        }
+
+        throw unsupported("expression starting with '" + c + "'");
+    }
+
+    /**
+     * Resolve a variable name the way {@link freemarker.core.Environment#getVariable(String)} would, from within the
+     * given number of enclosing <code>#list</code> directives.
+     */
+    private Expression resolveVariable(String canonicalForm, String name, int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            String loopVariableName = loopVariableNames.get(i);
+            if (name.equals(loopVariableName)) {
+                return new LoopVariable(canonicalForm, i, resolveVariable(canonicalForm, name, i));
+            } else if (name.equals(loopVariableName + "_index")) {
+                return new LoopState(canonicalForm, i, LoopProperty.INDEX);
+            } else if (name.equals(loopVariableName + "_has_next")) {
+                return new LoopState(canonicalForm, i, LoopProperty.HAS_NEXT);
+            }
+        }
+        variableNames.add(name);
+        return new Variable(canonicalForm, name);
+    }
+
+    private String parseIdentifier() throws UnsupportedConstructException {
+        StringBuilder name = new StringBuilder();
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (c == '\\' && position + 1 < source.length() && "-.:#".indexOf(source.charAt(position + 1)) != -1) {
+                name.append(source.charAt(position + 1));
+                position += 2;
+            } else if (isIdentifierStart(c) || Character.isDigit(c)) {
+                name.append(c);
+                position++;
+            } else {
+                break;
+            }
+        }
+        if (name.length() == 0) {
+            throw unsupported("expected a name at '" + source.substring(position, Math.min(source.length(), position + 10)) + "'");
+        }
+        return name.toString();
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_' || c == '$' || c == '@' || c == '\\';
+    }
+
+    private String parseStringLiteral(char quote) throws UnsupportedConstructException {
+        StringBuilder value = new StringBuilder();
+        position++;
+        while (true) {
+            if (position == source.length()) {
+                throw unsupported("unclosed string literal");
+            }
+            char c = source.charAt(position++);
+            if (c == quote) {
+                return value.toString();
+            } else if ((c == '$' || c == '#') && lookingAt("{")) {
+                throw unsupported("interpolation in string literal");
+            } else if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+
+            if (position == source.length()) {
+                throw unsupported("unclosed string literal");
+            }
+            char escaped = source.charAt(position++);
+            switch (escaped) {
+                case '"':
+                case '\'':
+                case '\\':
+                case '{':
+                case '=':
+                    value.append(escaped);
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'l':
+                    value.append('<');
+                    break;
+                case 'g':
+                    value.append('>');
+                    break;
+                case 'a':
+                    value.append('&');
+                    break;
+                case 'x':
+                    int hexStart = position;
+                    while (position < source.length() && position - hexStart < 4 && Character.digit(source.charAt(position), 16) != -1) {
+                        position++;
+                    }
+                    if (position == hexStart) {
+                        throw unsupported("invalid \\x escape in string literal");
+                    }
+                    value.append((char) Integer.parseInt(source.substring(hexStart, position), 16));
+                    break;
+                default:
+                    throw unsupported("escape \\" + escaped + " in string literal");
+            }
+        }
+    }
+
+    private boolean lookingAt(String token) {
+        return source.startsWith(token, position);
+    }
+
+    /**
+     * Consume a binary operator (and the whitespace around it) if it's next.
+     */
+    private boolean lookingAtOperator(String operator) {
+        int operatorPosition = position;
+        while (operatorPosition < source.length() && Character.isWhitespace(source.charAt(operatorPosition))) {
+            operatorPosition++;
+        }
+        if (!source.startsWith(operator, operatorPosition)) {
+            return false;
+        }
+        int end = operatorPosition + operator.length();
+        if (operator.equals("=") && source.startsWith("=", end)) {
+            return false;
+        }
+        position = end;
+        while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+        return true;
+    }
+
+    private void expect(String token) throws UnsupportedConstructException {
+        if (!lookingAt(token)) {
+            throw unsupported("expected '" + token.trim() + "' at '" + source.substring(position, Math.min(source.length(), position + 10)) + "'");
+        }
+        position += token.length();
+    }
+
+    private void expectDirectiveEnd() throws UnsupportedConstructException {
+        if (lookingAt(">=")) {
+            throw unsupported("'>=' operator");
+        }
+        expect(">");
+    }
+
+    private UnsupportedConstructException unsupported(String construct) {
+        return new UnsupportedConstructException(construct);
+    }
+
+    /**
+     * Thrown when the template uses a construct compiled templates don't support.
+     */
+    static final class UnsupportedConstructException extends Exception {
+
+        UnsupportedConstructException(String construct) {
+            super("unsupported construct: " + construct);
+        }
+    }
+}
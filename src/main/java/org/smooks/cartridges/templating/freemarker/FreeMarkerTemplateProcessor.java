@@ -48,16 +48,21 @@ import freemarker.cache.TemplateLoader;
 import freemarker.cache.URLTemplateLoader;
 import freemarker.ext.dom.NodeModel;
 import freemarker.template.Configuration;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleHash;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import org.smooks.api.ExecutionContext;
+import org.smooks.api.SmooksConfigException;
 import org.smooks.api.SmooksException;
-import org.smooks.api.delivery.ordering.Consumer;
+import org.smooks.api.resource.config.Parameter;
 import org.smooks.api.resource.config.ResourceConfig;
 import org.smooks.api.resource.visitor.VisitAfterReport;
 import org.smooks.api.resource.visitor.VisitBeforeReport;
 import org.smooks.cartridges.templating.AbstractTemplateProcessor;
+import org.smooks.cartridges.templating.TemplateCapability;
 import org.smooks.cartridges.templating.TemplatingConfiguration;
+import org.smooks.support.ClassUtils;
 import org.smooks.support.DomUtils;
 import org.smooks.support.FreeMarkerTemplate;
 import org.smooks.support.FreeMarkerUtils;
@@ -67,10 +72,17 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URL;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * <a href="http://freemarker.org/">FreeMarker</a> template application ProcessingUnit.
@@ -84,21 +96,81 @@ import java.util.Map;
  * the FreeMarker template, with the targeted element name being the "root"
  * name when forming expressions.  See <a href="http://freemarker.org">freemarker.org</a>
  * for more info.
+ * <p/>
+ * The "<b>templating.freemarker.objectWrapper</b>" parameter selects the {@link ObjectWrapper} used to expose the
+ * bean context to the template: "default" (default) for FreeMarker's default object wrapper, "accessor" for the shared
+ * {@link AccessorObjectWrapper}, or the class name of an {@link ObjectWrapper} implementation.
+ * <p/>
+ * Libraries can be auto-imported into every template through pairs of "<b>templating.freemarker.autoImport</b>"
+ * (template name) and "<b>templating.freemarker.autoImportNamespace</b>" (namespace variable) parameters. Setting
+ * the "<b>templating.freemarker.cacheImports</b>" parameter to true (default=false) keeps the namespaces of imported
+ * libraries initialised across renders. See {@link ProcessingEnvironmentPool}.
+ * <p/>
+ * The "<b>templating.freemarker.compile</b>" parameter (or system property) compiles templates limited to text,
+ * <code>${}</code>, <code>#if</code> and <code>#list</code> (see {@link CompiledFreeMarkerTemplate}) when they're
+ * loaded, so they render without the FreeMarker interpreter: "false" (default), "true", or "verify" to render every
+ * template with both the interpreter and the compiled form, failing when the outputs differ.  Templates using other
+ * constructs are always interpreted.  Compiled output is buffered, so that a template rendering a value the compiled
+ * form doesn't support (e.g. a date) falls back to the interpreter, and is interpreted from then on.
+ * <p/>
+ * Templates can cache sections with the <code>&lt;@smooks.cache key=... ttl=...&gt;</code> directive (see
+ * {@link FragmentCacheDirective}).  The "<b>templating.freemarker.fragmentCacheSize</b>" parameter sets the maximum
+ * number of sections cached for the resource (default 1000).
  *
  * @author tfennelly
  */
 @VisitBeforeReport(summary = "FreeMarker Template - See Detail.", detailTemplate = "reporting/FreeMarkerTemplateProcessor_before.html")
 @VisitAfterReport(summary = "FreeMarker Template - See Detail.", detailTemplate = "reporting/FreeMarkerTemplateProcessor_After.html")
-public class FreeMarkerTemplateProcessor extends AbstractTemplateProcessor implements Consumer {
+public class FreeMarkerTemplateProcessor extends AbstractTemplateProcessor {
+
+    private static final int MAX_REUSED_BUFFER_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<StringWriter> COMPILED_OUTPUT_BUFFER = ThreadLocal.withInitial(StringWriter::new);
+
+    /**
+     * "templating.freemarker.objectWrapper" value selecting FreeMarker's default object wrapper.
+     */
+    public static final String DEFAULT_OBJECT_WRAPPER = "default";
+    /**
+     * "templating.freemarker.objectWrapper" value selecting the {@link AccessorObjectWrapper}.
+     */
+    public static final String ACCESSOR_OBJECT_WRAPPER = "accessor";
+    /**
+     * Template compilation parameter/system property.  "false" (default), "true" or "verify".
+     */
+    public static final String COMPILE = "templating.freemarker.compile";
+    /**
+     * Name of the shared variable holding the Smooks directives, e.g. <code>&lt;@smooks.cache&gt;</code>.
+     */
+    public static final String SMOOKS_DIRECTIVES = "smooks";
 
     @Inject
     @Named("templating.freemarker.defaultNumberFormat")
     private String defaultNumberFormat = FreeMarkerTemplate.DEFAULT_MACHINE_READABLE_NUMBER_FORMAT;
 
+    @Inject
+    @Named("templating.freemarker.objectWrapper")
+    private String objectWrapper = DEFAULT_OBJECT_WRAPPER;
+
+    @Inject
+    @Named("templating.freemarker.cacheImports")
+    private Boolean cacheImports = false;
+
+    @Inject
+    @Named("templating.freemarker.fragmentCacheSize")
+    private Integer fragmentCacheSize = 1000;
+
+    @Inject
+    @Named(COMPILE)
+    private Optional<String> compile = Optional.empty();
+
     private Template defaultTemplate;
     private Template templateBefore;
     private Template templateAfter;
     private ResourceConfig resourceConfig;
+    private Map<Template, FragmentReferences> fragmentReferences = Collections.emptyMap();
+    private Map<Template, ProcessingEnvironmentPool> environmentPools = Collections.emptyMap();
+    private Map<Template, CompiledFreeMarkerTemplate> compiledTemplates = Collections.emptyMap();
+    private boolean verifyCompiledTemplates;
 
     /**
      * Default constructor.
@@ -124,6 +196,16 @@ public class FreeMarkerTemplateProcessor extends AbstractTemplateProcessor imple
 
         configuration.setSharedVariable("serialize", new NodeModelSerializer());
         configuration.setNumberFormat(defaultNumberFormat);
+        if (!objectWrapper.equals(DEFAULT_OBJECT_WRAPPER)) {
+            configuration.setObjectWrapper(createObjectWrapper());
+        }
+        SimpleHash smooksDirectives = new SimpleHash(configuration.getObjectWrapper());
+        smooksDirectives.put("cache", new FragmentCacheDirective(fragmentCacheSize));
+        configuration.setSharedVariable(SMOOKS_DIRECTIVES, smooksDirectives);
+
+        TemplateLoader[] loaders = new TemplateLoader[]{new FileTemplateLoader(), new ContextClassLoaderTemplateLoader()};
+        configuration.setTemplateLoader(new MultiTemplateLoader(loaders));
+        addAutoImports(resourceConfig, configuration);
 
         if (resourceConfig.isInline()) {
             byte[] templateBytes = resourceConfig.getBytes();
@@ -138,24 +220,83 @@ public class FreeMarkerTemplateProcessor extends AbstractTemplateProcessor imple
                 throw new IOException("Invalid FreeMarker template config.  Zero split tokens.");
             }
         } else {
-            TemplateLoader[] loaders = new TemplateLoader[]{new FileTemplateLoader(), new ContextClassLoaderTemplateLoader()};
-            MultiTemplateLoader multiLoader = new MultiTemplateLoader(loaders);
-
-            configuration.setTemplateLoader(multiLoader);
             defaultTemplate = configuration.getTemplate(resourceConfig.getResource());
         }
+
+        Map<Template, FragmentReferences> fragmentReferences = new IdentityHashMap<>();
+        Map<Template, ProcessingEnvironmentPool> environmentPools = new IdentityHashMap<>();
+        Map<Template, CompiledFreeMarkerTemplate> compiledTemplates = new IdentityHashMap<>();
+        String compileMode = compile.orElseGet(() -> System.getProperty(COMPILE, "false")).trim();
+        if (!compileMode.equals("false") && !compileMode.equals("true") && !compileMode.equals("verify")) {
+            throw new SmooksConfigException("Invalid '" + COMPILE + "' parameter value '" + compileMode + "'. Must be 'false', 'true' or 'verify'.");
+        }
+        boolean autoLoads = !configuration.getAutoImports().isEmpty() || !configuration.getAutoIncludes().isEmpty();
+        for (Template template : new Template[]{defaultTemplate, templateBefore, templateAfter}) {
+            if (template != null) {
+                fragmentReferences.put(template, new FragmentReferences(template, autoLoads));
+                if (cacheImports) {
+                    environmentPools.put(template, new ProcessingEnvironmentPool(template));
+                }
+                if (!compileMode.equals("false") && !autoLoads) {
+                    CompiledFreeMarkerTemplate compiledTemplate = CompiledFreeMarkerTemplate.compile(template);
+                    if (compiledTemplate != null) {
+                        compiledTemplates.put(template, compiledTemplate);
+                    }
+                }
+            }
+        }
+        this.fragmentReferences = fragmentReferences;
+        this.environmentPools = environmentPools;
+        this.compiledTemplates = compiledTemplates;
+        this.verifyCompiledTemplates = compileMode.equals("verify");
     }
 
-    public boolean consumes(Object object) {
-        if (defaultTemplate != null && defaultTemplate.toString().contains(object.toString())) {
-            return true;
-        } else if (templateBefore != null && templateBefore.toString().contains(object.toString())) {
-            return true;
-        } else {
-            return templateAfter != null && templateAfter.toString().contains(object.toString());
+    private void addAutoImports(ResourceConfig resourceConfig, Configuration configuration) {
+        List<Parameter<?>> autoImports = resourceConfig.getParameters("templating.freemarker.autoImport");
+        List<Parameter<?>> autoImportNamespaces = resourceConfig.getParameters("templating.freemarker.autoImportNamespace");
+
+        if (autoImports.size() != autoImportNamespaces.size()) {
+            throw new SmooksConfigException("Invalid FreeMarker auto-import config. Each 'templating.freemarker.autoImport' parameter must be paired with a 'templating.freemarker.autoImportNamespace' parameter.");
+        }
+        for (int i = 0; i < autoImports.size(); i++) {
+            configuration.addAutoImport(autoImportNamespaces.get(i).getValue().toString().trim(), autoImports.get(i).getValue().toString().trim());
         }
     }
 
+    @Override
+    protected String getTemplateType() {
+        return "ftl";
+    }
+
+    private ObjectWrapper createObjectWrapper() {
+        if (objectWrapper.equals(ACCESSOR_OBJECT_WRAPPER)) {
+            return AccessorObjectWrapper.getInstance(Configuration.VERSION_2_3_21);
+        }
+
+        try {
+            return (ObjectWrapper) ClassUtils.forName(objectWrapper, getClass()).newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+            throw new SmooksConfigException("Invalid 'templating.freemarker.objectWrapper' parameter value '" + objectWrapper + "'. Must be '" + DEFAULT_OBJECT_WRAPPER + "', '" + ACCESSOR_OBJECT_WRAPPER + "' or the class name of a " + ObjectWrapper.class.getName() + " implementation.", e);
+        }
+    }
+
+    @Override
+    protected boolean isReferenced(String name) {
+        // Templates including, importing or auto-loading other templates reference any name...
+        for (FragmentReferences references : fragmentReferences.values()) {
+            if (references.isReferenced(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Set<TemplateCapability> getCapabilities() {
+        // FreeMarker writes as it renders, and only wraps the targeted element itself...
+        return EnumSet.of(TemplateCapability.STREAMING_OUTPUT, TemplateCapability.STREAMING_INPUT);
+    }
+
     @Override
     protected void applyTemplate(Element element, ExecutionContext executionContext, Writer writer) {
         applyTemplate(defaultTemplate, element, executionContext, writer);
@@ -163,16 +304,90 @@ public class FreeMarkerTemplateProcessor extends AbstractTemplateProcessor imple
 
     protected void applyTemplate(Template template, Element element, ExecutionContext executionContext, Writer writer) throws SmooksException {
         try {
-            final Map<String, Object> model = new HashMap<>(FreeMarkerUtils.getMergedModel(executionContext));
-            if (model.get(element.getNodeName()) == null) {
-                model.put(element.getNodeName(), NodeModel.wrap(element));
+            final Map<String, Object> mergedModel = FreeMarkerUtils.getMergedModel(executionContext);
+            final String nodeName = element.getNodeName();
+            final FragmentReferences references = fragmentReferences.get(template);
+
+            if (mergedModel.get(nodeName) == null && (references == null || references.isReferenced(nodeName))) {
+                final Map<String, Object> model = new HashMap<>(mergedModel);
+                model.put(nodeName, NodeModel.wrap(element));
+                final CompiledFreeMarkerTemplate compiledTemplate = compiledTemplates.get(template);
+                if (compiledTemplate != null && compiledTemplate.isVariableReferenced(nodeName)) {
+                    // Navigating the fragment's NodeModel takes a FreeMarker Environment...
+                    interpret(template, model, writer);
+                } else {
+                    process(template, model, writer);
+                }
+            } else {
+                process(template, mergedModel, writer);
             }
-            template.process(model, writer);
         } catch (TemplateException | IOException e) {
             throw new SmooksException("Failed to apply FreeMarker template to fragment '" + DomUtils.getXPath(element) + "'.  Resource: " + resourceConfig, e);
         }
     }
 
+    private void process(Template template, Map<String, Object> model, Writer writer) throws TemplateException, IOException {
+        final CompiledFreeMarkerTemplate compiledTemplate = compiledTemplates.get(template);
+        if (compiledTemplate == null || compiledTemplate.isInterpreted()) {
+            interpret(template, model, writer);
+        } else if (verifyCompiledTemplates) {
+            verify(compiledTemplate, model, writer);
+        } else {
+            render(compiledTemplate, model, writer);
+        }
+    }
+
+    private void render(CompiledFreeMarkerTemplate compiledTemplate, Map<String, Object> model, Writer writer) throws TemplateException, IOException {
+        final StringWriter compiledOutput = COMPILED_OUTPUT_BUFFER.get();
+        // A nested render on this thread gets a buffer of its own...
+        COMPILED_OUTPUT_BUFFER.remove();
+        try {
+            try {
+                compiledTemplate.process(model, compiledOutput);
+            } catch (CompiledFreeMarkerTemplate.UnsupportedValueException e) {
+                compiledTemplate.setInterpreted();
+                interpret(compiledTemplate.getTemplate(), model, writer);
+                return;
+            }
+            writer.append(compiledOutput.getBuffer());
+        } finally {
+            final StringBuffer buffer = compiledOutput.getBuffer();
+            buffer.setLength(0);
+            if (buffer.capacity() <= MAX_REUSED_BUFFER_CAPACITY) {
+                COMPILED_OUTPUT_BUFFER.set(compiledOutput);
+            }
+        }
+    }
+
+    private void verify(CompiledFreeMarkerTemplate compiledTemplate, Map<String, Object> model, Writer writer) throws TemplateException, IOException {
+        final StringWriter interpretedOutput = new StringWriter();
+        final StringWriter compiledOutput = new StringWriter();
+
+        interpret(compiledTemplate.getTemplate(), model, interpretedOutput);
+        try {
+            compiledTemplate.process(model, compiledOutput);
+        } catch (CompiledFreeMarkerTemplate.UnsupportedValueException e) {
+            compiledTemplate.setInterpreted();
+            writer.write(interpretedOutput.toString());
+            return;
+        } catch (TemplateException e) {
+            throw new SmooksException("Compiled FreeMarker template '" + compiledTemplate.getTemplate().getName() + "' failed where the interpreted template succeeded.", e);
+        }
+        if (!interpretedOutput.toString().equals(compiledOutput.toString())) {
+            throw new SmooksException("Compiled FreeMarker template '" + compiledTemplate.getTemplate().getName() + "' output differs from the interpreted template output.\nInterpreted:\n" + interpretedOutput + "\nCompiled:\n" + compiledOutput);
+        }
+        writer.write(interpretedOutput.toString());
+    }
+
+    private void interpret(Template template, Map<String, Object> model, Writer writer) throws TemplateException, IOException {
+        final ProcessingEnvironmentPool environmentPool = environmentPools.get(template);
+        if (environmentPool != null) {
+            environmentPool.process(model, writer);
+        } else {
+            template.process(model, writer);
+        }
+    }
+
     private static class ContextClassLoaderTemplateLoader extends URLTemplateLoader {
         @Override
         protected URL getURL(String name) {
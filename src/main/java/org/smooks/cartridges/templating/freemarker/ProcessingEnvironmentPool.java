@@ -0,0 +1,344 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.core.Configurable;
+import freemarker.core.Environment;
+import freemarker.template.SimpleHash;
+import freemarker.template.Template;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateHashModelEx2;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.utility.NullWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pool of reusable FreeMarker processing {@link Environment Environments} for a {@link Template}.
+ * <p/>
+ * FreeMarker keeps the namespaces of <code>#import</code>ed libraries (including auto-imports) in the
+ * {@link Environment}, so a fresh Environment per {@link Template#process(Object, Writer)} call re-executes the
+ * top-level code of every imported library. Reusing the Environment means a library is only initialised once per
+ * pooled Environment.
+ * <p/>
+ * The auto-imports and the <code>#import</code> directives with a literal template name are initialised when the
+ * Environment is created, against an empty data model, so a library can't capture the data of a message.
+ * After every render:
+ * <ul>
+ *     <li>the main and global namespaces are cleared, so only the library namespaces (and the macros of the template
+ *     itself) survive between renders,</li>
+ *     <li>settings changed by the render (e.g. <code>&lt;#setting locale="..."&gt;</code>) and custom attributes
+ *     are restored,</li>
+ *     <li>the library namespaces are checked for modifications.  Library namespaces are read-only once initialised,
+ *     so a render modifying one fails.</li>
+ * </ul>
+ * An Environment that fails to process a template, that initialised a library while rendering (e.g. an
+ * <code>#import</code> with a computed name), or whose settings can't be restored, is discarded.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class ProcessingEnvironmentPool {
+
+    private static final Pattern LITERAL_IMPORT = Pattern.compile("<#import\\s+\"([^\"\\\\]*)\"\\s+as\\s+([^\\s/>]+)\\s*/?>");
+
+    private final Template template;
+    private final Queue<PooledEnvironment> environments = new ConcurrentLinkedQueue<>();
+
+    ProcessingEnvironmentPool(Template template) {
+        this.template = template;
+    }
+
+    void process(Map<String, Object> model, Writer writer) throws TemplateException, IOException {
+        PooledEnvironment pooledEnvironment = environments.poll();
+        if (pooledEnvironment == null) {
+            pooledEnvironment = new PooledEnvironment(template);
+        }
+
+        pooledEnvironment.process(model, writer);
+        if (pooledEnvironment.reset()) {
+            environments.offer(pooledEnvironment);
+        }
+    }
+
+    private static final class PooledEnvironment {
+
+        private final Template template;
+        private final DataModel dataModel = new DataModel();
+        private final Environment environment;
+        private final Map<Environment.Namespace, Map<String, TemplateModel>> libraries = new IdentityHashMap<>();
+        private final Map<String, String> settings;
+        private final Map<String, Object> customAttributes = new HashMap<>();
+
+        @SuppressWarnings("deprecation")
+        private PooledEnvironment(Template template) throws TemplateException, IOException {
+            this.template = template;
+            this.environment = template.createProcessingEnvironment(dataModel, NullWriter.INSTANCE);
+
+            List<Environment.Namespace> namespaces = new ArrayList<>();
+            dataModel.delegate = new SimpleHash(template.getObjectWrapper());
+            try {
+                for (Map.Entry<String, String> autoImport : template.getAutoImports().entrySet()) {
+                    namespaces.add(environment.importLib(autoImport.getValue(), autoImport.getKey(), false));
+                }
+                Matcher matcher = LITERAL_IMPORT.matcher(template.toString());
+                while (matcher.find()) {
+                    namespaces.add(environment.importLib(environment.toFullTemplateName(template.getName(), matcher.group(1)), matcher.group(2), false));
+                }
+            } catch (TemplateException e) {
+                throw new TemplateModelException("Failed to initialise the libraries imported by template '" + template.getName() + "'. Imported libraries are initialised against an empty data model when imports are cached, so their top-level code must not read the data model.", e);
+            } finally {
+                dataModel.delegate = null;
+            }
+            for (Environment.Namespace namespace : namespaces) {
+                addLibrary(namespace);
+            }
+            clearNamespaces();
+
+            this.settings = toStringMap(environment.getSettings());
+            for (String name : environment.getCustomAttributeNames()) {
+                customAttributes.put(name, environment.getCustomAttribute(name));
+            }
+        }
+
+        private void addLibrary(Environment.Namespace namespace) throws TemplateModelException {
+            if (!libraries.containsKey(namespace)) {
+                Map<String, TemplateModel> variables = getVariables(namespace);
+                libraries.put(namespace, variables);
+                for (TemplateModel variable : variables.values()) {
+                    if (variable instanceof Environment.Namespace) {
+                        addLibrary((Environment.Namespace) variable);
+                    }
+                }
+            }
+        }
+
+        private void process(Map<String, Object> model, Writer writer) throws TemplateException, IOException {
+            TemplateModel wrappedModel = template.getObjectWrapper().wrap(model);
+            if (!(wrappedModel instanceof TemplateHashModel)) {
+                throw new TemplateModelException(template.getObjectWrapper().getClass().getName() + " didn't convert the data model to a TemplateHashModel.");
+            }
+            dataModel.delegate = (TemplateHashModel) wrappedModel;
+            environment.setOut(writer);
+            environment.process();
+        }
+
+        /**
+         * Reset the Environment for the next render.
+         *
+         * @return True if the Environment can be reused, otherwise false.
+         */
+        private boolean reset() throws TemplateModelException {
+            dataModel.delegate = null;
+            environment.setOut(NullWriter.INSTANCE);
+            boolean reusable = clearNamespaces();
+            for (Map.Entry<Environment.Namespace, Map<String, TemplateModel>> library : libraries.entrySet()) {
+                if (!isUnchanged(library.getKey(), library.getValue())) {
+                    throw new TemplateModelException("Library '" + library.getKey().getTemplate().getName() + "' was modified after it was imported. Imported library namespaces are read-only when imports are cached.");
+                }
+            }
+            restoreCustomAttributes();
+
+            return reusable && restoreSettings();
+        }
+
+        @SuppressWarnings("deprecation")
+        private boolean clearNamespaces() throws TemplateModelException {
+            boolean reusable = clear(environment.getMainNamespace());
+            // Macros are defined up front by the Environment constructor, so they must survive the reset...
+            environment.getMainNamespace().putAll(template.getMacros());
+            return clear(environment.getGlobalNamespace()) && reusable;
+        }
+
+        /**
+         * Clear a namespace.
+         *
+         * @return False if the namespace references a library that was initialised while rendering, otherwise true.
+         */
+        private boolean clear(SimpleHash namespace) throws TemplateModelException {
+            boolean reusable = true;
+            for (Map.Entry<String, TemplateModel> variable : getVariables(namespace).entrySet()) {
+                if (variable.getValue() instanceof Environment.Namespace && !libraries.containsKey(variable.getValue())) {
+                    reusable = false;
+                }
+                namespace.remove(variable.getKey());
+            }
+            return reusable;
+        }
+
+        private void restoreCustomAttributes() {
+            for (String name : environment.getCustomAttributeNames()) {
+                if (!customAttributes.containsKey(name)) {
+                    environment.removeCustomAttribute(name);
+                }
+            }
+            for (Map.Entry<String, Object> customAttribute : customAttributes.entrySet()) {
+                if (environment.getCustomAttribute(customAttribute.getKey()) != customAttribute.getValue()) {
+                    environment.setCustomAttribute(customAttribute.getKey(), customAttribute.getValue());
+                }
+            }
+        }
+
+        /**
+         * Set the settings changed by the last render back to the values inherited from the template.
+         *
+         * @return False if a setting couldn't be restored, otherwise true.
+         */
+        @SuppressWarnings("deprecation")
+        private boolean restoreSettings() {
+            Map<String, String> changedSettings = toStringMap(environment.getSettings());
+            if (changedSettings.equals(settings)) {
+                return true;
+            }
+
+            for (Map.Entry<String, String> setting : changedSettings.entrySet()) {
+                String name = setting.getKey();
+                if (!setting.getValue().equals(settings.get(name))) {
+                    String value = settings.containsKey(name) ? settings.get(name) : getInheritedSetting(name);
+                    if (value == null) {
+                        return false;
+                    }
+                    try {
+                        environment.setSetting(name, value);
+                    } catch (TemplateException e) {
+                        return false;
+                    }
+                    settings.put(name, value);
+                }
+            }
+            return true;
+        }
+
+        @SuppressWarnings("deprecation")
+        private String getInheritedSetting(String name) {
+            for (Configurable configurable = environment.getParent(); configurable != null; configurable = configurable.getParent()) {
+                Object value = configurable.getSettings().get(name);
+                if (value != null) {
+                    return value.toString();
+                }
+            }
+            return null;
+        }
+
+        private static Map<String, String> toStringMap(Map<?, ?> settings) {
+            Map<String, String> stringMap = new HashMap<>();
+            for (Map.Entry<?, ?> setting : settings.entrySet()) {
+                stringMap.put(setting.getKey().toString(), setting.getValue().toString());
+            }
+            return stringMap;
+        }
+
+        private static Map<String, TemplateModel> getVariables(SimpleHash namespace) throws TemplateModelException {
+            Map<String, TemplateModel> variables = new HashMap<>();
+            for (TemplateHashModelEx2.KeyValuePairIterator iterator = namespace.keyValuePairIterator(); iterator.hasNext(); ) {
+                TemplateHashModelEx2.KeyValuePair keyValuePair = iterator.next();
+                variables.put(((TemplateScalarModel) keyValuePair.getKey()).getAsString(), keyValuePair.getValue());
+            }
+            return variables;
+        }
+
+        private static boolean isUnchanged(SimpleHash namespace, Map<String, TemplateModel> variables) throws TemplateModelException {
+            if (namespace.size() != variables.size()) {
+                return false;
+            }
+            for (TemplateHashModelEx2.KeyValuePairIterator iterator = namespace.keyValuePairIterator(); iterator.hasNext(); ) {
+                TemplateHashModelEx2.KeyValuePair keyValuePair = iterator.next();
+                if (variables.get(((TemplateScalarModel) keyValuePair.getKey()).getAsString()) != keyValuePair.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class DataModel implements TemplateHashModelEx {
+
+        private TemplateHashModel delegate;
+
+        @Override
+        public TemplateModel get(String key) throws TemplateModelException {
+            return delegate.get(key);
+        }
+
+        @Override
+        public boolean isEmpty() throws TemplateModelException {
+            return delegate.isEmpty();
+        }
+
+        @Override
+        public int size() throws TemplateModelException {
+            return getDelegateEx().size();
+        }
+
+        @Override
+        public TemplateCollectionModel keys() throws TemplateModelException {
+            return getDelegateEx().keys();
+        }
+
+        @Override
+        public TemplateCollectionModel values() throws TemplateModelException {
+            return getDelegateEx().values();
+        }
+
+        private TemplateHashModelEx getDelegateEx() throws TemplateModelException {
+            if (delegate instanceof TemplateHashModelEx) {
+                return (TemplateHashModelEx) delegate;
+            }
+            throw new TemplateModelException("Data model of type " + delegate.getClass().getName() + " can't be listed.");
+        }
+    }
+}
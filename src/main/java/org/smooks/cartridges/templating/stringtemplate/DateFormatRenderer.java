@@ -0,0 +1,153 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.stringtemplate;
+
+import org.stringtemplate.v4.AttributeRenderer;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.time.temporal.TemporalAccessor;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.function.BiFunction;
+
+/**
+ * StringTemplate {@link AttributeRenderer} for {@link Date Dates}, {@link Calendar Calendars} and
+ * <code>java.time</code> {@link TemporalAccessor TemporalAccessors} (e.g. {@link java.time.LocalDate}).
+ * <p/>
+ * The <code>format</code> option of the template expression (e.g. <code>$order.date; format="yyyy-MM-dd"$</code>)
+ * is a date pattern ({@link SimpleDateFormat} for Dates and Calendars, {@link DateTimeFormatter} for
+ * <code>java.time</code> values), or one of "short", "medium", "long" and "full" for the corresponding localized
+ * style (date and time for Dates and Calendars, date only for <code>java.time</code> values).  Without a <code>format</code> option, the value renders as its <code>toString()</code>
+ * value, as it does when no renderer is registered.
+ * <p/>
+ * {@link DateFormat} instances aren't thread-safe.  Rather than creating one for every rendered value, each
+ * thread keeps the formats it created, per locale and format.
+ * <p/>
+ * Registered on a template group through the "<b>templating.stringtemplate.renderer</b>" parameters
+ * (see {@link StringTemplateTemplateProcessor}).
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public class DateFormatRenderer implements AttributeRenderer {
+
+    private static final Map<String, Integer> DATE_FORMAT_STYLES = new HashMap<>();
+    private static final Map<String, FormatStyle> FORMAT_STYLES = new HashMap<>();
+
+    static {
+        DATE_FORMAT_STYLES.put("short", DateFormat.SHORT);
+        DATE_FORMAT_STYLES.put("medium", DateFormat.MEDIUM);
+        DATE_FORMAT_STYLES.put("long", DateFormat.LONG);
+        DATE_FORMAT_STYLES.put("full", DateFormat.FULL);
+        FORMAT_STYLES.put("short", FormatStyle.SHORT);
+        FORMAT_STYLES.put("medium", FormatStyle.MEDIUM);
+        FORMAT_STYLES.put("long", FormatStyle.LONG);
+        FORMAT_STYLES.put("full", FormatStyle.FULL);
+    }
+
+    private final ThreadLocal<Map<Locale, Map<String, DateFormat>>> dateFormats = ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<Map<Locale, Map<String, DateTimeFormatter>>> dateTimeFormatters = ThreadLocal.withInitial(HashMap::new);
+    private final BiFunction<String, Locale, DateFormat> dateFormatFactory = this::newDateFormat;
+    private final BiFunction<String, Locale, DateTimeFormatter> dateTimeFormatterFactory = this::newDateTimeFormatter;
+
+    @Override
+    public String toString(Object object, String formatString, Locale locale) {
+        if (formatString == null) {
+            return object.toString();
+        }
+
+        if (object instanceof TemporalAccessor) {
+            return getFormat(dateTimeFormatters, dateTimeFormatterFactory, formatString, locale).format((TemporalAccessor) object);
+        }
+
+        DateFormat dateFormat = getFormat(dateFormats, dateFormatFactory, formatString, locale);
+        if (object instanceof Calendar) {
+            Calendar calendar = (Calendar) object;
+            dateFormat.setTimeZone(calendar.getTimeZone());
+            return dateFormat.format(calendar.getTime());
+        } else {
+            dateFormat.setTimeZone(TimeZone.getDefault());
+            return dateFormat.format(object);
+        }
+    }
+
+    private static <T> T getFormat(ThreadLocal<Map<Locale, Map<String, T>>> formats, BiFunction<String, Locale, T> formatFactory, String formatString, Locale locale) {
+        Map<String, T> localeFormats = formats.get().get(locale);
+        if (localeFormats == null) {
+            localeFormats = new HashMap<>();
+            formats.get().put(locale, localeFormats);
+        }
+
+        T format = localeFormats.get(formatString);
+        if (format == null) {
+            format = formatFactory.apply(formatString, locale);
+            localeFormats.put(formatString, format);
+        }
+
+        return format;
+    }
+
+    protected DateFormat newDateFormat(String formatString, Locale locale) {
+        Integer style = DATE_FORMAT_STYLES.get(formatString);
+        if (style != null) {
+            return DateFormat.getDateTimeInstance(style, style, locale);
+        } else {
+            return new SimpleDateFormat(formatString, locale);
+        }
+    }
+
+    protected DateTimeFormatter newDateTimeFormatter(String formatString, Locale locale) {
+        FormatStyle style = FORMAT_STYLES.get(formatString);
+        if (style != null) {
+            return DateTimeFormatter.ofLocalizedDate(style).withLocale(locale);
+        } else {
+            return DateTimeFormatter.ofPattern(formatString, locale);
+        }
+    }
+}
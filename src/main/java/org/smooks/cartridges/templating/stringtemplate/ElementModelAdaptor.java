@@ -0,0 +1,170 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.stringtemplate;
+
+import org.smooks.support.DomUtils;
+import org.stringtemplate.v4.AttributeRenderer;
+import org.stringtemplate.v4.Interpreter;
+import org.stringtemplate.v4.ModelAdaptor;
+import org.stringtemplate.v4.ST;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * StringTemplate {@link ModelAdaptor} and {@link AttributeRenderer} for DOM {@link Element Elements}, exposing the
+ * fragment targeted by a {@link StringTemplateTemplateProcessor} to its template.
+ * <p/>
+ * A property of an element resolves to:
+ * <ol>
+ *     <li>the value of the element attribute with that name, if the element has one, otherwise</li>
+ *     <li>the child element with that name if there's exactly one, or a list view of the child elements with
+ *         that name if there are several.</li>
+ * </ol>
+ * An element renders as its text content.  Nothing is copied: attributes and children are read from the DOM
+ * when the template accesses them.  Only the parts of the fragment captured by Smooks (see the
+ * "templating.stringtemplate.maxNodeDepth" parameter) are visible.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class ElementModelAdaptor implements ModelAdaptor, AttributeRenderer {
+
+    static final ElementModelAdaptor INSTANCE = new ElementModelAdaptor();
+
+    private ElementModelAdaptor() {
+    }
+
+    @Override
+    public Object getProperty(Interpreter interpreter, ST self, Object object, Object property, String propertyName) {
+        Element element = (Element) object;
+
+        if (element.hasAttribute(propertyName)) {
+            return element.getAttribute(propertyName);
+        }
+
+        Element firstChild = nextElement(element.getFirstChild(), propertyName);
+        if (firstChild == null) {
+            return null;
+        } else if (nextElement(firstChild.getNextSibling(), propertyName) == null) {
+            return firstChild;
+        } else {
+            return new ChildElements(firstChild, propertyName);
+        }
+    }
+
+    @Override
+    public String toString(Object object, String formatString, Locale locale) {
+        return ((Element) object).getTextContent();
+    }
+
+    private static Element nextElement(Node node, String name) {
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && DomUtils.getName((Element) node).equals(name)) {
+                return (Element) node;
+            }
+            node = node.getNextSibling();
+        }
+        return null;
+    }
+
+    /**
+     * Live list view of the sibling elements with a given name.
+     */
+    private static final class ChildElements extends AbstractList<Element> {
+
+        private final Element first;
+        private final String name;
+
+        private ChildElements(Element first, String name) {
+            this.first = first;
+            this.name = name;
+        }
+
+        @Override
+        public Element get(int index) {
+            Iterator<Element> iterator = iterator();
+            for (int i = 0; i < index && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+            if (index < 0 || !iterator.hasNext()) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return iterator.next();
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Iterator<Element> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+                size++;
+            }
+            return size;
+        }
+
+        @Override
+        public Iterator<Element> iterator() {
+            return new Iterator<Element>() {
+                private Element next = first;
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Element next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Element current = next;
+                    next = nextElement(current.getNextSibling(), name);
+                    return current;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.stringtemplate;
+
+import org.stringtemplate.v4.AttributeRenderer;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * StringTemplate {@link AttributeRenderer} for {@link Number Numbers}, including {@link java.math.BigDecimal} and
+ * {@link java.math.BigInteger} (rendered without loss of precision).
+ * <p/>
+ * The <code>format</code> option of the template expression (e.g. <code>$order.total; format="#,##0.00"$</code>)
+ * is a {@link DecimalFormat} pattern, or one of "number", "integer", "currency" and "percent" for the
+ * corresponding {@link NumberFormat} instance of the render locale.  Without a <code>format</code> option, the
+ * number renders as its <code>toString()</code> value, as it does when no renderer is registered.
+ * <p/>
+ * {@link NumberFormat} instances aren't thread-safe.  Rather than creating one for every rendered value, each
+ * thread keeps the formats it created, per locale and format.
+ * <p/>
+ * Registered on a template group through the "<b>templating.stringtemplate.renderer</b>" parameters
+ * (see {@link StringTemplateTemplateProcessor}).
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public class NumberFormatRenderer implements AttributeRenderer {
+
+    private final ThreadLocal<Map<Locale, Map<String, NumberFormat>>> numberFormats = ThreadLocal.withInitial(HashMap::new);
+
+    @Override
+    public String toString(Object object, String formatString, Locale locale) {
+        if (formatString == null) {
+            return object.toString();
+        }
+
+        return getNumberFormat(formatString, locale).format(object);
+    }
+
+    private NumberFormat getNumberFormat(String formatString, Locale locale) {
+        Map<String, NumberFormat> localeNumberFormats = numberFormats.get().get(locale);
+        if (localeNumberFormats == null) {
+            localeNumberFormats = new HashMap<>();
+            numberFormats.get().put(locale, localeNumberFormats);
+        }
+
+        NumberFormat numberFormat = localeNumberFormats.get(formatString);
+        if (numberFormat == null) {
+            numberFormat = newNumberFormat(formatString, locale);
+            localeNumberFormats.put(formatString, numberFormat);
+        }
+
+        return numberFormat;
+    }
+
+    protected NumberFormat newNumberFormat(String formatString, Locale locale) {
+        switch (formatString) {
+            case "number":
+                return NumberFormat.getNumberInstance(locale);
+            case "integer":
+                return NumberFormat.getIntegerInstance(locale);
+            case "currency":
+                return NumberFormat.getCurrencyInstance(locale);
+            case "percent":
+                return NumberFormat.getPercentInstance(locale);
+            default:
+                return new DecimalFormat(formatString, DecimalFormatSymbols.getInstance(locale));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.stringtemplate;
+
+import org.smooks.api.ApplicationContext;
+import org.smooks.api.TypedKey;
+import org.stringtemplate.v4.AttributeRenderer;
+import org.stringtemplate.v4.ModelAdaptor;
+import org.stringtemplate.v4.STGroup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the StringTemplate {@link STGroup STGroups} loaded by the {@link StringTemplateTemplateProcessor}
+ * instances of an {@link ApplicationContext}.
+ * <p/>
+ * A group (".stg" group file or ".st" template directory) is loaded and compiled once per ApplicationContext,
+ * no matter how many resources reference it.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class STGroupCache {
+
+    private static final TypedKey<STGroupCache> CACHE_TYPED_KEY = TypedKey.of(STGroupCache.class.getName());
+
+    private final ConcurrentMap<GroupKey, STGroup> groups = new ConcurrentHashMap<>();
+
+    private STGroupCache() {
+    }
+
+    static STGroupCache getInstance(ApplicationContext applicationContext) {
+        STGroupCache groupCache = applicationContext.getRegistry().lookup(CACHE_TYPED_KEY);
+        if (groupCache == null) {
+            synchronized (STGroupCache.class) {
+                groupCache = applicationContext.getRegistry().lookup(CACHE_TYPED_KEY);
+                if (groupCache == null) {
+                    groupCache = new STGroupCache();
+                    applicationContext.getRegistry().registerObject(CACHE_TYPED_KEY, groupCache);
+                }
+            }
+        }
+
+        return groupCache;
+    }
+
+    /**
+     * Get the group identified by the supplied key, loading it if it's not already cached.
+     *
+     * @param groupKey The group key.
+     * @param groupLoader Group loader.  Called at most once per key.
+     * @return The group.
+     */
+    STGroup getGroup(GroupKey groupKey, Supplier<STGroup> groupLoader) {
+        return groups.computeIfAbsent(groupKey, key -> groupLoader.get());
+    }
+
+    /**
+     * {@link STGroup} cache key.  Groups loaded from the same location with a different encoding, different
+     * delimiters or different renderers and model adaptors are different groups.
+     */
+    static final class GroupKey {
+
+        private final String location;
+        private final String encoding;
+        private final char delimiterStartChar;
+        private final char delimiterStopChar;
+        private final Map<Class<?>, Class<? extends AttributeRenderer>> renderers;
+        private final Map<Class<?>, Class<? extends ModelAdaptor>> modelAdaptors;
+
+        GroupKey(String location, String encoding, char delimiterStartChar, char delimiterStopChar) {
+            this(location, encoding, delimiterStartChar, delimiterStopChar, Collections.emptyMap(), Collections.emptyMap());
+        }
+
+        GroupKey(String location, String encoding, char delimiterStartChar, char delimiterStopChar, Map<Class<?>, Class<? extends AttributeRenderer>> renderers, Map<Class<?>, Class<? extends ModelAdaptor>> modelAdaptors) {
+            this.location = location;
+            this.encoding = encoding;
+            this.delimiterStartChar = delimiterStartChar;
+            this.delimiterStopChar = delimiterStopChar;
+            this.renderers = renderers;
+            this.modelAdaptors = modelAdaptors;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey groupKey = (GroupKey) o;
+            return delimiterStartChar == groupKey.delimiterStartChar && delimiterStopChar == groupKey.delimiterStopChar && location.equals(groupKey.location) && encoding.equals(groupKey.encoding) && renderers.equals(groupKey.renderers) && modelAdaptors.equals(groupKey.modelAdaptors);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(location, encoding, delimiterStartChar, delimiterStopChar, renderers, modelAdaptors);
+        }
+
+        @Override
+        public String toString() {
+            return location;
+        }
+    }
+}
@@ -42,29 +42,9 @@
  */
 package org.smooks.cartridges.templating.stringtemplate;
 
-import org.smooks.api.ApplicationContext;
-import org.smooks.api.ExecutionContext;
-import org.smooks.api.SmooksConfigException;
-import org.smooks.api.SmooksException;
 import org.smooks.api.bean.context.BeanContext;
-import org.smooks.api.delivery.ContentHandlerFactory;
-import org.smooks.api.delivery.ordering.Consumer;
-import org.smooks.api.delivery.ContentHandler;
-import org.smooks.api.resource.config.ResourceConfig;
-import org.smooks.api.resource.visitor.VisitAfterReport;
-import org.smooks.api.resource.visitor.VisitBeforeReport;
+import org.smooks.cartridges.templating.AbstractTemplateEngine;
 import org.smooks.cartridges.templating.AbstractTemplateProcessor;
-import org.smooks.engine.injector.Scope;
-import org.smooks.engine.lifecycle.PostConstructLifecyclePhase;
-import org.smooks.engine.lookup.LifecycleManagerLookup;
-import org.stringtemplate.v4.ST;
-import org.stringtemplate.v4.STRawGroupDir;
-import org.w3c.dom.Element;
-
-import javax.inject.Inject;
-import java.io.IOException;
-import java.io.Writer;
-import java.util.Map;
 
 /**
  * StringTemplate {@link org.smooks.api.resource.visitor.dom.DOMElementVisitor} Creator class.
@@ -110,94 +90,27 @@ import java.util.Map;
  * &lt;/resource-config&gt;
  * </pre>
  *
+ * <h2>Extended Configuration</h2>
+ * The "https://www.smooks.org/xsd/smooks/stringtemplate-2.0.xsd" namespace supports inline templates, ".stg" group
+ * files and custom delimiters:
+ * <pre>
+ * &lt;st:stringtemplate applyOnElement="<i>target-element</i>" templateName="<i>order</i>"&gt;
+ *     &lt;st:template&gt;<b>/com/acme/AcmeTemplates.stg</b>&lt;/st:template&gt;
+ * &lt;/st:stringtemplate&gt;
+ * </pre>
+ * See {@link StringTemplateTemplateProcessor}.
+ *
  * @author tfennelly
  */
-public class StringTemplateContentHandlerFactory implements ContentHandlerFactory {
-
-    @Inject
-    private ApplicationContext applicationContext;
+public class StringTemplateContentHandlerFactory extends AbstractTemplateEngine {
 
-    /**
-     * Create a StringTemplate based ContentHandler.
-     *
-     * @param resourceConfig The SmooksResourceConfiguration for the StringTemplate.
-     * @return The StringTemplate {@link ContentHandler} instance.
-     */
-    public synchronized ContentHandler create(ResourceConfig resourceConfig) throws SmooksConfigException {
-        final StringTemplateTemplateProcessor stringTemplateTemplateProcessor = new StringTemplateTemplateProcessor();
-        try {
-            applicationContext.getRegistry().lookup(new LifecycleManagerLookup()).applyPhase(stringTemplateTemplateProcessor, new PostConstructLifecyclePhase(new Scope(applicationContext.getRegistry(), resourceConfig, stringTemplateTemplateProcessor)));
-            return stringTemplateTemplateProcessor;
-        } catch (SmooksConfigException e) {
-            throw e;
-        } catch (Exception e) {
-            InstantiationException instanceException = new InstantiationException("StringTemplate ProcessingUnit resource [" + resourceConfig.getResource() + "] not loadable.  StringTemplate resource invalid.");
-            instanceException.initCause(e);
-            throw new SmooksException(instanceException.getMessage(), instanceException);
-        }
+    @Override
+    public AbstractTemplateProcessor newTemplateProcessor() {
+        return new StringTemplateTemplateProcessor();
     }
 
     @Override
     public String getType() {
         return "st";
     }
-
-    /**
-     * StringTemplate template application ProcessingUnit.
-     *
-     * @author tfennelly
-     */
-    @VisitBeforeReport(condition = "false")
-    @VisitAfterReport(summary = "Applied StringTemplate Template.", detailTemplate = "reporting/StringTemplateTemplateProcessor_After.html")
-    private static class StringTemplateTemplateProcessor extends AbstractTemplateProcessor implements Consumer {
-
-        private ST template = null;
-        private String templateName;
-        STRawGroupDir templateGroupDir;
-
-        @Override
-        protected void loadTemplate(ResourceConfig resourceConfig) throws IOException {
-            String path = resourceConfig.getResource();
-
-            if (path.charAt(0) == '/') {
-                path = path.substring(1);
-            }
-
-            String dir = path.substring(0, path.lastIndexOf('/'));
-
-            templateName = path.substring(path.lastIndexOf('/'), path.indexOf(".st"));
-            templateGroupDir = new STRawGroupDir(dir, getEncoding().displayName(), '$', '$');
-            template = templateGroupDir.getInstanceOf(templateName);
-        }
-
-        protected void applyTemplate(ExecutionContext executionContext, Writer writer) {
-            // First thing we do is clone the template for this transformation...
-            // Commented out as due to https://github.com/antlr/stringtemplate4/issues/100
-            // ST transform = new ST(template);
-            ST transform = templateGroupDir.getInstanceOf(templateName);
-
-            Map<String, Object> beans = executionContext.getBeanContext().getBeanMap();
-
-            // Set the document data beans on the template and apply it...
-            for (Map.Entry<String, Object> entry : beans.entrySet()) {
-                transform.add(entry.getKey(), entry.getValue());
-            }
-
-            String templatingResult = transform.render().trim();
-            try {
-                writer.write(templatingResult);
-            } catch (IOException e) {
-                throw new SmooksException(e.getMessage(), e);
-            }
-        }
-
-        public boolean consumes(Object object) {
-            return template.impl.getTemplateSource().contains(object.toString());
-        }
-
-        @Override
-        protected void applyTemplate(Element element, ExecutionContext executionContext, Writer writer) {
-            applyTemplate(executionContext, writer);
-        }
-    }
 }
@@ -0,0 +1,413 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.stringtemplate;
+
+import org.smooks.api.ApplicationContext;
+import org.smooks.api.ExecutionContext;
+import org.smooks.api.SmooksConfigException;
+import org.smooks.api.SmooksException;
+import org.smooks.api.resource.config.Parameter;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.api.resource.visitor.VisitAfterReport;
+import org.smooks.api.resource.visitor.VisitBeforeReport;
+import org.smooks.api.resource.visitor.sax.ng.ParameterizedVisitor;
+import org.smooks.cartridges.templating.AbstractTemplateProcessor;
+import org.smooks.cartridges.templating.TemplateCapability;
+import org.smooks.cartridges.templating.TemplatingConfiguration;
+import org.smooks.resource.URIResourceLocator;
+import org.smooks.support.ClassUtils;
+import org.smooks.support.DomUtils;
+import org.stringtemplate.v4.AttributeRenderer;
+import org.stringtemplate.v4.AutoIndentWriter;
+import org.stringtemplate.v4.ModelAdaptor;
+import org.stringtemplate.v4.NoIndentWriter;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.STRawGroupDir;
+import org.stringtemplate.v4.STWriter;
+import org.stringtemplate.v4.compiler.Bytecode;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.Compiler;
+import org.w3c.dom.Element;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * <a href="http://www.stringtemplate.org/">StringTemplate</a> template application ProcessingUnit.
+ * <p/>
+ * See {@link StringTemplateContentHandlerFactory}.
+ * <p/>
+ * The template resource can be:
+ * <ul>
+ *     <li>a ".st" template file, loaded through a raw template group on the template's directory,</li>
+ *     <li>a ".stg" group file, in which case the "<b>templating.stringtemplate.templateName</b>" parameter
+ *         names the template to apply, or</li>
+ *     <li>an inline template.</li>
+ * </ul>
+ * Other template files are rejected.
+ * ".st" and ".stg" groups are shared by all the resources of an {@link ApplicationContext} (see {@link STGroupCache}),
+ * and by the threads rendering them: a template instance is created from the template compiled at load time for
+ * every render, and templates lazily loaded from a template directory are loaded under the group's lock.
+ * The template delimiters default to '$' and can be changed through the
+ * "<b>templating.stringtemplate.delimiterStartChar</b>" and "<b>templating.stringtemplate.delimiterStopChar</b>"
+ * parameters.
+ * <p/>
+ * {@link AttributeRenderer AttributeRenderers} and {@link ModelAdaptor ModelAdaptors} are registered on the template
+ * group through pairs of "<b>templating.stringtemplate.renderer</b>" (renderer class name) and
+ * "<b>templating.stringtemplate.rendererType</b>" (rendered type) parameters, and pairs of
+ * "<b>templating.stringtemplate.modelAdaptor</b>" and "<b>templating.stringtemplate.modelAdaptorType</b>"
+ * parameters.  They're created once per group, so they must be thread-safe.  See {@link NumberFormatRenderer}
+ * and {@link DateFormatRenderer}, which cache their formats per thread.
+ * <p/>
+ * Templates are rendered straight to the output writer through an {@link AutoIndentWriter}, or a
+ * {@link NoIndentWriter} when the "<b>templating.stringtemplate.autoIndent</b>" parameter is false (default=true).
+ * The "<b>templating.stringtemplate.lineWidth</b>" parameter sets the line width at which the writer wraps
+ * (default: no wrapping).  Leading and trailing whitespace is trimmed from the output (see {@link TrimmingWriter})
+ * unless the "<b>templating.stringtemplate.trim</b>" parameter is false (default=true).
+ * <p/>
+ * Templates are rendered from the {@link org.smooks.api.bean.context.BeanContext} beans.  The targeted fragment
+ * element is also exposed to the template under its name (unless a bean has that name), through the
+ * {@link ElementModelAdaptor}: e.g. <code>$order.id$</code> reads the "id" attribute of an "order" fragment and
+ * <code>$order.customer$</code> renders the text of its "customer" child element.  No bean or DOM copy of the
+ * fragment is made.  By default this visitor doesn't raise the SAX NG node depth, so only the targeted element
+ * itself (its attributes, plus its text if the resource selector accesses it) is held in memory, no matter how
+ * large the message is.  The "<b>templating.stringtemplate.maxNodeDepth</b>" parameter raises the depth of the
+ * fragment captured for the template (default=1, 0 for the whole fragment).
+ *
+ * @author tfennelly
+ */
+@VisitBeforeReport(condition = "false")
+@VisitAfterReport(summary = "Applied StringTemplate Template.", detailTemplate = "reporting/StringTemplateTemplateProcessor_After.html")
+public class StringTemplateTemplateProcessor extends AbstractTemplateProcessor implements ParameterizedVisitor {
+
+    private static final String INLINE_TEMPLATE_NAME = "string-template";
+
+    @Inject
+    private ApplicationContext applicationContext;
+
+    @Inject
+    @Named("templating.stringtemplate.templateName")
+    private Optional<String> groupTemplateName = Optional.empty();
+
+    @Inject
+    @Named("templating.stringtemplate.delimiterStartChar")
+    private String delimiterStartChar = "$";
+
+    @Inject
+    @Named("templating.stringtemplate.delimiterStopChar")
+    private String delimiterStopChar = "$";
+
+    @Inject
+    @Named("templating.stringtemplate.autoIndent")
+    private Boolean autoIndent = true;
+
+    @Inject
+    @Named("templating.stringtemplate.lineWidth")
+    private Integer lineWidth = STWriter.NO_WRAP;
+
+    @Inject
+    @Named("templating.stringtemplate.trim")
+    private Boolean trim = true;
+
+    @Inject
+    @Named("templating.stringtemplate.maxNodeDepth")
+    private Integer maxNodeDepth = 1;
+
+    private Map<Class<?>, Class<? extends AttributeRenderer>> renderers;
+    private Map<Class<?>, Class<? extends ModelAdaptor>> modelAdaptors;
+    private ST template = null;
+    private boolean invokesTemplates;
+    private String templateName;
+    private STGroup templateGroup;
+
+    /**
+     * Default constructor.
+     */
+    protected StringTemplateTemplateProcessor() {
+    }
+
+    /**
+     * Programmatically configure the StringTemplate Templating Visitor.
+     *
+     * @param templatingConfiguration The templating configuration.
+     */
+    public StringTemplateTemplateProcessor(TemplatingConfiguration templatingConfiguration) {
+        super.setTemplatingConfiguration(templatingConfiguration);
+    }
+
+    @Override
+    protected void loadTemplate(ResourceConfig resourceConfig) throws IOException {
+        final String resource = resourceConfig.getResource().trim();
+        final String encoding = getEncoding().name();
+        final char startChar = toDelimiterChar(delimiterStartChar, "delimiterStartChar");
+        final char stopChar = toDelimiterChar(delimiterStopChar, "delimiterStopChar");
+
+        renderers = getTypeBindings(resourceConfig, "templating.stringtemplate.renderer", "templating.stringtemplate.rendererType", AttributeRenderer.class);
+        modelAdaptors = getTypeBindings(resourceConfig, "templating.stringtemplate.modelAdaptor", "templating.stringtemplate.modelAdaptorType", ModelAdaptor.class);
+
+        if (resource.endsWith(".stg")) {
+            final String path = toPath(resource);
+
+            templateName = groupTemplateName.orElseThrow(() -> new SmooksConfigException("StringTemplate group file resource '" + resource + "' requires a 'templating.stringtemplate.templateName' parameter naming the template to be applied."));
+            templateGroup = STGroupCache.getInstance(applicationContext).getGroup(new STGroupCache.GroupKey(path, encoding, startChar, stopChar, renderers, modelAdaptors), () -> {
+                STGroupFile groupFile = new STGroupFile(path, encoding, startChar, stopChar);
+                groupFile.load();
+                return configureGroup(groupFile);
+            });
+        } else if (resource.endsWith(".st")) {
+            final String path = toPath(resource);
+            final String dir = path.substring(0, path.lastIndexOf('/'));
+
+            templateName = path.substring(path.lastIndexOf('/'), path.lastIndexOf(".st"));
+            templateGroup = STGroupCache.getInstance(applicationContext).getGroup(new STGroupCache.GroupKey(dir + '/', encoding, startChar, stopChar, renderers, modelAdaptors), () -> configureGroup(new SynchronizedRawGroupDir(dir, encoding, startChar, stopChar)));
+        } else if (resourceConfig.isInline() || !isLocatable(resource)) {
+            templateName = groupTemplateName.orElse(INLINE_TEMPLATE_NAME);
+            templateGroup = configureGroup(new STGroup(startChar, stopChar));
+            // Inline templates accept any attribute, like raw ".st" templates.  The template text is already decoded (the
+            // resource bytes are the UTF-8 encoding of that text, not of the configured template encoding)...
+            templateGroup.defineTemplate(templateName, resourceConfig.getResource()).hasFormalArgs = false;
+        } else {
+            throw new SmooksConfigException("Unsupported StringTemplate resource '" + resource + "'.  Template files must be '.st' template files or '.stg' group files.");
+        }
+
+        template = templateGroup.getInstanceOf(templateName);
+        if (template == null) {
+            throw new SmooksConfigException("Unknown StringTemplate template '" + templateName + "' in resource '" + resource + "'.");
+        }
+        invokesTemplates = invokesTemplates(template.impl);
+    }
+
+    /**
+     * Does a compiled template invoke other templates of its group (rather than only its own anonymous
+     * subtemplates)?  Their source isn't part of the template source.
+     */
+    private static boolean invokesTemplates(CompiledST compiledTemplate) {
+        byte[] instrs = compiledTemplate.instrs;
+        int ip = 0;
+        while (ip < compiledTemplate.codeSize) {
+            short opcode = instrs[ip];
+            switch (opcode) {
+                case Bytecode.INSTR_NEW:
+                case Bytecode.INSTR_NEW_BOX_ARGS:
+                    String name = compiledTemplate.strings[((instrs[ip + 1] & 0xFF) << 8) | (instrs[ip + 2] & 0xFF)];
+                    if (!name.substring(name.lastIndexOf('/') + 1).startsWith(Compiler.SUBTEMPLATE_PREFIX)) {
+                        return true;
+                    }
+                    break;
+                case Bytecode.INSTR_NEW_IND:
+                case Bytecode.INSTR_SUPER_NEW:
+                case Bytecode.INSTR_SUPER_NEW_BOX_ARGS:
+                    return true;
+                default:
+            }
+            ip += 1 + Bytecode.instructions[opcode].nopnds * Bytecode.OPND_SIZE_IN_BYTES;
+        }
+        if (compiledTemplate.implicitlyDefinedTemplates != null) {
+            for (Object subtemplate : compiledTemplate.implicitlyDefinedTemplates) {
+                if (invokesTemplates((CompiledST) subtemplate)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private <T> Map<Class<?>, Class<? extends T>> getTypeBindings(ResourceConfig resourceConfig, String paramName, String typeParamName, Class<T> bindingType) {
+        List<Parameter<?>> classNames = resourceConfig.getParameters(paramName);
+        List<Parameter<?>> typeNames = resourceConfig.getParameters(typeParamName);
+
+        if (classNames.size() != typeNames.size()) {
+            throw new SmooksConfigException("Invalid StringTemplate config. Each '" + paramName + "' parameter must be paired with a '" + typeParamName + "' parameter.");
+        }
+
+        Map<Class<?>, Class<? extends T>> typeBindings = new LinkedHashMap<>();
+        for (int i = 0; i < classNames.size(); i++) {
+            String className = classNames.get(i).getValue().toString().trim();
+            String typeName = typeNames.get(i).getValue().toString().trim();
+            try {
+                typeBindings.put(ClassUtils.forName(typeName, getClass()), ClassUtils.forName(className, getClass()).asSubclass(bindingType));
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new SmooksConfigException("Invalid StringTemplate '" + paramName + "' parameter value '" + className + "' for type '" + typeName + "'. Must be the class name of a " + bindingType.getName() + " implementation.", e);
+            }
+        }
+
+        return typeBindings;
+    }
+
+    private STGroup configureGroup(STGroup group) {
+        group.registerModelAdaptor(Element.class, ElementModelAdaptor.INSTANCE);
+        group.registerRenderer(Element.class, ElementModelAdaptor.INSTANCE);
+        // One renderer and model adaptor instance per group, shared by all the templates of the group...
+        modelAdaptors.forEach((type, modelAdaptorClass) -> group.registerModelAdaptor(type, newInstance(modelAdaptorClass)));
+        renderers.forEach((type, rendererClass) -> group.registerRenderer(type, newInstance(rendererClass)));
+        return group;
+    }
+
+    private static <T> T newInstance(Class<T> clazz) {
+        try {
+            return clazz.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new SmooksConfigException("Failed to create StringTemplate extension '" + clazz.getName() + "'.", e);
+        }
+    }
+
+    private static boolean isLocatable(String resource) {
+        try (InputStream resourceStream = new URIResourceLocator().getResource(resource)) {
+            return resourceStream != null;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static String toPath(String resource) {
+        return resource.charAt(0) == '/' ? resource.substring(1) : resource;
+    }
+
+    private static char toDelimiterChar(String delimiter, String paramName) {
+        if (delimiter.length() != 1) {
+            throw new SmooksConfigException("Invalid StringTemplate '" + paramName + "' parameter value '" + delimiter + "'.  Must be a single character.");
+        }
+        return delimiter.charAt(0);
+    }
+
+    @Override
+    protected void applyTemplate(Element element, ExecutionContext executionContext, Writer writer) {
+        // First thing we do is clone the template for this transformation...
+        // Commented out as due to https://github.com/antlr/stringtemplate4/issues/100
+        // ST transform = new ST(template);
+        // Created from the template compiled at load time, so that rendering doesn't look the template up in the shared group...
+        ST transform = templateGroup.createStringTemplate(template.impl);
+
+        Map<String, Object> beans = executionContext.getBeanContext().getBeanMap();
+
+        // Set the document data beans on the template and apply it.  Templates declaring formal
+        // arguments (e.g. in a group file) only accept the beans they declare...
+        for (Map.Entry<String, Object> entry : beans.entrySet()) {
+            if (isAttributeAccepted(transform, entry.getKey())) {
+                transform.add(entry.getKey(), entry.getValue());
+            }
+        }
+
+        String elementName = DomUtils.getName(element);
+        if (!beans.containsKey(elementName) && isAttributeAccepted(transform, elementName)) {
+            transform.add(elementName, element);
+        }
+
+        try {
+            TrimmingWriter trimmingWriter = (trim ? new TrimmingWriter(writer) : null);
+            Writer out = (trimmingWriter != null ? trimmingWriter : writer);
+            STWriter stWriter = (autoIndent ? new AutoIndentWriter(out) : new NoIndentWriter(out));
+
+            stWriter.setLineWidth(lineWidth);
+            transform.write(stWriter);
+            if (trimmingWriter != null) {
+                // Discards trailing whitespace...
+                trimmingWriter.close();
+            }
+        } catch (IOException e) {
+            throw new SmooksException(e.getMessage(), e);
+        }
+    }
+
+    private static boolean isAttributeAccepted(ST transform, String name) {
+        return !transform.impl.hasFormalArgs || (transform.impl.formalArguments != null && transform.impl.formalArguments.containsKey(name));
+    }
+
+    /**
+     * {@link STRawGroupDir} loading templates one at a time.
+     * <p/>
+     * A raw group directory loads its templates lazily, on first lookup, including the templates a template calls
+     * while it is rendered.  {@link STGroupFile} already synchronizes its loading.
+     */
+    private static final class SynchronizedRawGroupDir extends STRawGroupDir {
+
+        private SynchronizedRawGroupDir(String dirName, String encoding, char delimiterStartChar, char delimiterStopChar) {
+            super(dirName, encoding, delimiterStartChar, delimiterStopChar);
+        }
+
+        @Override
+        protected synchronized CompiledST load(String name) {
+            // Loaded by another thread while this one was waiting...
+            CompiledST compiledST = rawGetTemplate(name);
+            if (compiledST != null) {
+                return compiledST != NOT_FOUND_ST ? compiledST : null;
+            }
+            return super.load(name);
+        }
+    }
+
+    @Override
+    public int getMaxNodeDepth() {
+        return maxNodeDepth == 0 ? Integer.MAX_VALUE : maxNodeDepth;
+    }
+
+    @Override
+    protected String getTemplateType() {
+        return "st";
+    }
+
+    @Override
+    protected boolean isReferenced(String name) {
+        return invokesTemplates || template.impl.getTemplateSource().contains(name);
+    }
+
+    @Override
+    public Set<TemplateCapability> getCapabilities() {
+        if (maxNodeDepth == 1) {
+            return EnumSet.of(TemplateCapability.STREAMING_OUTPUT, TemplateCapability.STREAMING_INPUT);
+        } else {
+            return EnumSet.of(TemplateCapability.STREAMING_OUTPUT);
+        }
+    }
+}
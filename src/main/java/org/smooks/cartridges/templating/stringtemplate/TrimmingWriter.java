@@ -0,0 +1,158 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.stringtemplate;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * {@link Writer} decorator that strips leading and trailing whitespace from the character stream written
+ * through it, as {@link String#trim()} would from the complete output, without buffering the output.
+ * <p/>
+ * Only runs of whitespace are held back, until either non-whitespace characters follow (in which case they are
+ * written) or the writer is {@link #close() closed} (in which case they are discarded).
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+class TrimmingWriter extends Writer {
+
+    private final Writer delegate;
+    private final StringBuilder pendingWhitespace = new StringBuilder();
+    private boolean started;
+
+    TrimmingWriter(Writer delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (c <= ' ') {
+            if (started) {
+                pendingWhitespace.append((char) c);
+            }
+        } else {
+            writePendingWhitespace();
+            delegate.write(c);
+            started = true;
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+
+        if (!started) {
+            while (start < end && cbuf[start] <= ' ') {
+                start++;
+            }
+        }
+
+        int last = end - 1;
+        while (last >= start && cbuf[last] <= ' ') {
+            last--;
+        }
+        if (last < start) {
+            if (started) {
+                pendingWhitespace.append(cbuf, start, end - start);
+            }
+            return;
+        }
+
+        writePendingWhitespace();
+        delegate.write(cbuf, start, last + 1 - start);
+        pendingWhitespace.append(cbuf, last + 1, end - last - 1);
+        started = true;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+
+        if (!started) {
+            while (start < end && str.charAt(start) <= ' ') {
+                start++;
+            }
+        }
+
+        int last = end - 1;
+        while (last >= start && str.charAt(last) <= ' ') {
+            last--;
+        }
+        if (last < start) {
+            if (started) {
+                pendingWhitespace.append(str, start, end);
+            }
+            return;
+        }
+
+        writePendingWhitespace();
+        delegate.write(str, start, last + 1 - start);
+        pendingWhitespace.append(str, last + 1, end);
+        started = true;
+    }
+
+    private void writePendingWhitespace() throws IOException {
+        if (pendingWhitespace.length() > 0) {
+            delegate.append(pendingWhitespace);
+            pendingWhitespace.setLength(0);
+        }
+    }
+
+    /**
+     * Flushes the delegate writer.  Trailing whitespace is held back, as it may turn out to be the end of the output.
+     */
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    /**
+     * Discards any trailing whitespace.  The delegate writer is <b>not</b> closed.
+     */
+    @Override
+    public void close() {
+        pendingWhitespace.setLength(0);
+    }
+}
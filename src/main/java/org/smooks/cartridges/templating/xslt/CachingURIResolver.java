@@ -0,0 +1,226 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smooks.support.StreamUtils;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.dom.DOMSource;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link URIResolver} caching the documents loaded through <code>document()</code>, <code>xsl:include</code> and
+ * <code>xsl:import</code>.
+ * <p/>
+ * Documents are parsed once into a DOM, which is shared by all the transforms of the stylesheet.  Xalan builds its
+ * DTM view of a DOM lazily, so a <code>document()</code> call on a cached document doesn't read or parse anything.
+ * <p/>
+ * Entries are weighed at the size of the document source, in bytes.  The least recently used entries are evicted
+ * once the cache holds more than its maximum size.  Documents larger than a quarter of the maximum size are parsed
+ * on every lookup and not cached.  If modification checking is on, a cached <code>file:</code> document is parsed
+ * again when its last modification time changes.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class CachingURIResolver implements URIResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingURIResolver.class);
+
+    private final DocumentBuilderFactory documentBuilderFactory = newDocumentBuilderFactory();
+    private final long maxSize;
+    private final long maxEntrySize;
+    private final boolean checkModified;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * @param maxSize       The maximum cache size, in bytes.
+     * @param checkModified Parse cached <code>file:</code> documents again once they're modified.
+     */
+    CachingURIResolver(long maxSize, boolean checkModified) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxSize / 4;
+        this.checkModified = checkModified;
+    }
+
+    @Override
+    public Source resolve(String href, String base) throws TransformerException {
+        if (href == null || href.isEmpty() || href.startsWith("#")) {
+            // A reference to the stylesheet itself. Leave it to the processor...
+            return null;
+        }
+
+        URL url;
+        try {
+            url = new URL(getBaseURL(base), stripFragment(href));
+        } catch (MalformedURLException e) {
+            LOGGER.debug("Unable to resolve '{}' against '{}'. Leaving it to the XSLT processor.", href, base, e);
+            return null;
+        }
+
+        String systemId = url.toExternalForm();
+        long lastModified = checkModified ? getLastModified(url) : 0;
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(systemId);
+        }
+        if (entry == null || entry.lastModified != lastModified) {
+            entry = load(url, lastModified);
+            if (entry.weight <= maxEntrySize) {
+                put(systemId, entry);
+            }
+        }
+
+        return new DOMSource(entry.document, systemId);
+    }
+
+    private Entry load(URL url, long lastModified) throws TransformerException {
+        try {
+            byte[] bytes;
+            try (InputStream inputStream = url.openStream()) {
+                bytes = StreamUtils.readStream(inputStream);
+            }
+            DocumentBuilder documentBuilder;
+            synchronized (documentBuilderFactory) {
+                documentBuilder = documentBuilderFactory.newDocumentBuilder();
+            }
+            Document document = documentBuilder.parse(new ByteArrayInputStream(bytes), url.toExternalForm());
+
+            return new Entry(document, bytes.length, lastModified);
+        } catch (IOException | SAXException | ParserConfigurationException e) {
+            throw new TransformerException("Error loading document '" + url + "'.", e);
+        }
+    }
+
+    private synchronized void put(String systemId, Entry entry) {
+        Entry replaced = entries.put(systemId, entry);
+        if (replaced != null) {
+            size -= replaced.weight;
+        }
+        size += entry.weight;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().weight;
+            iterator.remove();
+        }
+    }
+
+    synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    private static URL getBaseURL(String base) throws MalformedURLException {
+        if (base != null && !base.isEmpty()) {
+            try {
+                return new URL(base);
+            } catch (MalformedURLException e) {
+                return new File(base).getAbsoluteFile().toURI().toURL();
+            }
+        }
+        // Same as the XSLT processor without a resolver: relative to the working directory...
+        return new File(System.getProperty("user.dir")).toURI().toURL();
+    }
+
+    private static String stripFragment(String href) {
+        int fragmentIndex = href.indexOf('#');
+        return fragmentIndex == -1 ? href : href.substring(0, fragmentIndex);
+    }
+
+    private static long getLastModified(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return 0;
+        }
+        try {
+            return new File(url.toURI()).lastModified();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private static DocumentBuilderFactory newDocumentBuilderFactory() {
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        try {
+            // Cached documents are read by concurrent transforms. Lazily expanded (deferred) DOM nodes aren't safe for that...
+            documentBuilderFactory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+        } catch (ParserConfigurationException e) {
+            LOGGER.debug("DocumentBuilderFactory '{}' doesn't support turning off deferred node expansion.", documentBuilderFactory.getClass().getName());
+        }
+        return documentBuilderFactory;
+    }
+
+    private static final class Entry {
+        private final Document document;
+        private final long weight;
+        private final long lastModified;
+
+        private Entry(Document document, long weight, long lastModified) {
+            this.document = document;
+            this.weight = weight;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,975 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.smooks.api.SmooksException;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Read-only DOM view of the Smooks bean context, navigable with XPath.
+ * <p/>
+ * The document element is <code>&lt;beans&gt;</code>, with a child element per bean.  Bean values are mapped to
+ * elements as follows:
+ * <ul>
+ *     <li>strings, numbers, booleans, characters, enums, dates and UUIDs: a text node.  Dates are in ISO 8601
+ *     format, as for stylesheet parameters (see {@link XslParameterValues}).</li>
+ *     <li>maps: a child element per entry, named after the entry key.</li>
+ *     <li>collections and arrays: an <code>&lt;item&gt;</code> child element per item.</li>
+ *     <li>JavaBeans: a child element per readable property.</li>
+ * </ul>
+ * Keys and property names that aren't valid XML names are left out, as are null values (empty elements).
+ * <p/>
+ * The tree is built as it is navigated: an element's value is only read, and its child nodes only created, when the
+ * element's content is first navigated.  Xalan's DOM view (<code>DOM2DTM</code>) navigates the document in document
+ * order though, so reaching an element reads the values of all the elements before it, down to {@link #MAX_DEPTH}
+ * levels.  Bean getters with side effects, or expensive ones, can't be kept from being called this way.  An object is
+ * not mapped again inside its own subtree, so cyclic object graphs map to a finite tree, and the tree is cut off below
+ * {@link #MAX_DEPTH} levels.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class JavabeanDocument {
+
+    /**
+     * The document element name.
+     */
+    static final String ROOT_ELEMENT_NAME = "beans";
+    /**
+     * The name of the child elements of a collection or array.
+     */
+    static final String ITEM_ELEMENT_NAME = "item";
+    /**
+     * The maximum depth of the tree, in elements.
+     */
+    static final int MAX_DEPTH = 16;
+
+    private static final ClassValue<Method[]> PROPERTY_READ_METHODS = new ClassValue<Method[]>() {
+        @Override
+        protected Method[] computeValue(Class<?> type) {
+            return getPropertyReadMethods(type);
+        }
+    };
+    private static final NamedNodeMap NO_ATTRIBUTES = new EmptyNamedNodeMap();
+
+    private JavabeanDocument() {
+    }
+
+    /**
+     * Create the view of a bean context.
+     *
+     * @param beans      The beans, by bean ID.
+     * @param isIncluded Decides which of the beans are included in the view.
+     * @return The <code>&lt;beans&gt;</code> document element.
+     */
+    static Element create(Map<String, Object> beans, Predicate<String> isIncluded) {
+        Map<String, Object> includedBeans = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> bean : beans.entrySet()) {
+            if (isXmlName(bean.getKey()) && isIncluded.test(bean.getKey())) {
+                includedBeans.put(bean.getKey(), bean.getValue());
+            }
+        }
+        return new BeanDocument(ROOT_ELEMENT_NAME, includedBeans).getDocumentElement();
+    }
+
+    /**
+     * Create the view of a single value.
+     *
+     * @param name  The document element name.
+     * @param value The value.
+     * @return The document element, mapped from the value.
+     */
+    static Element create(String name, Object value) {
+        return new BeanDocument(name, value).getDocumentElement();
+    }
+
+    private static List<AbstractNode> createChildren(BeanElement parent, Object value) {
+        if (value == null || parent.depth >= MAX_DEPTH) {
+            return Collections.emptyList();
+        }
+        if (isSimpleValue(value)) {
+            return Collections.singletonList(new BeanText(parent, toString(value)));
+        }
+        if (value instanceof Node) {
+            return Collections.singletonList(new BeanText(parent, ((Node) value).getTextContent()));
+        }
+        if (parent.isAncestorValue(value)) {
+            return Collections.emptyList();
+        }
+
+        List<AbstractNode> children = new ArrayList<>();
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                String name = String.valueOf(entry.getKey());
+                if (isXmlName(name)) {
+                    children.add(new BeanElement(parent.ownerDocument, parent, children.size(), name, entry.getValue(), null, parent.depth + 1));
+                }
+            }
+        } else if (value instanceof Iterable) {
+            for (Object item : (Iterable<?>) value) {
+                children.add(new BeanElement(parent.ownerDocument, parent, children.size(), ITEM_ELEMENT_NAME, item, null, parent.depth + 1));
+            }
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                children.add(new BeanElement(parent.ownerDocument, parent, children.size(), ITEM_ELEMENT_NAME, Array.get(value, i), null, parent.depth + 1));
+            }
+        } else {
+            for (Method readMethod : PROPERTY_READ_METHODS.get(value.getClass())) {
+                children.add(new BeanElement(parent.ownerDocument, parent, children.size(), Introspector.decapitalize(readMethod.getName().substring(readMethod.getName().startsWith("is") ? 2 : 3)), value, readMethod, parent.depth + 1));
+            }
+        }
+
+        return children;
+    }
+
+    private static boolean isSimpleValue(Object value) {
+        return value instanceof CharSequence || value instanceof Number || value instanceof Boolean || value instanceof Character ||
+                value instanceof Enum || value instanceof Date || value instanceof Calendar || value instanceof TemporalAccessor || value instanceof UUID;
+    }
+
+    private static String toString(Object value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        } else if (value instanceof Date || value instanceof Calendar) {
+            return XslParameterValues.toIsoString(value);
+        }
+        return value.toString();
+    }
+
+    private static Method[] getPropertyReadMethods(Class<?> type) {
+        try {
+            List<Method> readMethods = new ArrayList<>();
+            for (PropertyDescriptor propertyDescriptor : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+                Method readMethod = propertyDescriptor.getReadMethod();
+                if (readMethod != null && isXmlName(propertyDescriptor.getName())) {
+                    try {
+                        readMethod.setAccessible(true);
+                    } catch (RuntimeException e) {
+                        // Public property of an inaccessible class. Invoking it may still work...
+                    }
+                    readMethods.add(readMethod);
+                }
+            }
+            return readMethods.toArray(new Method[0]);
+        } catch (IntrospectionException e) {
+            return new Method[0];
+        }
+    }
+
+    static boolean isXmlName(String name) {
+        if (name == null || name.isEmpty() || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_')) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static DOMException readOnly() {
+        return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "The Javabean document is read-only.");
+    }
+
+    private static DOMException notSupported() {
+        return new DOMException(DOMException.NOT_SUPPORTED_ERR, "Operation not supported on the Javabean document.");
+    }
+
+    private static final class BeanDocument extends AbstractNode implements Document {
+
+        private final Element documentElement;
+
+        private BeanDocument(String name, Object value) {
+            super(null, 0);
+            this.documentElement = new BeanElement(this, this, 0, name, value, null, 1);
+        }
+
+        @Override
+        List<AbstractNode> getChildren() {
+            return Collections.singletonList((AbstractNode) documentElement);
+        }
+
+        @Override
+        public String getNodeName() {
+            return "#document";
+        }
+
+        @Override
+        public short getNodeType() {
+            return DOCUMENT_NODE;
+        }
+
+        @Override
+        public Document getOwnerDocument() {
+            return null;
+        }
+
+        @Override
+        public String getTextContent() {
+            return null;
+        }
+
+        @Override
+        public Element getDocumentElement() {
+            return documentElement;
+        }
+
+        @Override
+        public DocumentType getDoctype() {
+            return null;
+        }
+
+        @Override
+        public DOMImplementation getImplementation() {
+            throw notSupported();
+        }
+
+        @Override
+        public Element createElement(String tagName) {
+            throw readOnly();
+        }
+
+        @Override
+        public DocumentFragment createDocumentFragment() {
+            throw readOnly();
+        }
+
+        @Override
+        public Text createTextNode(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public Comment createComment(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public CDATASection createCDATASection(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public ProcessingInstruction createProcessingInstruction(String target, String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr createAttribute(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public EntityReference createEntityReference(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagName(String tagname) {
+            throw notSupported();
+        }
+
+        @Override
+        public Node importNode(Node importedNode, boolean deep) {
+            throw readOnly();
+        }
+
+        @Override
+        public Element createElementNS(String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr createAttributeNS(String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+            throw notSupported();
+        }
+
+        @Override
+        public Element getElementById(String elementId) {
+            return null;
+        }
+
+        @Override
+        public String getInputEncoding() {
+            return null;
+        }
+
+        @Override
+        public String getXmlEncoding() {
+            return null;
+        }
+
+        @Override
+        public boolean getXmlStandalone() {
+            return false;
+        }
+
+        @Override
+        public void setXmlStandalone(boolean xmlStandalone) {
+            throw readOnly();
+        }
+
+        @Override
+        public String getXmlVersion() {
+            return "1.0";
+        }
+
+        @Override
+        public void setXmlVersion(String xmlVersion) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean getStrictErrorChecking() {
+            return true;
+        }
+
+        @Override
+        public void setStrictErrorChecking(boolean strictErrorChecking) {
+        }
+
+        @Override
+        public String getDocumentURI() {
+            return null;
+        }
+
+        @Override
+        public void setDocumentURI(String documentURI) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node adoptNode(Node source) {
+            throw readOnly();
+        }
+
+        @Override
+        public DOMConfiguration getDomConfig() {
+            throw notSupported();
+        }
+
+        @Override
+        public void normalizeDocument() {
+        }
+
+        @Override
+        public Node renameNode(Node n, String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+    }
+
+    private abstract static class AbstractNode implements Node {
+
+        final AbstractNode parent;
+        private final int index;
+
+        AbstractNode(AbstractNode parent, int index) {
+            this.parent = parent;
+            this.index = index;
+        }
+
+        abstract List<AbstractNode> getChildren();
+
+        @Override
+        public String getNodeValue() {
+            return null;
+        }
+
+        @Override
+        public void setNodeValue(String nodeValue) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node getParentNode() {
+            return parent;
+        }
+
+        @Override
+        public NodeList getChildNodes() {
+            return new ChildNodeList(getChildren());
+        }
+
+        @Override
+        public Node getFirstChild() {
+            List<AbstractNode> children = getChildren();
+            return children.isEmpty() ? null : children.get(0);
+        }
+
+        @Override
+        public Node getLastChild() {
+            List<AbstractNode> children = getChildren();
+            return children.isEmpty() ? null : children.get(children.size() - 1);
+        }
+
+        @Override
+        public Node getPreviousSibling() {
+            return parent == null || index == 0 ? null : parent.getChildren().get(index - 1);
+        }
+
+        @Override
+        public Node getNextSibling() {
+            if (parent == null) {
+                return null;
+            }
+            List<AbstractNode> siblings = parent.getChildren();
+            return index + 1 < siblings.size() ? siblings.get(index + 1) : null;
+        }
+
+        @Override
+        public NamedNodeMap getAttributes() {
+            return null;
+        }
+
+        @Override
+        public Node insertBefore(Node newChild, Node refChild) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node replaceChild(Node newChild, Node oldChild) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node removeChild(Node oldChild) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node appendChild(Node newChild) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean hasChildNodes() {
+            return !getChildren().isEmpty();
+        }
+
+        @Override
+        public Node cloneNode(boolean deep) {
+            throw notSupported();
+        }
+
+        @Override
+        public void normalize() {
+        }
+
+        @Override
+        public boolean isSupported(String feature, String version) {
+            return false;
+        }
+
+        @Override
+        public String getNamespaceURI() {
+            return null;
+        }
+
+        @Override
+        public String getPrefix() {
+            return null;
+        }
+
+        @Override
+        public void setPrefix(String prefix) {
+            throw readOnly();
+        }
+
+        @Override
+        public String getLocalName() {
+            return null;
+        }
+
+        @Override
+        public boolean hasAttributes() {
+            return false;
+        }
+
+        @Override
+        public String getBaseURI() {
+            return null;
+        }
+
+        @Override
+        public short compareDocumentPosition(Node other) {
+            throw notSupported();
+        }
+
+        @Override
+        public String getTextContent() {
+            StringBuilder textContent = new StringBuilder();
+            for (AbstractNode child : getChildren()) {
+                textContent.append(child.getTextContent());
+            }
+            return textContent.toString();
+        }
+
+        @Override
+        public void setTextContent(String textContent) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean isSameNode(Node other) {
+            return this == other;
+        }
+
+        @Override
+        public String lookupPrefix(String namespaceURI) {
+            return null;
+        }
+
+        @Override
+        public boolean isDefaultNamespace(String namespaceURI) {
+            return namespaceURI == null;
+        }
+
+        @Override
+        public String lookupNamespaceURI(String prefix) {
+            return null;
+        }
+
+        @Override
+        public boolean isEqualNode(Node arg) {
+            return this == arg;
+        }
+
+        @Override
+        public Object getFeature(String feature, String version) {
+            return null;
+        }
+
+        @Override
+        public Object setUserData(String key, Object data, UserDataHandler handler) {
+            throw notSupported();
+        }
+
+        @Override
+        public Object getUserData(String key) {
+            return null;
+        }
+    }
+
+    private static final class BeanElement extends AbstractNode implements Element {
+
+        private final BeanDocument ownerDocument;
+        private final String name;
+        private final Method readMethod;
+        private final int depth;
+        private Object value;
+        private boolean isValueRead;
+        private List<AbstractNode> children;
+
+        /**
+         * @param value      The element value, or the bean owning the value if a read method is given.
+         * @param readMethod The value property read method. Null if the value is given.
+         */
+        private BeanElement(BeanDocument ownerDocument, AbstractNode parent, int index, String name, Object value, Method readMethod, int depth) {
+            super(parent, index);
+            this.ownerDocument = ownerDocument;
+            this.name = name;
+            this.value = value;
+            this.readMethod = readMethod;
+            this.isValueRead = (readMethod == null);
+            this.depth = depth;
+        }
+
+        private Object getValue() {
+            if (!isValueRead) {
+                try {
+                    value = readMethod.invoke(value);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new SmooksException("Error reading bean property '" + name + "' through '" + readMethod + "'.", e);
+                }
+                isValueRead = true;
+            }
+            return value;
+        }
+
+        private boolean isAncestorValue(Object value) {
+            for (AbstractNode ancestor = parent; ancestor instanceof BeanElement; ancestor = ancestor.parent) {
+                if (((BeanElement) ancestor).getValue() == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        List<AbstractNode> getChildren() {
+            if (children == null) {
+                children = createChildren(this, getValue());
+            }
+            return children;
+        }
+
+        @Override
+        public String getNodeName() {
+            return name;
+        }
+
+        @Override
+        public String getLocalName() {
+            return name;
+        }
+
+        @Override
+        public short getNodeType() {
+            return ELEMENT_NODE;
+        }
+
+        @Override
+        public NamedNodeMap getAttributes() {
+            return NO_ATTRIBUTES;
+        }
+
+        @Override
+        public Document getOwnerDocument() {
+            return ownerDocument;
+        }
+
+        @Override
+        public String getTagName() {
+            return name;
+        }
+
+        @Override
+        public String getAttribute(String name) {
+            return "";
+        }
+
+        @Override
+        public void setAttribute(String name, String value) {
+            throw readOnly();
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr getAttributeNode(String name) {
+            return null;
+        }
+
+        @Override
+        public Attr setAttributeNode(Attr newAttr) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr removeAttributeNode(Attr oldAttr) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagName(String name) {
+            throw notSupported();
+        }
+
+        @Override
+        public String getAttributeNS(String namespaceURI, String localName) {
+            return "";
+        }
+
+        @Override
+        public void setAttributeNS(String namespaceURI, String qualifiedName, String value) {
+            throw readOnly();
+        }
+
+        @Override
+        public void removeAttributeNS(String namespaceURI, String localName) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+            return null;
+        }
+
+        @Override
+        public Attr setAttributeNodeNS(Attr newAttr) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+            throw notSupported();
+        }
+
+        @Override
+        public boolean hasAttribute(String name) {
+            return false;
+        }
+
+        @Override
+        public boolean hasAttributeNS(String namespaceURI, String localName) {
+            return false;
+        }
+
+        @Override
+        public TypeInfo getSchemaTypeInfo() {
+            return null;
+        }
+
+        @Override
+        public void setIdAttribute(String name, boolean isId) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setIdAttributeNS(String namespaceURI, String localName, boolean isId) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setIdAttributeNode(Attr idAttr, boolean isId) {
+            throw readOnly();
+        }
+    }
+
+    private static final class BeanText extends AbstractNode implements Text {
+
+        private final String data;
+
+        private BeanText(BeanElement parent, String data) {
+            super(parent, 0);
+            this.data = data;
+        }
+
+        @Override
+        List<AbstractNode> getChildren() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String getNodeName() {
+            return "#text";
+        }
+
+        @Override
+        public String getNodeValue() {
+            return data;
+        }
+
+        @Override
+        public short getNodeType() {
+            return TEXT_NODE;
+        }
+
+        @Override
+        public Document getOwnerDocument() {
+            return ((BeanElement) parent).ownerDocument;
+        }
+
+        @Override
+        public String getTextContent() {
+            return data;
+        }
+
+        @Override
+        public Text splitText(int offset) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean isElementContentWhitespace() {
+            return false;
+        }
+
+        @Override
+        public String getWholeText() {
+            return data;
+        }
+
+        @Override
+        public Text replaceWholeText(String content) {
+            throw readOnly();
+        }
+
+        @Override
+        public String getData() {
+            return data;
+        }
+
+        @Override
+        public void setData(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public int getLength() {
+            return data.length();
+        }
+
+        @Override
+        public String substringData(int offset, int count) {
+            return data.substring(offset, Math.min(offset + count, data.length()));
+        }
+
+        @Override
+        public void appendData(String arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public void insertData(int offset, String arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public void deleteData(int offset, int count) {
+            throw readOnly();
+        }
+
+        @Override
+        public void replaceData(int offset, int count, String arg) {
+            throw readOnly();
+        }
+    }
+
+    private static final class ChildNodeList implements NodeList {
+
+        private final List<AbstractNode> children;
+
+        private ChildNodeList(List<AbstractNode> children) {
+            this.children = children;
+        }
+
+        @Override
+        public Node item(int index) {
+            return index >= 0 && index < children.size() ? children.get(index) : null;
+        }
+
+        @Override
+        public int getLength() {
+            return children.size();
+        }
+    }
+
+    private static final class EmptyNamedNodeMap implements NamedNodeMap {
+
+        @Override
+        public Node getNamedItem(String name) {
+            return null;
+        }
+
+        @Override
+        public Node setNamedItem(Node arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node removeNamedItem(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node item(int index) {
+            return null;
+        }
+
+        @Override
+        public int getLength() {
+            return 0;
+        }
+
+        @Override
+        public Node getNamedItemNS(String namespaceURI, String localName) {
+            return null;
+        }
+
+        @Override
+        public Node setNamedItemNS(Node arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node removeNamedItemNS(String namespaceURI, String localName) {
+            throw readOnly();
+        }
+    }
+}
@@ -43,8 +43,10 @@
 package org.smooks.cartridges.templating.xslt;
 
 import ognl.MemberAccess;
+import ognl.MethodFailedException;
 import ognl.Ognl;
 import ognl.OgnlException;
+import org.apache.xalan.extensions.ExpressionContext;
 import org.apache.xalan.extensions.XSLProcessorContext;
 import org.apache.xalan.templates.AVT;
 import org.apache.xalan.templates.ElemExtensionCall;
@@ -52,8 +54,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smooks.api.ExecutionContext;
 
-import java.util.Hashtable;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * Javabean access <a href="http://xml.apache.org/xalan-j/">Xalan</a> XSLT extension for XSLT templating.
@@ -81,6 +100,11 @@ import java.util.Map;
  * 	&lt;/xsl:template&gt;
  *
  * &lt;/xsl:stylesheet&gt;</pre>
+ * <p/>
+ * Plain dotted property paths, such as <code>order.header.customerNumber</code>, are evaluated without OGNL.  Each
+ * property is read through a method handle on its public getter, looked up once per class.  Paths that step into
+ * something other than a map or a JavaBean with a public getter (e.g. a list, or a public field), and all other
+ * expressions, are evaluated by OGNL.
  *
  * @author tfennelly
  */
@@ -92,7 +116,7 @@ public class XalanJavabeanExtension {
     /**
      * Static cache of preparsed expressions.
      */
-    private static Hashtable<String, Object> expressionCache = new Hashtable<String, Object>();
+    private static final Map<String, Object> expressionCache = new ConcurrentHashMap<>();
 
     /**
      * Support OGNL based bean value injection via an XSLT extension element.
@@ -116,7 +140,7 @@ public class XalanJavabeanExtension {
             throw new OgnlException("'ognl' expression attribute not specified.");
         }
 
-        return select(ognlAVT.getSimpleString());
+        return select(XslTransformContext.get(context), ognlAVT.getSimpleString());
     }
 
     /**
@@ -127,17 +151,34 @@ public class XalanJavabeanExtension {
      * <p/>
      * See <a href="#usage">Usage</a>.
      *
+     * @param context        Xalan context of the function call.
+     * @param ognlExpression <a href="http://www.ognl.org/">OGNL</a> expression.
+     * @return The bean value, or null if the bean is unknown.
+     * @throws OgnlException <a href="http://www.ognl.org/">OGNL</a> expression is unspecified or its
+     *                       syntax is incorrectly formed.
+     */
+    public Object select(ExpressionContext context, String ognlExpression) throws OgnlException {
+        return select(XslTransformContext.get(context), ognlExpression);
+    }
+
+    /**
+     * Evaluate an <a href="http://www.ognl.org/">OGNL</a> expression on the beans of the running transform.
+     *
      * @param ognlExpression <a href="http://www.ognl.org/">OGNL</a> expression.
      * @return The bean value, or null if the bean is unknown.
      * @throws OgnlException <a href="http://www.ognl.org/">OGNL</a> expression is unspecified or its
      *                       syntax is incorrectly formed.
      */
     public Object select(String ognlExpression) throws OgnlException {
+        return select(XslTransformContext.current(), ognlExpression);
+    }
+
+    private Object select(XslTransformContext transformContext, String ognlExpression) throws OgnlException {
         if (ognlExpression == null || (ognlExpression = ognlExpression.trim()).equals("")) {
             throw new OgnlException("'ognl' expression not specified, or is blank.");
         }
 
-        ExecutionContext activeRequest = XslTemplateProcessor.executionContextThreadLocal.get();
+        ExecutionContext activeRequest = (transformContext != null ? transformContext.getExecutionContext() : null);
 
         if (activeRequest == null) {
             String message = getClass().getName() + " can only be used within the context of a SmooksDOMFilter operation..";
@@ -145,18 +186,29 @@ public class XalanJavabeanExtension {
             throw new IllegalStateException(message);
         }
 
-        Map<String, Object> beans = activeRequest.getBeanContext().getBeanMap();
-        Object parsedExpression = expressionCache.get(ognlExpression);
+        return evaluate(activeRequest, ognlExpression);
+    }
 
-        if (parsedExpression == null) {
-            try {
-                // Parse and store the expression...
-                parsedExpression = Ognl.parseExpression(ognlExpression);
-                expressionCache.put(ognlExpression, parsedExpression);
-            } catch (OgnlException e) {
-                LOGGER.error("Exception parsing OGNL expression [" + ognlExpression + "].  Make sure the expression is properly constructed (http://www.ognl.org).", e);
-                throw e;
+    /**
+     * Evaluate an <a href="http://www.ognl.org/">OGNL</a> expression on the beans of an execution context.
+     *
+     * @param executionContext The execution context.
+     * @param ognlExpression   The trimmed <a href="http://www.ognl.org/">OGNL</a> expression.
+     * @return The bean value, or null if the bean is unknown.
+     * @throws OgnlException <a href="http://www.ognl.org/">OGNL</a> expression syntax is incorrectly formed,
+     *                       or its evaluation failed.
+     */
+    static Object evaluate(ExecutionContext executionContext, String ognlExpression) throws OgnlException {
+        Map<String, Object> beans = executionContext.getBeanContext().getBeanMap();
+        Object parsedExpression = getParsedExpression(ognlExpression);
+
+        if (parsedExpression instanceof PropertyPath) {
+            PropertyPath propertyPath = (PropertyPath) parsedExpression;
+            Object value = propertyPath.getValue(beans);
+            if (value != PropertyPath.UNRESOLVED) {
+                return value;
             }
+            parsedExpression = propertyPath.getOgnlExpression();
         }
 
         try {
@@ -166,4 +218,152 @@ public class XalanJavabeanExtension {
             throw e;
         }
     }
+
+    /**
+     * Parse and cache an expression ahead of its first evaluation.
+     *
+     * @param ognlExpression <a href="http://www.ognl.org/">OGNL</a> expression.
+     * @throws OgnlException <a href="http://www.ognl.org/">OGNL</a> expression is blank or its
+     *                       syntax is incorrectly formed.
+     */
+    static void precompile(String ognlExpression) throws OgnlException {
+        if (ognlExpression == null || (ognlExpression = ognlExpression.trim()).equals("")) {
+            throw new OgnlException("'ognl' expression not specified, or is blank.");
+        }
+        getParsedExpression(ognlExpression);
+    }
+
+    private static Object getParsedExpression(String ognlExpression) throws OgnlException {
+        Object parsedExpression = expressionCache.get(ognlExpression);
+
+        if (parsedExpression == null) {
+            if (PropertyPath.isPropertyPath(ognlExpression)) {
+                parsedExpression = new PropertyPath(ognlExpression);
+            } else {
+                parsedExpression = parseExpression(ognlExpression);
+            }
+            expressionCache.put(ognlExpression, parsedExpression);
+        }
+        return parsedExpression;
+    }
+
+    private static Object parseExpression(String ognlExpression) throws OgnlException {
+        try {
+            return Ognl.parseExpression(ognlExpression);
+        } catch (OgnlException e) {
+            LOGGER.error("Exception parsing OGNL expression [" + ognlExpression + "].  Make sure the expression is properly constructed (http://www.ognl.org).", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Dotted property path, evaluated without OGNL where possible.
+     */
+    private static final class PropertyPath {
+
+        private static final Object UNRESOLVED = new Object();
+        private static final Pattern PROPERTY_PATH = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*(\\.[A-Za-z_$][A-Za-z0-9_$]*)*");
+        private static final Set<String> OGNL_KEYWORDS = new HashSet<>(Arrays.asList("true", "false", "null", "this", "new", "in", "not", "and", "or", "bor", "xor", "band", "eq", "neq", "lt", "lte", "gt", "gte", "shl", "shr", "ushr", "instanceof"));
+        /**
+         * Map properties that OGNL reads from the map itself, rather than from its entries.
+         */
+        private static final Set<String> MAP_PSEUDO_PROPERTIES = new HashSet<>(Arrays.asList("size", "keys", "keySet", "values", "isEmpty"));
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+        private static final ClassValue<Map<String, MethodHandle>> GETTERS = new ClassValue<Map<String, MethodHandle>>() {
+            @Override
+            protected Map<String, MethodHandle> computeValue(Class<?> type) {
+                return getGetters(type);
+            }
+        };
+
+        private final String expression;
+        private final String[] propertyNames;
+        private volatile Object ognlExpression;
+
+        private PropertyPath(String expression) {
+            this.expression = expression;
+            this.propertyNames = expression.split("\\.");
+        }
+
+        private static boolean isPropertyPath(String expression) {
+            if (!PROPERTY_PATH.matcher(expression).matches()) {
+                return false;
+            }
+            for (String propertyName : expression.split("\\.")) {
+                if (OGNL_KEYWORDS.contains(propertyName)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Evaluate the path.
+         *
+         * @param beans The bean map, root of the path.
+         * @return The value, or {@link #UNRESOLVED} if the path needs to be evaluated by OGNL.
+         * @throws OgnlException A getter threw an exception.
+         */
+        private Object getValue(Map<String, Object> beans) throws OgnlException {
+            Object value = beans;
+            for (String propertyName : propertyNames) {
+                if (value instanceof Map) {
+                    if (MAP_PSEUDO_PROPERTIES.contains(propertyName)) {
+                        return UNRESOLVED;
+                    }
+                    value = ((Map<?, ?>) value).get(propertyName);
+                } else if (value == null || value instanceof Class || value instanceof Iterable || value instanceof Iterator || value instanceof Enumeration) {
+                    return UNRESOLVED;
+                } else if (value.getClass().isArray()) {
+                    if (!propertyName.equals("length")) {
+                        return UNRESOLVED;
+                    }
+                    value = Array.getLength(value);
+                } else {
+                    MethodHandle getter = GETTERS.get(value.getClass()).get(propertyName);
+                    if (getter == null) {
+                        return UNRESOLVED;
+                    }
+                    try {
+                        value = getter.invokeExact(value);
+                    } catch (Throwable t) {
+                        OgnlException e = new MethodFailedException(value, propertyName, t);
+                        LOGGER.error("Unexpected exception using OGNL expression [" + expression + "] on Smooks Javabean cache.", e);
+                        throw e;
+                    }
+                }
+            }
+            return value;
+        }
+
+        private Object getOgnlExpression() throws OgnlException {
+            if (ognlExpression == null) {
+                ognlExpression = parseExpression(expression);
+            }
+            return ognlExpression;
+        }
+
+        private static Map<String, MethodHandle> getGetters(Class<?> type) {
+            if (!Modifier.isPublic(type.getModifiers())) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, MethodHandle> getters = new HashMap<>();
+            try {
+                for (PropertyDescriptor propertyDescriptor : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+                    Method readMethod = propertyDescriptor.getReadMethod();
+                    if (readMethod != null && Modifier.isPublic(readMethod.getDeclaringClass().getModifiers())) {
+                        try {
+                            getters.put(propertyDescriptor.getName(), MethodHandles.publicLookup().unreflect(readMethod).asType(GETTER_TYPE));
+                        } catch (IllegalAccessException e) {
+                            LOGGER.debug("Getter [{}] not accessible. Property [{}] is read through OGNL.", readMethod, propertyDescriptor.getName());
+                        }
+                    }
+                }
+            } catch (IntrospectionException e) {
+                LOGGER.debug("Unable to introspect [{}]. Its properties are read through OGNL.", type.getName(), e);
+            }
+            return getters;
+        }
+    }
 }
@@ -0,0 +1,103 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.apache.xalan.extensions.ExpressionContext;
+import org.apache.xpath.objects.XNodeSet;
+
+import javax.xml.transform.TransformerException;
+
+/**
+ * Key index lookup <a href="http://xml.apache.org/xalan-j/">Xalan</a> XSLT extension.
+ * <p/>
+ * Looks up the elements of a lookup document indexed with an <code>&lt;xsl:keyIndex&gt;</code> config.  Unlike the
+ * <code>key()</code> function, the index is built once and shared by all the transforms of the template.
+ * <p/>
+ * <h3 id="usage">Usage</h3>
+ * <pre>
+ * &lt;xsl:xsl applyOnElement="order-item"&gt;
+ *     &lt;xsl:template&gt;/templates/order-item.xsl&lt;/xsl:template&gt;
+ *     &lt;xsl:keyIndex name="countries" select="/countries/country" use="@code"&gt;ref/countries.xml&lt;/xsl:keyIndex&gt;
+ * &lt;/xsl:xsl&gt;
+ *
+ * &lt;xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+ * 		xmlns:smooks-key="org.smooks.cartridges.templating.xslt.XalanKeyIndexExtension"
+ * 		exclude-result-prefixes="smooks-key"
+ * 		version="1.0"&gt;
+ *
+ * 	&lt;xsl:template match="order-item"&gt;
+ * 		&lt;xsl:value-of select="smooks-key:key('countries', @country)"/&gt;
+ * 	&lt;/xsl:template&gt;
+ *
+ * &lt;/xsl:stylesheet&gt;</pre>
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public class XalanKeyIndexExtension {
+
+    /**
+     * Look up the elements of a key index.
+     * <p/>
+     * See <a href="#usage">Usage</a>.
+     *
+     * @param context The Xalan context of the call.
+     * @param name    The index name.
+     * @param value   The key.
+     * @return The elements with the key, in document order.  Empty if there are none.
+     * @throws TransformerException Unable to get the XPath context of the call.
+     */
+    public static XNodeSet key(ExpressionContext context, String name, String value) throws TransformerException {
+        XslTransformContext transformContext = XslTransformContext.get(context);
+
+        if (transformContext == null) {
+            throw new IllegalStateException(XalanKeyIndexExtension.class.getName() + " can only be used within the context of a Smooks XSL template.");
+        }
+
+        XslKeyIndex keyIndex = transformContext.getKeyIndexes().get(name);
+        if (keyIndex == null) {
+            throw new IllegalArgumentException("Unknown key index '" + name + "'. Key indexes are declared with <xsl:keyIndex> on the XSL resource.");
+        }
+
+        return keyIndex.get(value, context.getXPathContext(), transformContext.getKeyIndexHandles(keyIndex));
+    }
+}
@@ -42,19 +42,9 @@
  */
 package org.smooks.cartridges.templating.xslt;
 
-import org.smooks.api.ApplicationContext;
-import org.smooks.api.SmooksConfigException;
-import org.smooks.api.SmooksException;
 import org.smooks.api.bean.context.BeanContext;
-import org.smooks.api.delivery.ContentHandlerFactory;
-import org.smooks.api.delivery.ContentHandler;
-import org.smooks.api.resource.config.ResourceConfig;
-import org.smooks.engine.injector.Scope;
-import org.smooks.engine.lifecycle.PostConstructLifecyclePhase;
-import org.smooks.engine.lookup.LifecycleManagerLookup;
-
-import javax.inject.Inject;
-
+import org.smooks.cartridges.templating.AbstractTemplateEngine;
+import org.smooks.cartridges.templating.AbstractTemplateProcessor;
 
 /**
  * XSL {@link org.smooks.api.resource.visitor.dom.DOMElementVisitor} Creator class.
@@ -153,7 +143,7 @@ import javax.inject.Inject;
  *
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
-public class XslContentHandlerFactory implements ContentHandlerFactory {
+public class XslContentHandlerFactory extends AbstractTemplateEngine {
 
     /**
      * Parameter name for templating feature.
@@ -164,34 +154,13 @@ public class XslContentHandlerFactory implements ContentHandlerFactory {
      */
     public static final String ORG_MILYN_TEMPLATING_XSLT_SYNCHRONIZED = "org.smooks.cartridges.templating.xslt.synchronized";
 
-    @Inject
-    private ApplicationContext applicationContext;
-
-    /**
-     * Create an XSL based ContentHandler instance ie from an XSL byte streamResult.
-     *
-     * @param resourceConfig The SmooksResourceConfiguration for the XSL {@link ContentHandler}
-     *                       to be created.
-     * @return XSL {@link ContentHandler} instance.
-     * @see org.smooks.engine.delivery.JavaContentHandlerFactory
-     */
-    public synchronized ContentHandler create(ResourceConfig resourceConfig) throws SmooksConfigException {
-        final XslTemplateProcessor xslTemplateProcessor = new XslTemplateProcessor();
-        try {
-            applicationContext.getRegistry().lookup(new LifecycleManagerLookup()).applyPhase(xslTemplateProcessor, new PostConstructLifecyclePhase(new Scope(applicationContext.getRegistry(), resourceConfig, xslTemplateProcessor)));
-            return xslTemplateProcessor;
-        } catch (SmooksConfigException e) {
-            throw e;
-        } catch (Exception e) {
-            InstantiationException instanceException = new InstantiationException("XSL ProcessingUnit resource [" + resourceConfig.getResource() + "] not loadable.");
-            instanceException.initCause(e);
-            throw new SmooksException(instanceException.getMessage(), instanceException);
-        }
+    @Override
+    public AbstractTemplateProcessor newTemplateProcessor() {
+        return new XslTemplateProcessor();
     }
 
     @Override
     public String getType() {
         return "xsl";
     }
-
 }
@@ -0,0 +1,289 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.smooks.support.XmlUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * XSLT <a href="XslTemplateProcessor.html#templatelets">Templatelet</a> that only copies the visited element, applied
+ * without an XSL transform.
+ * <p/>
+ * The supported templatelets are:
+ * <ul>
+ *     <li>A copy of the element: <code>&lt;xsl:copy-of select="."/&gt;</code></li>
+ *     <li>A copy of the element with excluded attributes and child nodes:
+ *     <code>&lt;xsl:copy&gt;&lt;xsl:copy-of select="@*[not(name() = 'id')] | node()[not(self::notes)]"/&gt;&lt;/xsl:copy&gt;</code></li>
+ *     <li>A renamed copy of the element, with optionally excluded attributes and child nodes:
+ *     <code>&lt;order&gt;&lt;xsl:copy-of select="@* | node()"/&gt;&lt;/order&gt;</code></li>
+ * </ul>
+ * The copy is serialized straight from the visited element, as the transform result would be.  Fragments the copy
+ * doesn't support (namespaces, CDATA sections, processing instructions) are left to the XSL transform (see
+ * {@link #isApplicable(Element)}).
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class XslCopyTemplatelet {
+
+    private static final String XSLT_NAMESPACE = "http://www.w3.org/1999/XSL/Transform";
+    private static final String NAME = "[A-Za-z_][\\w.-]*";
+    private static final Pattern ATTRIBUTES_SELECT = Pattern.compile("@\\*(?:\\[\\s*not\\(\\s*((?:name\\(\\s*\\)\\s*=\\s*(?:'" + NAME + "'|\"" + NAME + "\")(?:\\s+or\\s+)?)+)\\s*\\)\\s*\\])?");
+    private static final Pattern CHILDREN_SELECT = Pattern.compile("(node\\(\\s*\\)|\\*)(?:\\[\\s*not\\(\\s*((?:self::" + NAME + "(?:\\s+or\\s+)?)+)\\s*\\)\\s*\\])?");
+    private static final Pattern EXCLUDED_NAME = Pattern.compile("(?:name\\(\\s*\\)\\s*=\\s*['\"]|self::)(" + NAME + ")");
+
+    /**
+     * Name of the copy.  Null for a copy with the name of the visited element.
+     */
+    private final String name;
+    private final boolean isCopyAttributes;
+    private final Set<String> excludedAttributes;
+    private final boolean isCopyChildNodes;
+    private final boolean isCopyElementsOnly;
+    private final Set<String> excludedElements;
+
+    private XslCopyTemplatelet(String name, boolean isCopyAttributes, Set<String> excludedAttributes, boolean isCopyChildNodes, boolean isCopyElementsOnly, Set<String> excludedElements) {
+        this.name = name;
+        this.isCopyAttributes = isCopyAttributes;
+        this.excludedAttributes = excludedAttributes;
+        this.isCopyChildNodes = isCopyChildNodes;
+        this.isCopyElementsOnly = isCopyElementsOnly;
+        this.excludedElements = excludedElements;
+    }
+
+    /**
+     * Get the copy applying a templatelet.
+     *
+     * @param xslDoc The templatelet, wrapped in its stylesheet.
+     * @return The copy applying the templatelet, or null if the templatelet doesn't only copy the visited element.
+     */
+    static XslCopyTemplatelet create(Document xslDoc) {
+        NodeList templates = xslDoc.getElementsByTagNameNS(XSLT_NAMESPACE, "template");
+        if (templates.getLength() != 1 || !"templatelet".equals(((Element) templates.item(0)).getAttribute("name"))) {
+            return null;
+        }
+
+        Element instruction = getOnlyChildElement((Element) templates.item(0));
+        if (instruction == null) {
+            return null;
+        }
+        if (isXsl(instruction, "copy-of")) {
+            String select = instruction.getAttribute("select").trim();
+            if (instruction.getAttributes().getLength() == 1 && (select.equals(".") || select.equals("self::node()"))) {
+                return new XslCopyTemplatelet(null, true, Collections.emptySet(), true, false, Collections.emptySet());
+            }
+            return null;
+        }
+
+        String name;
+        if (isXsl(instruction, "copy")) {
+            if (instruction.hasAttributes()) {
+                return null;
+            }
+            name = null;
+        } else if (instruction.getNamespaceURI() == null && !instruction.hasAttributes() && instruction.getNodeName().matches(NAME)) {
+            name = instruction.getNodeName();
+        } else {
+            return null;
+        }
+
+        Element copyOf = getOnlyChildElement(instruction);
+        if (copyOf == null || !isXsl(copyOf, "copy-of") || copyOf.getAttributes().getLength() != 1) {
+            return null;
+        }
+
+        return create(name, copyOf.getAttribute("select"));
+    }
+
+    private static XslCopyTemplatelet create(String name, String select) {
+        boolean isCopyAttributes = false;
+        Set<String> excludedAttributes = Collections.emptySet();
+        boolean isCopyChildNodes = false;
+        boolean isCopyElementsOnly = false;
+        Set<String> excludedElements = Collections.emptySet();
+
+        for (String path : select.split("\\|")) {
+            Matcher attributesSelect = ATTRIBUTES_SELECT.matcher(path.trim());
+            Matcher childrenSelect = CHILDREN_SELECT.matcher(path.trim());
+
+            if (attributesSelect.matches() && !isCopyAttributes) {
+                isCopyAttributes = true;
+                excludedAttributes = getExcludedNames(attributesSelect.group(1));
+            } else if (childrenSelect.matches() && !isCopyChildNodes) {
+                isCopyChildNodes = true;
+                isCopyElementsOnly = childrenSelect.group(1).equals("*");
+                excludedElements = getExcludedNames(childrenSelect.group(2));
+            } else {
+                return null;
+            }
+        }
+
+        return new XslCopyTemplatelet(name, isCopyAttributes, excludedAttributes, isCopyChildNodes, isCopyElementsOnly, excludedElements);
+    }
+
+    /**
+     * Can the copy be applied to the visited element.  Only fragments without namespaces, CDATA sections and
+     * processing instructions are supported.  They are serialized differently when copied by an XSL transform.
+     *
+     * @param element The visited element.
+     * @return True if the copy can be applied, otherwise false.
+     */
+    boolean isApplicable(Element element) {
+        for (Node ancestor = element.getParentNode(); ancestor instanceof Element; ancestor = ancestor.getParentNode()) {
+            if (!isPlain((Element) ancestor)) {
+                return false;
+            }
+        }
+        return isApplicableSubtree(element);
+    }
+
+    /**
+     * Serialize the copy of the visited element.
+     *
+     * @param element             The visited element.
+     * @param writer              The writer to which the copy is serialized.
+     * @param closeEmptyElements  Serialize empty elements as empty-element tags.
+     */
+    void apply(Element element, Writer writer, boolean closeEmptyElements) {
+        if (name == null && isCopyAttributes && excludedAttributes.isEmpty() && isCopyChildNodes && !isCopyElementsOnly && excludedElements.isEmpty()) {
+            XmlUtils.serialize(element, false, writer, closeEmptyElements);
+            return;
+        }
+
+        Element copy = element.getOwnerDocument().createElement(name != null ? name : element.getNodeName());
+        if (isCopyAttributes) {
+            NamedNodeMap attributes = element.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attribute = (Attr) attributes.item(i);
+                if (!excludedAttributes.contains(attribute.getName())) {
+                    copy.setAttribute(attribute.getName(), attribute.getValue());
+                }
+            }
+        }
+        if (isCopyChildNodes) {
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE ? !excludedElements.contains(child.getNodeName()) : !isCopyElementsOnly) {
+                    copy.appendChild(child.cloneNode(true));
+                }
+            }
+        }
+        XmlUtils.serialize(copy, false, writer, closeEmptyElements);
+    }
+
+    private boolean isApplicableSubtree(Element element) {
+        if (!isPlain(element)) {
+            return false;
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    if (!isApplicableSubtree((Element) child)) {
+                        return false;
+                    }
+                    break;
+                case Node.TEXT_NODE:
+                case Node.COMMENT_NODE:
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPlain(Element element) {
+        if (element.getNamespaceURI() != null || element.getPrefix() != null) {
+            return false;
+        }
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            if (attribute.getNamespaceURI() != null || attribute.getNodeName().startsWith(XMLConstants.XMLNS_ATTRIBUTE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> getExcludedNames(String predicate) {
+        if (predicate == null) {
+            return Collections.emptySet();
+        }
+        List<String> names = new ArrayList<>();
+        Matcher excludedName = EXCLUDED_NAME.matcher(predicate);
+        while (excludedName.find()) {
+            names.add(excludedName.group(1));
+        }
+        return new HashSet<>(names);
+    }
+
+    private static boolean isXsl(Element element, String localName) {
+        return XSLT_NAMESPACE.equals(element.getNamespaceURI()) && localName.equals(element.getLocalName());
+    }
+
+    private static Element getOnlyChildElement(Element element) {
+        Element onlyChild = null;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && onlyChild == null) {
+                onlyChild = (Element) child;
+            } else if (child.getNodeType() != Node.TEXT_NODE || !child.getNodeValue().trim().isEmpty()) {
+                return null;
+            }
+        }
+        return onlyChild;
+    }
+}
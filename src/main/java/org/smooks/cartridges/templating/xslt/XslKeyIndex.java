@@ -0,0 +1,235 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMIterator;
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xml.utils.PrefixResolverDefault;
+import org.apache.xpath.XPath;
+import org.apache.xpath.XPathContext;
+import org.apache.xpath.objects.XNodeSet;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.xpath.XPathExpressionException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prebuilt index of the elements of a lookup document, the equivalent of an <code>xsl:key</code>.
+ * <p/>
+ * Xalan builds <code>xsl:key</code> indexes for every transform.  This index is built once, when the template is
+ * loaded, and is looked up by all the transforms through {@link XalanKeyIndexExtension}.
+ * <p/>
+ * The indexed elements are copied, in document order, into fragments of {@link #CHUNK_SIZE} elements.  A transform
+ * only builds a Xalan view (DTM) of the fragments it looks up, and not of the whole lookup document, so a lookup
+ * costs the same however large the document is.  Chunking the elements bounds the number of DTMs a transform
+ * creates: Xalan searches its DTMs linearly, so a DTM per element would make transforms doing thousands of lookups
+ * quadratic.  See <code>KeyIndexBenchmark</code> in the test sources for a comparison with <code>xsl:key</code>.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class XslKeyIndex {
+
+    static final int CHUNK_SIZE = 32;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final String name;
+    private final DocumentFragment[] chunks;
+    private final Map<String, int[]> entries;
+
+    private XslKeyIndex(String name, DocumentFragment[] chunks, Map<String, int[]> entries) {
+        this.name = name;
+        this.chunks = chunks;
+        this.entries = entries;
+    }
+
+    /**
+     * Index the elements of a document read from a stream.
+     *
+     * @param name           The index name.
+     * @param documentStream The indexed document.
+     * @param systemId       The system ID of the indexed document.
+     * @param select         XPath expression selecting the indexed elements.
+     * @param use            XPath expression evaluated on each indexed element, giving the element key.
+     * @return The index.
+     * @throws XPathExpressionException     Invalid <code>select</code> or <code>use</code> expression.
+     * @throws ParserConfigurationException Unable to create the document parser.
+     * @throws SAXException                 Error parsing the document.
+     * @throws IOException                  Error reading the document.
+     */
+    static XslKeyIndex build(String name, InputStream documentStream, String systemId, String select, String use) throws XPathExpressionException, ParserConfigurationException, SAXException, IOException {
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+
+        return build(name, documentBuilderFactory.newDocumentBuilder().parse(documentStream, systemId), select, use);
+    }
+
+    /**
+     * Index the elements of a document.
+     *
+     * @param name     The index name.
+     * @param document The indexed document.
+     * @param select   XPath expression selecting the indexed elements.
+     * @param use      XPath expression evaluated on each indexed element, giving the element key.
+     * @return The index.
+     * @throws XPathExpressionException     Invalid <code>select</code> or <code>use</code> expression.
+     * @throws ParserConfigurationException Unable to create the document holding the indexed elements.
+     */
+    static XslKeyIndex build(String name, Document document, String select, String use) throws XPathExpressionException, ParserConfigurationException {
+        // Xalan's XPath API evaluates the expressions on a single DTM of the document, built once.  Evaluating
+        // the use expression on each DOM node through JAXP would build a DTM of the whole document per element...
+        PrefixResolver prefixResolver = new PrefixResolverDefault(document.getDocumentElement() != null ? document.getDocumentElement() : document);
+        XPath selectXPath = compile(name, select, prefixResolver);
+        XPath useXPath = compile(name, use, prefixResolver);
+        XPathContext xpathContext = new XPathContext(false);
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        Document chunkDocument = documentBuilderFactory.newDocumentBuilder().newDocument();
+        List<DocumentFragment> chunks = new ArrayList<>();
+        Map<String, List<Integer>> elements = new HashMap<>();
+        int entry = 0;
+
+        try {
+            DTMIterator selected = selectXPath.execute(xpathContext, xpathContext.getDTMHandleFromNode(document), prefixResolver).iter();
+            for (int handle = selected.nextNode(); handle != DTM.NULL; handle = selected.nextNode(), entry++) {
+                DTM dtm = xpathContext.getDTM(handle);
+                if (dtm.getNodeType(handle) != DTM.ELEMENT_NODE) {
+                    throw new XPathExpressionException("Key index '" + name + "' select expression '" + select + "' must only select elements.");
+                }
+
+                String key = useXPath.execute(xpathContext, handle, prefixResolver).str();
+                if (entry % CHUNK_SIZE == 0) {
+                    chunks.add(chunkDocument.createDocumentFragment());
+                }
+                chunks.get(chunks.size() - 1).appendChild(chunkDocument.importNode(dtm.getNode(handle), true));
+                elements.computeIfAbsent(key, k -> new ArrayList<>(1)).add(entry);
+            }
+        } catch (TransformerException e) {
+            throw new XPathExpressionException(e);
+        } finally {
+            xpathContext.reset();
+        }
+
+        Map<String, int[]> entries = new HashMap<>(elements.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<Integer>> element : elements.entrySet()) {
+            entries.put(element.getKey(), element.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        return new XslKeyIndex(name, chunks.toArray(new DocumentFragment[0]), entries);
+    }
+
+    private static XPath compile(String name, String expression, PrefixResolver prefixResolver) throws XPathExpressionException {
+        try {
+            return new XPath(expression, null, prefixResolver, XPath.SELECT);
+        } catch (TransformerException e) {
+            throw new XPathExpressionException("Invalid key index '" + name + "' expression '" + expression + "': " + e.getMessage());
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Look up the elements with a key, as a node set of the running transform.
+     * <p/>
+     * A chunk is added to the transform's DTM manager the first time the transform looks up one of its elements.
+     * Returning the elements as DOM nodes would instead have Xalan search all the DTMs of the transform for each of
+     * them.
+     *
+     * @param key          The key.
+     * @param xpathContext The XPath context of the transform.
+     * @param chunkHandles The DTM handles of the elements of the chunks already looked up by the transform, by chunk.
+     *                     Created with {@link #newChunkHandles()}.
+     * @return The elements with the key, in document order.
+     */
+    XNodeSet get(String key, XPathContext xpathContext, int[][] chunkHandles) {
+        XNodeSet nodeSet = new XNodeSet(xpathContext.getDTMManager());
+        for (int entry : entries.getOrDefault(key, EMPTY)) {
+            int chunk = entry / CHUNK_SIZE;
+            if (chunkHandles[chunk] == null) {
+                chunkHandles[chunk] = getHandles(chunks[chunk], xpathContext);
+            }
+            nodeSet.mutableNodeset().addNode(chunkHandles[chunk][entry % CHUNK_SIZE]);
+        }
+
+        return nodeSet;
+    }
+
+    /**
+     * Create the per transform DTM handles of the index elements.
+     *
+     * @return The (unset) DTM handles, by chunk.
+     */
+    int[][] newChunkHandles() {
+        return new int[chunks.length][];
+    }
+
+    private static int[] getHandles(DocumentFragment chunk, XPathContext xpathContext) {
+        DTM dtm = xpathContext.getDTM(new DOMSource(chunk), false, null, true, false);
+        int[] handles = new int[chunk.getChildNodes().getLength()];
+        int handle = dtm.getFirstChild(dtm.getDocument());
+        for (int i = 0; i < handles.length; i++, handle = dtm.getNextSibling(handle)) {
+            handles[i] = handle;
+        }
+
+        return handles;
+    }
+}
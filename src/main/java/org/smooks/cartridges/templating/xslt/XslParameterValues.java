@@ -0,0 +1,131 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.time.temporal.TemporalAccessor;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+/**
+ * Converts bean values to XSLT stylesheet parameter values.
+ * <p/>
+ * <ul>
+ *     <li>numbers: an XPath number.</li>
+ *     <li>booleans: an XPath boolean.</li>
+ *     <li>strings, characters, enums and UUIDs: an XPath string.</li>
+ *     <li>dates: an XPath string, in ISO 8601 format.</li>
+ *     <li>DOM nodes and node lists: as is.</li>
+ *     <li>collections and arrays: a node-set with an <code>&lt;item&gt;</code> element per item,
+ *     see {@link JavabeanDocument}.</li>
+ *     <li>anything else (maps and JavaBeans): a node-set with a single element, named after the parameter, see
+ *     {@link JavabeanDocument}.</li>
+ * </ul>
+ * The converter is chosen once per value class.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class XslParameterValues {
+
+    private static final ClassValue<BiFunction<String, Object, Object>> CONVERTERS = new ClassValue<BiFunction<String, Object, Object>>() {
+        @Override
+        protected BiFunction<String, Object, Object> computeValue(Class<?> type) {
+            return getConverter(type);
+        }
+    };
+
+    private XslParameterValues() {
+    }
+
+    /**
+     * Convert a bean value to a stylesheet parameter value.
+     *
+     * @param name  The parameter name.
+     * @param value The bean value.
+     * @return The parameter value, or null if the bean value is null.
+     */
+    static Object convert(String name, Object value) {
+        return value == null ? null : CONVERTERS.get(value.getClass()).apply(name, value);
+    }
+
+    /**
+     * Convert a {@link Date} or {@link Calendar} to an ISO 8601 string, as for stylesheet parameters and the text of
+     * {@link JavabeanDocument} elements.
+     *
+     * @param date The date.
+     * @return The ISO 8601 string: an UTC instant, or a local date or time for <code>java.sql.Date</code> and
+     * <code>java.sql.Time</code>.
+     */
+    static String toIsoString(Object date) {
+        if (date instanceof Calendar) {
+            return ((Calendar) date).toInstant().toString();
+        }
+        try {
+            return ((Date) date).toInstant().toString();
+        } catch (UnsupportedOperationException e) {
+            // java.sql.Date and java.sql.Time have no time or date part...
+            return date.toString();
+        }
+    }
+
+    private static BiFunction<String, Object, Object> getConverter(Class<?> type) {
+        if (Boolean.class.isAssignableFrom(type) || Node.class.isAssignableFrom(type) || NodeList.class.isAssignableFrom(type)) {
+            return (name, value) -> value;
+        } else if (Number.class.isAssignableFrom(type)) {
+            return (name, value) -> ((Number) value).doubleValue();
+        } else if (CharSequence.class.isAssignableFrom(type) || Character.class.isAssignableFrom(type) || Enum.class.isAssignableFrom(type) ||
+                UUID.class.isAssignableFrom(type) || TemporalAccessor.class.isAssignableFrom(type)) {
+            return (name, value) -> value.toString();
+        } else if (Date.class.isAssignableFrom(type) || Calendar.class.isAssignableFrom(type)) {
+            return (name, value) -> toIsoString(value);
+        } else if (Iterable.class.isAssignableFrom(type) || type.isArray()) {
+            return (name, value) -> JavabeanDocument.create(name, value).getChildNodes();
+        } else {
+            return JavabeanDocument::create;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.smooks.api.SmooksException;
+import org.smooks.api.delivery.event.ExecutionEvent;
+import org.smooks.api.delivery.event.ExecutionEventListener;
+import org.smooks.engine.delivery.event.EndFragmentExecutionEvent;
+import org.smooks.engine.delivery.event.FragmentExecutionEvent;
+import org.smooks.engine.delivery.event.StartFragmentExecutionEvent;
+import org.smooks.engine.delivery.sax.ng.CharDataFragmentExecutionEvent;
+import org.smooks.support.DomUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.TransformerHandler;
+import java.util.Enumeration;
+
+/**
+ * Streams a fragment to an XSL transform, as the fragment is filtered.
+ * <p/>
+ * Registered as an {@link ExecutionEventListener}, the tee turns the fragment events fired by the SAX NG filter into
+ * SAX events on a {@link TransformerHandler}.  The transform input is built from the event stream, so the filter
+ * doesn't need to keep the fragment's DOM (see the <code>max.node.depth</code> global parameter).  The transform
+ * itself runs when the tee is {@link #end() ended}, once the fragment end is reached.
+ * <p/>
+ * Only works when the filter maintains the element stack (the <code>maintain.element.stack</code> global parameter),
+ * because fragment events aren't fired for the elements otherwise.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class XslSaxTee implements ExecutionEventListener {
+
+    private final Element element;
+    private final TransformerHandler transformerHandler;
+    private final Element resultElement;
+    private final NamespaceSupport namespaceSupport = new NamespaceSupport();
+    private final AttributesImpl attributes = new AttributesImpl();
+    private int depth;
+    private boolean isComplete;
+
+    /**
+     * Start streaming a fragment to a transform.
+     *
+     * @param element            The fragment element.  Events are streamed from the start of this element to its end.
+     * @param transformerHandler The transform input.
+     * @param resultElement      The element to which the transform result is appended.
+     * @throws TransformerException Unable to start the transform.
+     */
+    XslSaxTee(Element element, TransformerHandler transformerHandler, Element resultElement) throws TransformerException {
+        this.element = element;
+        this.transformerHandler = transformerHandler;
+        this.resultElement = resultElement;
+
+        transformerHandler.setResult(new DOMResult(resultElement));
+        try {
+            transformerHandler.startDocument();
+        } catch (SAXException e) {
+            throw toTransformerException(e);
+        }
+    }
+
+    Element getElement() {
+        return element;
+    }
+
+    Element getResultElement() {
+        return resultElement;
+    }
+
+    /**
+     * Was the fragment streamed from its start to its end.  It isn't when the fragment events aren't fired, e.g. in
+     * a nested Smooks execution.
+     *
+     * @return True if the fragment was streamed, otherwise false.
+     */
+    boolean isComplete() {
+        return isComplete;
+    }
+
+    Transformer getTransformer() {
+        return transformerHandler.getTransformer();
+    }
+
+    @Override
+    public void onEvent(ExecutionEvent executionEvent) {
+        if (!(executionEvent instanceof FragmentExecutionEvent)) {
+            return;
+        }
+
+        Object node = ((FragmentExecutionEvent<?>) executionEvent).getFragment().unwrap();
+        try {
+            if (executionEvent instanceof StartFragmentExecutionEvent) {
+                if (depth > 0 || (node == element && !isComplete)) {
+                    depth++;
+                    startElement((Element) node);
+                }
+            } else if (executionEvent instanceof EndFragmentExecutionEvent) {
+                if (depth > 0) {
+                    endElement((Element) node);
+                    depth--;
+                    isComplete = (depth == 0);
+                }
+            } else if (executionEvent instanceof CharDataFragmentExecutionEvent) {
+                if (depth > 0) {
+                    characters((Node) node);
+                }
+            }
+        } catch (SAXException e) {
+            throw new SmooksException("Error streaming node [" + DomUtils.getXPath(element) + "] to XSLT.", e);
+        }
+    }
+
+    /**
+     * End the streamed fragment, and run the transform.
+     *
+     * @throws TransformerException The transform failed.
+     */
+    void end() throws TransformerException {
+        try {
+            transformerHandler.endDocument();
+        } catch (SAXException e) {
+            throw toTransformerException(e);
+        }
+    }
+
+    private void startElement(Element element) throws SAXException {
+        namespaceSupport.pushContext();
+        attributes.clear();
+
+        NamedNodeMap attributeNodes = element.getAttributes();
+        for (int i = 0; i < attributeNodes.getLength(); i++) {
+            Attr attribute = (Attr) attributeNodes.item(i);
+            String namespaceURI = nullToEmpty(attribute.getNamespaceURI());
+
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceURI)) {
+                String prefix = XMLConstants.XMLNS_ATTRIBUTE.equals(attribute.getNodeName()) ? XMLConstants.DEFAULT_NS_PREFIX : attribute.getLocalName();
+                declarePrefix(prefix, attribute.getValue());
+            } else {
+                if (!namespaceURI.isEmpty()) {
+                    declarePrefix(nullToEmpty(attribute.getPrefix()), namespaceURI);
+                }
+                attributes.addAttribute(namespaceURI, getLocalName(attribute), attribute.getNodeName(), "CDATA", attribute.getValue());
+            }
+        }
+        declarePrefix(nullToEmpty(element.getPrefix()), nullToEmpty(element.getNamespaceURI()));
+
+        transformerHandler.startElement(nullToEmpty(element.getNamespaceURI()), getLocalName(element), element.getNodeName(), attributes);
+    }
+
+    private void endElement(Element element) throws SAXException {
+        transformerHandler.endElement(nullToEmpty(element.getNamespaceURI()), getLocalName(element), element.getNodeName());
+
+        Enumeration<?> prefixes = namespaceSupport.getDeclaredPrefixes();
+        while (prefixes.hasMoreElements()) {
+            transformerHandler.endPrefixMapping((String) prefixes.nextElement());
+        }
+        namespaceSupport.popContext();
+    }
+
+    private void characters(Node node) throws SAXException {
+        char[] data = node.getNodeValue().toCharArray();
+
+        if (node instanceof Comment) {
+            transformerHandler.comment(data, 0, data.length);
+        } else if (node instanceof CDATASection) {
+            transformerHandler.startCDATA();
+            transformerHandler.characters(data, 0, data.length);
+            transformerHandler.endCDATA();
+        } else if (node instanceof Text) {
+            transformerHandler.characters(data, 0, data.length);
+        }
+    }
+
+    private void declarePrefix(String prefix, String namespaceURI) throws SAXException {
+        if (!namespaceURI.equals(nullToEmpty(namespaceSupport.getURI(prefix)))) {
+            namespaceSupport.declarePrefix(prefix, namespaceURI);
+            transformerHandler.startPrefixMapping(prefix, namespaceURI);
+        }
+    }
+
+    private static String getLocalName(Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+
+    private static String nullToEmpty(String string) {
+        return string != null ? string : "";
+    }
+
+    private static TransformerException toTransformerException(SAXException e) {
+        if (e.getException() instanceof TransformerException) {
+            return (TransformerException) e.getException();
+        }
+        return new TransformerException(e);
+    }
+}
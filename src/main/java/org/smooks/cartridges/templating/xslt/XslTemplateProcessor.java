@@ -42,14 +42,16 @@
  */
 package org.smooks.cartridges.templating.xslt;
 
+import ognl.OgnlException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smooks.api.ExecutionContext;
 import org.smooks.api.SmooksConfigException;
 import org.smooks.api.SmooksException;
+import org.smooks.api.TypedKey;
 import org.smooks.api.delivery.Filter;
 import org.smooks.api.delivery.FilterBypass;
-import org.smooks.api.delivery.ordering.Consumer;
+import org.smooks.api.resource.config.Parameter;
 import org.smooks.api.resource.config.ResourceConfig;
 import org.smooks.api.resource.visitor.VisitAfterReport;
 import org.smooks.api.resource.visitor.VisitBeforeReport;
@@ -57,26 +59,42 @@ import org.smooks.cartridges.templating.AbstractTemplateProcessor;
 import org.smooks.engine.delivery.AbstractParser;
 import org.smooks.engine.delivery.dom.serialize.GhostElementSerializerVisitor;
 import org.smooks.engine.resource.config.ParameterAccessor;
+import org.smooks.resource.URIResourceLocator;
 import org.smooks.support.ClassUtils;
 import org.smooks.support.DomUtils;
 import org.smooks.support.StreamUtils;
 import org.smooks.support.XmlUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
+import javax.xml.xpath.XPathExpressionException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * XSLT template application ProcessingUnit.
@@ -85,9 +103,51 @@ import java.io.Writer;
  */
 @VisitBeforeReport(condition = "false")
 @VisitAfterReport(summary = "Applied XSL Template.", detailTemplate = "reporting/XslTemplateProcessor_After.html")
-public class XslTemplateProcessor extends AbstractTemplateProcessor implements Consumer, FilterBypass {
+public class XslTemplateProcessor extends AbstractTemplateProcessor implements FilterBypass {
+
+    /**
+     * Document cache size parameter (bytes).  Documents loaded through <code>document()</code>, <code>xsl:include</code>
+     * and <code>xsl:import</code> are parsed once and cached, up to this size.  Default 10MB.  Set to 0 to turn off
+     * the cache.
+     */
+    public static final String DOCUMENT_CACHE_SIZE = "templating.xslt.documentCacheSize";
+
+    /**
+     * Document cache modification check parameter.  When true, a cached <code>file:</code> document is parsed again
+     * once its last modification time changes.  Default true.  Documents at other URLs (e.g. in a jar) are cached
+     * until the resource is reloaded.
+     */
+    public static final String DOCUMENT_CACHE_CHECK_MODIFIED = "templating.xslt.documentCacheCheckModified";
+
+    /**
+     * Fragment streaming parameter.  When true, the targeted fragments are streamed to the XSL as they are filtered,
+     * like the document when the XSL is applied to the document root.  The XSL then sees the whole fragment whatever
+     * the <code>max.node.depth</code> global parameter, and the fragment is transformed from a single tree
+     * (no DOM-to-DTM adapter).  The fragment is the root element of the transformed document.  Default false.
+     */
+    public static final String STREAM_FRAGMENTS = "templating.xslt.streamFragments";
+
+    /**
+     * Copy templatelet parameter.  When true, a <a href="#templatelets">Templatelet</a> that only copies the visited
+     * element (with optionally renamed element, or excluded attributes and child nodes) is applied by serializing the
+     * copy, without XSL transform (see {@link XslCopyTemplatelet}).  Default true.
+     */
+    public static final String COPY_TEMPLATELETS = "templating.xslt.copyTemplatelets";
+
+    /**
+     * Name of the stylesheet parameter through which the bean context is passed to the XSL, as a read-only node
+     * tree (<code>&lt;xsl:param name="beans"/&gt;</code>).  Only the beans referenced by the XSL are included.
+     */
+    public static final String BEANS_PARAMETER = "beans";
     
-    static final ThreadLocal<ExecutionContext> executionContextThreadLocal = new ThreadLocal<>();
+    /**
+     * <code>xsl:include</code> or <code>xsl:import</code> element.
+     */
+    private static final Pattern MODULE_ELEMENT = Pattern.compile("<([\\w.-]+:)?(include|import)[\\s/>]");
+    /**
+     * Call of a {@link XalanJavabeanExtension} select function with a literal argument, e.g. <code>smooks-bean:select('order.id')</code>.
+     */
+    private static final Pattern BEAN_SELECT_CALL = Pattern.compile("([\\w.-]+):select\\(\\s*(?:'([^']*)'|\"([^\"]*)\")\\s*\\)");
     
     /**
      * Logger.
@@ -102,16 +162,65 @@ public class XslTemplateProcessor extends AbstractTemplateProcessor implements C
      * XSL template to be applied to the visited element.
      */
     private Templates xslTemplate;
+    /**
+     * Key indexes over lookup documents, by name. Built with the template and shared by all transforms.
+     */
+    private Map<String, XslKeyIndex> keyIndexes = Collections.emptyMap();
+    /**
+     * Does the XSL reference the {@link #BEANS_PARAMETER} parameter.
+     */
+    private boolean isBeansParameterReferenced;
+    /**
+     * Does the XSL include or import stylesheet modules, whose references this processor can't see.
+     */
+    private boolean isIncludingModules;
+    /**
+     * Stylesheet parameters bound to bean values: OGNL expression, by parameter name.
+     */
+    private Map<String, String> beanParameters = Collections.emptyMap();
+    private final Map<String, Boolean> isBeanReferenced = new ConcurrentHashMap<>();
     /**
      * Is this processor processing an XSLT <a href="#templatelets">Templatelet</a>.
      */
     private boolean isTemplatelet;
+    /**
+     * Copy applying the templatelet without XSL transform.  Null if the XSL isn't a templatelet only copying the
+     * visited element.
+     */
+    private XslCopyTemplatelet copyTemplatelet;
+    /**
+     * Factory of the transformer handlers through which fragments are {@link #isStreamed streamed} to the XSL.  Null if
+     * the transformer factory doesn't support SAX input.
+     */
+    private SAXTransformerFactory saxTransformerFactory;
+    private final TypedKey<Map<Element, XslSaxTee>> saxTeesTypedKey = TypedKey.of();
     /**
      * This Visitor implements the {@link FilterBypass} interface.  This config param allows
      * the user to enable/disable the bypass.
      */
     @Inject
     private Boolean enableFilterBypass = true;
+
+    @Inject
+    @Named(COPY_TEMPLATELETS)
+    private Boolean copyTemplatelets = true;
+
+    @Inject
+    @Named(STREAM_FRAGMENTS)
+    private Boolean streamFragments = false;
+
+    @Inject
+    @Named(DOCUMENT_CACHE_SIZE)
+    private Long documentCacheSize = 10L * 1024 * 1024;
+
+    @Inject
+    @Named(DOCUMENT_CACHE_CHECK_MODIFIED)
+    private Boolean documentCacheCheckModified = true;
+
+    /**
+     * Resolver caching the documents referenced by the XSL. Null if the document cache is off.
+     */
+    private CachingURIResolver uriResolver;
     
     /**
      * Is the Smooks configuration, for which this visitor is a part, targeted at an XML message stream.
@@ -151,9 +260,132 @@ public class XslTemplateProcessor extends AbstractTemplateProcessor implements C
 
         boolean failOnWarning = resourceConfig.getParameterValue("failOnWarning", Boolean.class, true);
 
+        if (documentCacheSize < 0) {
+            throw new SmooksConfigException("Invalid '" + DOCUMENT_CACHE_SIZE + "' parameter value '" + documentCacheSize + "'. Must not be negative.");
+        }
+        if (documentCacheSize > 0) {
+            uriResolver = new CachingURIResolver(documentCacheSize, documentCacheCheckModified);
+            transformerFactory.setURIResolver(uriResolver);
+        }
+
         xslStreamSource = new StreamSource(new StringReader(xslString));
         transformerFactory.setErrorListener(new XslErrorListener(failOnWarning));
         xslTemplate = transformerFactory.newTemplates(xslStreamSource);
+        if (transformerFactory.getFeature(SAXTransformerFactory.FEATURE)) {
+            saxTransformerFactory = (SAXTransformerFactory) transformerFactory;
+        }
+        precompileBeanExpressions();
+        if (isTemplatelet && copyTemplatelets) {
+            copyTemplatelet = XslCopyTemplatelet.create(parseXsl());
+        }
+        keyIndexes = buildKeyIndexes(resourceConfig);
+        beanParameters = getBeanParameters(resourceConfig);
+        isIncludingModules = MODULE_ELEMENT.matcher(xslString).find();
+        isBeansParameterReferenced = isIncludingModules || xslString.contains("$" + BEANS_PARAMETER);
+    }
+
+    /**
+     * Parse the literal OGNL expressions of the {@link XalanJavabeanExtension} elements and function calls in the XSL,
+     * so that invalid expressions fail the config load, and aren't parsed on the first transform.
+     */
+    private Document parseXsl() {
+        try {
+            return XmlUtils.parseStream(new StringReader(xslString), logErrorHandler);
+        } catch (ParserConfigurationException | IOException | SAXException e) {
+            throw new SmooksConfigException("Unable to parse XSL Document (Stylesheet/Templatelet).", e);
+        }
+    }
+
+    private void precompileBeanExpressions() {
+        if (!xslString.contains(XalanJavabeanExtension.class.getName())) {
+            return;
+        }
+
+        Document xslDoc = parseXsl();
+        NodeList elements = xslDoc.getElementsByTagNameNS("*", "*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element element = (Element) elements.item(i);
+            if (isBeanExtensionNamespace(element.getNamespaceURI()) && "select".equals(element.getLocalName())) {
+                String ognl = element.getAttribute("ognl");
+                if (!ognl.contains("{")) {
+                    precompileBeanExpression(ognl);
+                }
+            }
+
+            NamedNodeMap attributes = element.getAttributes();
+            for (int j = 0; j < attributes.getLength(); j++) {
+                Matcher selectCall = BEAN_SELECT_CALL.matcher(attributes.item(j).getNodeValue());
+                while (selectCall.find()) {
+                    if (isBeanExtensionNamespace(element.lookupNamespaceURI(selectCall.group(1)))) {
+                        precompileBeanExpression(selectCall.group(2) != null ? selectCall.group(2) : selectCall.group(3));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isBeanExtensionNamespace(String namespaceURI) {
+        return namespaceURI != null && namespaceURI.endsWith(XalanJavabeanExtension.class.getName());
+    }
+
+    private void precompileBeanExpression(String ognl) {
+        try {
+            XalanJavabeanExtension.precompile(ognl);
+        } catch (OgnlException e) {
+            throw new SmooksConfigException("Invalid OGNL expression [" + ognl + "] in XSL template [" + getTemplateName() + "]: " + e.getMessage(), e);
+        }
+    }
+
+    private Map<String, String> getBeanParameters(ResourceConfig resourceConfig) {
+        List<Parameter<?>> expressions = resourceConfig.getParameters("templating.xslt.beanParam");
+        List<Parameter<?>> names = resourceConfig.getParameters("templating.xslt.beanParamName");
+
+        if (expressions.size() != names.size()) {
+            throw new SmooksConfigException("Invalid XSL bean parameter config. Each 'templating.xslt.beanParam' parameter must be paired with a 'templating.xslt.beanParamName' parameter.");
+        }
+
+        Map<String, String> beanParameters = new LinkedHashMap<>();
+        for (int i = 0; i < expressions.size(); i++) {
+            String expression = expressions.get(i).getValue().toString().trim();
+            precompileBeanExpression(expression);
+            beanParameters.put(names.get(i).getValue().toString().trim(), expression);
+        }
+
+        return beanParameters;
+    }
+
+    private Map<String, XslKeyIndex> buildKeyIndexes(ResourceConfig resourceConfig) {
+        List<Parameter<?>> documents = resourceConfig.getParameters("templating.xslt.keyIndex");
+        List<Parameter<?>> names = resourceConfig.getParameters("templating.xslt.keyIndexName");
+        List<Parameter<?>> selects = resourceConfig.getParameters("templating.xslt.keyIndexSelect");
+        List<Parameter<?>> uses = resourceConfig.getParameters("templating.xslt.keyIndexUse");
+
+        if (documents.isEmpty() && names.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (names.size() != documents.size() || selects.size() != documents.size() || uses.size() != documents.size()) {
+            throw new SmooksConfigException("Invalid XSL key index config. Each 'templating.xslt.keyIndex' parameter must be paired with a 'templating.xslt.keyIndexName', 'templating.xslt.keyIndexSelect' and 'templating.xslt.keyIndexUse' parameter.");
+        }
+
+        // Like every other Smooks resource: a classpath resource, a file or a URL...
+        URIResourceLocator resourceLocator = new URIResourceLocator();
+        Map<String, XslKeyIndex> keyIndexes = new HashMap<>();
+        for (int i = 0; i < documents.size(); i++) {
+            String name = names.get(i).getValue().toString().trim();
+            String document = documents.get(i).getValue().toString().trim();
+            if (document.isEmpty()) {
+                throw new SmooksConfigException("XSL key index '" + name + "' document not specified.");
+            }
+            try (InputStream documentStream = resourceLocator.getResource(document)) {
+                XslKeyIndex keyIndex = XslKeyIndex.build(name, documentStream, resourceLocator.resolveURI(document).toString(), selects.get(i).getValue().toString().trim(), uses.get(i).getValue().toString().trim());
+                keyIndexes.put(name, keyIndex);
+                LOGGER.debug("Built XSL key index '{}' over '{}': {} keys.", name, document, keyIndex.size());
+            } catch (IOException | SAXException | XPathExpressionException | ParserConfigurationException e) {
+                throw new SmooksConfigException("Error building XSL key index '" + name + "' over '" + document + "'.", e);
+            }
+        }
+
+        return keyIndexes;
     }
 
     private boolean isTemplatelet(boolean inlineXSL, String templateCode) {
@@ -171,49 +403,149 @@ public class XslTemplateProcessor extends AbstractTemplateProcessor implements C
     }
 
     @Override
-    public boolean consumes(Object object) {
-        return xslString.contains(object.toString());
+    protected String getTemplateType() {
+        return "xsl";
+    }
+
+    @Override
+    protected boolean isReferenced(String name) {
+        if (isIncludingModules || xslString.contains(name)) {
+            return true;
+        }
+        // Beans read by the bean parameter expressions, which the XSL only sees through the parameters...
+        for (String expression : beanParameters.values()) {
+            if (expression.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void visitBefore(Element element, ExecutionContext executionContext) throws SmooksException {
+        if (isStreamed(element, executionContext)) {
+            try {
+                XslSaxTee saxTee = new XslSaxTee(element, saxTransformerFactory.newTransformerHandler(xslTemplate), GhostElementSerializerVisitor.createElement(element.getOwnerDocument()));
+                configure(saxTee.getTransformer());
+                getSaxTees(executionContext).put(element, saxTee);
+                executionContext.getContentDeliveryRuntime().addExecutionEventListener(saxTee);
+            } catch (TransformerException e) {
+                throw new SmooksException("Error applying XSLT to node [" + executionContext.getDocumentSource() + ":" + DomUtils.getXPath(element) + "]", e);
+            }
+        }
+        super.visitBefore(element, executionContext);
+    }
+
+    /**
+     * Is the visited element streamed to the XSL, instead of being transformed from its DOM.
+     * <p/>
+     * The document is streamed when the XSL is applied to the document root after the root is visited (i.e. the
+     * whole document), and the filter isn't {@link #bypass bypassed}.  Transforming the root from its DOM requires the
+     * DOM of the whole document to be built.  Other fragments are only streamed if {@link #STREAM_FRAGMENTS} is on.
+     */
+    private boolean isStreamed(Element element, ExecutionContext executionContext) {
+        return saxTransformerFactory != null && !applyTemplateBefore() && (streamFragments || element.getParentNode() instanceof Document)
+                && !getResultCacheStatistics().isPresent()
+                && Boolean.parseBoolean(ParameterAccessor.getParameterValue(Filter.MAINTAIN_ELEMENT_STACK, String.class, "true", executionContext.getContentDeliveryRuntime().getContentDeliveryConfig()));
     }
 
     @Override
     protected void applyTemplate(Element element, ExecutionContext executionContext, Writer writer) {
         Document ownerDoc = element.getOwnerDocument();
-        Element ghostElement = GhostElementSerializerVisitor.createElement(ownerDoc);
+        Map<Element, XslSaxTee> saxTees = executionContext.get(saxTeesTypedKey);
+        XslSaxTee saxTee = (saxTees != null ? saxTees.remove(element) : null);
+
+        if (saxTee != null) {
+            executionContext.getContentDeliveryRuntime().removeExecutionEventListener(saxTee);
+            if (!saxTee.isComplete()) {
+                // No fragment events (e.g. nested Smooks execution). Transform the DOM...
+                saxTee = null;
+            }
+        }
+
+        boolean closeEmptyElements = Boolean.parseBoolean(ParameterAccessor.getParameterValue(Filter.CLOSE_EMPTY_ELEMENTS, String.class, "false", executionContext.getContentDeliveryRuntime().getContentDeliveryConfig()));
+        if (saxTee == null && copyTemplatelet != null && copyTemplatelet.isApplicable(element)) {
+            copyTemplatelet.apply(element, writer, closeEmptyElements);
+            return;
+        }
+
+        Element ghostElement = (saxTee != null ? saxTee.getResultElement() : GhostElementSerializerVisitor.createElement(ownerDoc));
 
         try {
             if (isSynchronized) {
                 synchronized (xslTemplate) {
-                    performTransform(element, ghostElement, ownerDoc, executionContext);
+                    performTransform(element, ghostElement, ownerDoc, saxTee, executionContext);
                 }
             } else {
-                performTransform(element, ghostElement, ownerDoc, executionContext);
+                performTransform(element, ghostElement, ownerDoc, saxTee, executionContext);
             }
         } catch (TransformerException e) {
             throw new SmooksException("Error applying XSLT to node [" + executionContext.getDocumentSource() + ":" + DomUtils.getXPath(element) + "]", e);
         }
 
         try {
-            writer.write(XmlUtils.serialize(ghostElement.getChildNodes(), Boolean.parseBoolean(ParameterAccessor.getParameterValue(Filter.CLOSE_EMPTY_ELEMENTS, String.class, "false", executionContext.getContentDeliveryRuntime().getContentDeliveryConfig()))));
+            writer.write(XmlUtils.serialize(ghostElement.getChildNodes(), closeEmptyElements));
         } catch (IOException e) {
             throw new SmooksException(e.getMessage(), e);
         }
     }
     
-    private void performTransform(Element element, Element transRes, Document ownerDoc, ExecutionContext executionContext) throws TransformerException {
+    /**
+     * Get the SAX tees of the fragments being streamed.  Fragments targeted by the XSL can be nested, so more than one
+     * can be streamed at a time.
+     */
+    private Map<Element, XslSaxTee> getSaxTees(ExecutionContext executionContext) {
+        Map<Element, XslSaxTee> saxTees = executionContext.get(saxTeesTypedKey);
+        if (saxTees == null) {
+            saxTees = new IdentityHashMap<>();
+            executionContext.put(saxTeesTypedKey, saxTees);
+        }
+        return saxTees;
+    }
+
+    private Transformer newTransformer() throws TransformerConfigurationException {
         Transformer transformer = xslTemplate.newTransformer();
+        configure(transformer);
+        return transformer;
+    }
 
-        try {
-            executionContextThreadLocal.set(executionContext);
-            if (element == ownerDoc.getDocumentElement()) {
-                transformer.transform(new DOMSource(ownerDoc), new DOMResult(transRes));
-            } else {
-                transformer.transform(new DOMSource(element), new DOMResult(transRes));
-            }
-        } finally {
-            executionContextThreadLocal.remove();
+    private void configure(Transformer transformer) {
+        if (uriResolver != null) {
+            transformer.setURIResolver(uriResolver);
+        }
+    }
+
+    private void performTransform(Element element, Element transRes, Document ownerDoc, XslSaxTee saxTee, ExecutionContext executionContext) throws TransformerException {
+        if (saxTee != null) {
+            setParameters(saxTee.getTransformer(), executionContext);
+            new XslTransformContext(executionContext, keyIndexes).transform(saxTee.getTransformer(), saxTee::end);
+            return;
         }
+
+        Transformer transformer = newTransformer();
+        Source source = (element == ownerDoc.getDocumentElement() ? new DOMSource(ownerDoc) : new DOMSource(element));
+
+        setParameters(transformer, executionContext);
+        new XslTransformContext(executionContext, keyIndexes).transform(transformer, () -> transformer.transform(source, new DOMResult(transRes)));
     }
     
+    private void setParameters(Transformer transformer, ExecutionContext executionContext) throws TransformerException {
+        if (isBeansParameterReferenced) {
+            transformer.setParameter(BEANS_PARAMETER, JavabeanDocument.create(executionContext.getBeanContext().getBeanMap(), beanId -> isBeanReferenced.computeIfAbsent(beanId, this::isReferenced)));
+        }
+        for (Map.Entry<String, String> beanParameter : beanParameters.entrySet()) {
+            Object value;
+            try {
+                value = XslParameterValues.convert(beanParameter.getKey(), XalanJavabeanExtension.evaluate(executionContext, beanParameter.getValue()));
+            } catch (OgnlException e) {
+                throw new TransformerException("Error evaluating OGNL expression [" + beanParameter.getValue() + "] of XSL parameter [" + beanParameter.getKey() + "].", e);
+            }
+            if (value != null) {
+                transformer.setParameter(beanParameter.getKey(), value);
+            }
+        }
+    }
+
     @Override
 	public boolean bypass(ExecutionContext executionContext, Source source, Result result) throws SmooksException {
 		if(!enableFilterBypass) {
@@ -224,8 +556,9 @@ public class XslTemplateProcessor extends AbstractTemplateProcessor implements C
 		}
 		if((source instanceof StreamSource || source instanceof DOMSource) && (result instanceof StreamResult || result instanceof DOMResult)) {
 	        try {
-				Transformer transformer = xslTemplate.newTransformer();
-				transformer.transform(source, result);
+				Transformer transformer = newTransformer();
+				setParameters(transformer, executionContext);
+				new XslTransformContext(executionContext, keyIndexes).transform(transformer, () -> transformer.transform(source, result));
 				return true;
 			} catch (TransformerException e) {
 				throw new SmooksException("Error applying XSLT.", e);
@@ -0,0 +1,276 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.apache.xalan.extensions.ExpressionContext;
+import org.apache.xalan.extensions.XSLProcessorContext;
+import org.apache.xalan.transformer.TransformerImpl;
+import org.apache.xpath.XPathContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smooks.api.ExecutionContext;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * State of an XSL transform, made available to the Smooks XSLT extensions.
+ * <p/>
+ * The state is passed to the extensions in two ways:
+ * <ol>
+ *     <li>As the {@link #PARAMETER} transformer parameter.  The state travels with the transformer, whichever thread
+ *     runs the transform.  This is how the Xalan extension elements and functions get it.</li>
+ *     <li>Bound to the running transform, for extension methods called without the Xalan context (e.g.
+ *     {@link XalanJavabeanExtension#select(String)}).  It is bound to a <code>java.lang.ScopedValue</code> when the
+ *     JVM provides one (Java 25+), or to a thread local otherwise.</li>
+ * </ol>
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+final class XslTransformContext {
+
+    /**
+     * Name of the transformer parameter holding the transform state.
+     */
+    static final String PARAMETER = XslTransformContext.class.getName();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(XslTransformContext.class);
+    private static final Binding BINDING = createBinding();
+
+    private final ExecutionContext executionContext;
+    private final Map<String, XslKeyIndex> keyIndexes;
+    private Map<XslKeyIndex, int[][]> keyIndexHandles;
+
+    XslTransformContext(ExecutionContext executionContext, Map<String, XslKeyIndex> keyIndexes) {
+        this.executionContext = executionContext;
+        this.keyIndexes = keyIndexes;
+    }
+
+    ExecutionContext getExecutionContext() {
+        return executionContext;
+    }
+
+    Map<String, XslKeyIndex> getKeyIndexes() {
+        return keyIndexes;
+    }
+
+    /**
+     * Get the DTM handles of the elements of a key index, for this transform.
+     *
+     * @param keyIndex The key index.
+     * @return The DTM handles, by chunk.  See {@link XslKeyIndex#get(String, XPathContext, int[][])}.
+     */
+    int[][] getKeyIndexHandles(XslKeyIndex keyIndex) {
+        if (keyIndexHandles == null) {
+            keyIndexHandles = new IdentityHashMap<>();
+        }
+        return keyIndexHandles.computeIfAbsent(keyIndex, XslKeyIndex::newChunkHandles);
+    }
+
+    /**
+     * Run a transform.  The transform state is set as the {@link #PARAMETER} parameter of the transformer, and bound
+     * to the transform for the duration of the action.
+     *
+     * @param transformer The transformer.
+     * @param action      The transform.
+     * @throws TransformerException The transform failed.
+     */
+    void transform(Transformer transformer, TransformAction action) throws TransformerException {
+        transformer.setParameter(PARAMETER, this);
+        BINDING.run(this, action);
+    }
+
+    /**
+     * Get the state of the transform calling an extension element.
+     *
+     * @param context The extension element context.
+     * @return The transform state, or null if not called from a Smooks transform.
+     */
+    static XslTransformContext get(XSLProcessorContext context) {
+        Object transformContext = context.getTransformer().getParameter(PARAMETER);
+        return transformContext instanceof XslTransformContext ? (XslTransformContext) transformContext : current();
+    }
+
+    /**
+     * Get the state of the transform calling an extension function.
+     *
+     * @param context The extension function context.
+     * @return The transform state, or null if not called from a Smooks transform.
+     */
+    static XslTransformContext get(ExpressionContext context) {
+        try {
+            XPathContext xpathContext = context.getXPathContext();
+            if (xpathContext.getOwnerObject() instanceof TransformerImpl) {
+                Object transformContext = ((TransformerImpl) xpathContext.getOwnerObject()).getParameter(PARAMETER);
+                if (transformContext instanceof XslTransformContext) {
+                    return (XslTransformContext) transformContext;
+                }
+            }
+        } catch (TransformerException e) {
+            LOGGER.debug("Unable to get the XPath context of an extension function call.", e);
+        }
+        return current();
+    }
+
+    /**
+     * Get the state bound to the running transform.
+     *
+     * @return The transform state, or null if no transform is running.
+     */
+    static XslTransformContext current() {
+        return BINDING.get();
+    }
+
+    /**
+     * The transform, run with the transform state bound.
+     */
+    interface TransformAction {
+        void run() throws TransformerException;
+    }
+
+    private static Binding createBinding() {
+        try {
+            return new ScopedValueBinding();
+        } catch (Throwable t) {
+            LOGGER.debug("java.lang.ScopedValue not available. Binding XSL transform state to a thread local.");
+            return new ThreadLocalBinding();
+        }
+    }
+
+    private interface Binding {
+        void run(XslTransformContext transformContext, TransformAction action) throws TransformerException;
+
+        XslTransformContext get();
+    }
+
+    private static final class ThreadLocalBinding implements Binding {
+
+        private final ThreadLocal<XslTransformContext> threadLocal = new ThreadLocal<>();
+
+        @Override
+        public void run(XslTransformContext transformContext, TransformAction action) throws TransformerException {
+            XslTransformContext outerTransformContext = threadLocal.get();
+            threadLocal.set(transformContext);
+            try {
+                action.run();
+            } finally {
+                if (outerTransformContext != null) {
+                    threadLocal.set(outerTransformContext);
+                } else {
+                    threadLocal.remove();
+                }
+            }
+        }
+
+        @Override
+        public XslTransformContext get() {
+            return threadLocal.get();
+        }
+    }
+
+    /**
+     * Binding through <code>java.lang.ScopedValue</code>, accessed reflectively as the cartridge builds for Java 8.
+     */
+    private static final class ScopedValueBinding implements Binding {
+
+        private final Object scopedValue;
+        private final MethodHandle where;
+        private final MethodHandle run;
+        private final MethodHandle isBound;
+        private final MethodHandle get;
+
+        private ScopedValueBinding() throws Throwable {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> scopedValueClass = Class.forName("java.lang.ScopedValue");
+            Class<?> carrierClass = Class.forName("java.lang.ScopedValue$Carrier");
+
+            scopedValue = lookup.findStatic(scopedValueClass, "newInstance", MethodType.methodType(scopedValueClass)).invoke();
+            where = lookup.findStatic(scopedValueClass, "where", MethodType.methodType(carrierClass, scopedValueClass, Object.class));
+            run = lookup.findVirtual(carrierClass, "run", MethodType.methodType(void.class, Runnable.class));
+            isBound = lookup.findVirtual(scopedValueClass, "isBound", MethodType.methodType(boolean.class));
+            get = lookup.findVirtual(scopedValueClass, "get", MethodType.methodType(Object.class));
+
+            // Fails on JVMs where ScopedValue is a preview API that isn't enabled...
+            run.invoke(where.invoke(scopedValue, Collections.emptyMap()), (Runnable) () -> {
+            });
+        }
+
+        @Override
+        public void run(XslTransformContext transformContext, TransformAction action) throws TransformerException {
+            TransformerException[] transformerException = new TransformerException[1];
+            try {
+                run.invoke(where.invoke(scopedValue, transformContext), (Runnable) () -> {
+                    try {
+                        action.run();
+                    } catch (TransformerException e) {
+                        transformerException[0] = e;
+                    }
+                });
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+            if (transformerException[0] != null) {
+                throw transformerException[0];
+            }
+        }
+
+        @Override
+        public XslTransformContext get() {
+            try {
+                return (boolean) isBound.invoke(scopedValue) ? (XslTransformContext) get.invoke(scopedValue) : null;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+}
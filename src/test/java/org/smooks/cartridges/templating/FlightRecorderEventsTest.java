@@ -0,0 +1,109 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import org.smooks.Smooks;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlightRecorderEventsTest {
+
+    @Test
+    public void testCompileAndRenderEvents() throws IOException, SAXException {
+        Path recordingFile = Files.createTempFile("templating", ".jfr");
+        List<RecordedEvent> compileEvents = new ArrayList<>();
+        List<RecordedEvent> renderEvents = new ArrayList<>();
+
+        try (Recording recording = new Recording()) {
+            recording.enable(TemplateCompileEvent.NAME).withThreshold(Duration.ZERO);
+            recording.enable(TemplateRenderEvent.NAME).withThreshold(Duration.ZERO);
+            recording.start();
+
+            Smooks smooks = new Smooks("/org/smooks/cartridges/templating/freemarker/test-configs-ext-06.xml");
+            StringResult result = new StringResult();
+            smooks.filterSource(new StringSource("<a><b><c>cvalue1</c><c>cvalue2</c></b></a>"), result);
+            assertEquals("<a><b><x>'cvalue1'</x><x>'cvalue2'</x></b></a>", result.toString());
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        try {
+            for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+                if (event.getEventType().getName().equals(TemplateCompileEvent.NAME)) {
+                    compileEvents.add(event);
+                } else if (event.getEventType().getName().equals(TemplateRenderEvent.NAME)) {
+                    renderEvents.add(event);
+                }
+            }
+        } finally {
+            Files.delete(recordingFile);
+        }
+
+        assertEquals(1, compileEvents.size());
+        assertEquals("ftl", compileEvents.get(0).getString("engine"));
+        assertEquals("inline", compileEvents.get(0).getString("resource"));
+
+        assertEquals(2, renderEvents.size());
+        for (RecordedEvent renderEvent : renderEvents) {
+            assertEquals("ftl", renderEvent.getString("engine"));
+            assertTrue(renderEvent.getString("fragment").endsWith("/c"));
+            assertEquals("<x>'cvalueN'</x>".length(), renderEvent.getLong("outputSize"));
+        }
+    }
+}
@@ -42,6 +42,8 @@
  */
 package org.smooks.cartridges.templating;
 
+import java.util.Objects;
+
 /**
  * @author tfennelly
  */
@@ -55,4 +57,14 @@ public class MyBean {
     public void setX(String x) {
         this.x = x;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MyBean && Objects.equals(x, ((MyBean) o).x);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(x);
+    }
 }
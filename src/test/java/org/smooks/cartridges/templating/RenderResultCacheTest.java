@@ -0,0 +1,232 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+import org.junit.Test;
+import org.smooks.FilterSettings;
+import org.smooks.Smooks;
+import org.smooks.StreamFilterType;
+import org.smooks.api.ExecutionContext;
+import org.smooks.cartridges.templating.freemarker.FreeMarkerTemplateProcessor;
+import org.smooks.cartridges.templating.stringtemplate.StringTemplateTemplateProcessor;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RenderResultCacheTest {
+
+    @Test
+    public void testCacheHits() {
+        FreeMarkerTemplateProcessor templateProcessor = new FreeMarkerTemplateProcessor(new TemplatingConfiguration("<x>${c.@x}-${myBean.x}</x>").setResultCacheSize(10000));
+        Smooks smooks = newSmooks(templateProcessor);
+        MyBean myBean = new MyBean();
+
+        myBean.setX("A");
+        assertEquals("<x>1-A</x><x>2-A</x><x>1-A</x>", filter(smooks, "<a><c x='1'/><c x='2'/><c x='1'/></a>", "myBean", myBean));
+        assertStatistics(templateProcessor, 1, 2, 0);
+
+        // Across messages...
+        assertEquals("<x>2-A</x>", filter(smooks, "<a><c x='2'/></a>", "myBean", myBean));
+        assertStatistics(templateProcessor, 2, 2, 0);
+
+        // The referenced beans are part of the key...
+        myBean.setX("B");
+        assertEquals("<x>2-B</x>", filter(smooks, "<a><c x='2'/></a>", "myBean", myBean));
+        assertStatistics(templateProcessor, 2, 3, 0);
+        assertEquals(0.4, templateProcessor.getResultCacheStatistics().get().getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void testUnreferencedBeansIgnored() {
+        FreeMarkerTemplateProcessor templateProcessor = new FreeMarkerTemplateProcessor(new TemplatingConfiguration("<x>${c.@x}</x>").setResultCacheSize(10000));
+        Smooks smooks = newSmooks(templateProcessor);
+
+        assertEquals("<x>1</x>", filter(smooks, "<a><c x='1'/></a>", "other", new Object()));
+        assertEquals("<x>1</x>", filter(smooks, "<a><c x='1'/></a>", "other", "2"));
+        assertStatistics(templateProcessor, 1, 1, 0);
+    }
+
+    @Test
+    public void testUncacheableBean() {
+        FreeMarkerTemplateProcessor templateProcessor = new FreeMarkerTemplateProcessor(new TemplatingConfiguration("<x>${c.@x}${other?has_content?c}</x>").setResultCacheSize(10000));
+        Smooks smooks = newSmooks(templateProcessor);
+
+        assertEquals("<x>1true</x><x>1true</x>", filter(smooks, "<a><c x='1'/><c x='1'/></a>", "other", new Object()));
+        assertStatistics(templateProcessor, 0, 0, 2);
+
+        assertEquals("<x>1true</x><x>1true</x>", filter(smooks, "<a><c x='1'/><c x='1'/></a>", "other", Arrays.asList("a", 1, null)));
+        assertStatistics(templateProcessor, 1, 1, 2);
+    }
+
+    @Test
+    public void testIncludedTemplate() {
+        FreeMarkerTemplateProcessor templateProcessor = new FreeMarkerTemplateProcessor(new TemplatingConfiguration("<x><#include \"/org/smooks/cartridges/templating/render-cache/include.ftl\"></x>").setResultCacheSize(10000));
+        assertIncludedTemplateBeansKeyed(templateProcessor, "<x>T=1</x>", "<x>T=2</x>");
+    }
+
+    @Test
+    public void testInvokedStringTemplate() {
+        StringTemplateTemplateProcessor templateProcessor = new StringTemplateTemplateProcessor(new TemplatingConfiguration("/org/smooks/cartridges/templating/render-cache/outer.st").setResultCacheSize(10000));
+        assertIncludedTemplateBeansKeyed(templateProcessor, "<x>T=1</x>", "<x>T=2</x>");
+    }
+
+    private void assertIncludedTemplateBeansKeyed(AbstractTemplateProcessor templateProcessor, String expected1, String expected2) {
+        Smooks smooks = newSmooks(templateProcessor);
+
+        // The bean is only referenced by the included template, so every bean is keyed on, including the
+        // preinstalled PTIME and PUUID beans...
+        assertEquals(expected1, filter(smooks, "<a><c/></a>", "order", Collections.singletonMap("total", 1)));
+        assertEquals(expected2, filter(smooks, "<a><c/></a>", "order", Collections.singletonMap("total", 2)));
+        assertStatistics(templateProcessor, 0, 0, 2);
+    }
+
+    @Test
+    public void testBeanGettersNotCalled() {
+        FreeMarkerTemplateProcessor templateProcessor = new FreeMarkerTemplateProcessor(new TemplatingConfiguration("<x>${c.@x}${other.x}</x>").setResultCacheSize(10000));
+        Smooks smooks = newSmooks(templateProcessor);
+        CountingBean countingBean = new CountingBean();
+
+        // Without value equality, the bean isn't introspected to digest it...
+        assertEquals("<x>1x</x><x>1x</x>", filter(smooks, "<a><c x='1'/><c x='1'/></a>", "other", countingBean));
+        assertEquals(2, countingBean.getCount());
+        assertStatistics(templateProcessor, 0, 0, 2);
+    }
+
+    @Test
+    public void testHashCollision() {
+        FreeMarkerTemplateProcessor templateProcessor = new FreeMarkerTemplateProcessor(new TemplatingConfiguration("<x>${c.@x}${other.x}</x>").setResultCacheSize(10000));
+        Smooks smooks = newSmooks(templateProcessor);
+
+        assertEquals("<x>1a</x>", filter(smooks, "<a><c x='1'/></a>", "other", new CollidingBean("a")));
+        assertEquals("<x>1b</x>", filter(smooks, "<a><c x='1'/></a>", "other", new CollidingBean("b")));
+        assertEquals("<x>1b</x>", filter(smooks, "<a><c x='1'/></a>", "other", new CollidingBean("b")));
+        assertStatistics(templateProcessor, 1, 2, 0);
+    }
+
+    @Test
+    public void testEviction() {
+        // Each output is 2 x 8 bytes...
+        FreeMarkerTemplateProcessor templateProcessor = new FreeMarkerTemplateProcessor(new TemplatingConfiguration("<x>${c.@x}</x>").setResultCacheSize(64));
+        Smooks smooks = newSmooks(templateProcessor);
+
+        filter(smooks, "<a><c x='1'/><c x='2'/><c x='3'/><c x='4'/><c x='5'/><c x='1'/></a>", "myBean", new MyBean());
+        RenderCacheStatistics statistics = templateProcessor.getResultCacheStatistics().get();
+        assertEquals(0, statistics.getHitCount());
+        assertEquals(6, statistics.getMissCount());
+        assertEquals(2, statistics.getEvictionCount());
+        assertEquals(4, statistics.getEntryCount());
+        assertEquals(64, statistics.getSize());
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        FreeMarkerTemplateProcessor templateProcessor = new FreeMarkerTemplateProcessor(new TemplatingConfiguration("<x/>"));
+        newSmooks(templateProcessor);
+
+        assertFalse(templateProcessor.getResultCacheStatistics().isPresent());
+    }
+
+    public static class CountingBean {
+        private int count;
+
+        public String getX() {
+            count++;
+            return "x";
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    public static class CollidingBean {
+        private final String x;
+
+        public CollidingBean(String x) {
+            this.x = x;
+        }
+
+        public String getX() {
+            return x;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingBean && x.equals(((CollidingBean) o).x);
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    private Smooks newSmooks(AbstractTemplateProcessor templateProcessor) {
+        Smooks smooks = new Smooks();
+        smooks.setFilterSettings(new FilterSettings(StreamFilterType.SAX_NG).setDefaultSerializationOn(false));
+        smooks.addVisitor(templateProcessor, "c");
+        return smooks;
+    }
+
+    private String filter(Smooks smooks, String input, String beanId, Object bean) {
+        ExecutionContext executionContext = smooks.createExecutionContext();
+        StringResult result = new StringResult();
+
+        executionContext.getBeanContext().addBean(beanId, bean);
+        smooks.filterSource(executionContext, new StringSource(input), result);
+
+        return result.toString();
+    }
+
+    private void assertStatistics(AbstractTemplateProcessor templateProcessor, long hitCount, long missCount, long uncacheableCount) {
+        RenderCacheStatistics statistics = templateProcessor.getResultCacheStatistics().get();
+        assertEquals(statistics.toString(), hitCount, statistics.getHitCount());
+        assertEquals(statistics.toString(), missCount, statistics.getMissCount());
+        assertEquals(statistics.toString(), uncacheableCount, statistics.getUncacheableCount());
+    }
+}
@@ -0,0 +1,124 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating;
+
+import org.junit.Test;
+import org.smooks.Smooks;
+import org.smooks.api.ExecutionContext;
+import org.smooks.api.delivery.ContentHandlerFactory;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.api.resource.visitor.sax.ng.AfterVisitor;
+import org.smooks.cartridges.templating.freemarker.FreeMarkerTemplateProcessor;
+import org.smooks.cartridges.templating.stringtemplate.StringTemplateTemplateProcessor;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
+import org.w3c.dom.Element;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TemplateEngineTest {
+
+    @Test
+    public void testEnginesRegistered() {
+        Set<String> types = new HashSet<>();
+        for (ContentHandlerFactory contentHandlerFactory : ServiceLoader.load(ContentHandlerFactory.class)) {
+            if (contentHandlerFactory instanceof TemplateEngine) {
+                types.add(((TemplateEngine) contentHandlerFactory).getType());
+                assertEquals(contentHandlerFactory.getType(), ((TemplateEngine) contentHandlerFactory).getType());
+            }
+        }
+
+        assertTrue(types.containsAll(Arrays.asList("ftl", "st", "xsl", "ctl")));
+    }
+
+    @Test
+    public void testRenderToBytes() {
+        for (AbstractTemplateProcessor templateProcessor : new AbstractTemplateProcessor[]{
+                new FreeMarkerTemplateProcessor(new TemplatingConfiguration("<x>${c.@id}</x>")),
+                new StringTemplateTemplateProcessor(new TemplatingConfiguration("<x>$c.id$</x>"))}) {
+
+            List<String> renders = new ArrayList<>();
+            Smooks smooks = new Smooks();
+            smooks.addVisitor(templateProcessor, "c");
+            smooks.addVisitor((AfterVisitor) (element, executionContext) -> renders.add(new String(templateProcessor.render(element, executionContext), StandardCharsets.UTF_8)), "c");
+
+            smooks.filterSource(new StringSource("<a><c id='1'/><c id='é'/></a>"), new StringResult());
+            assertEquals(2, renders.size());
+            assertEquals("<x>1</x>", renders.get(0));
+            assertEquals("<x>é</x>", renders.get(1));
+
+            assertTrue(templateProcessor.isReferenced("c"));
+            assertFalse(templateProcessor.isReferenced("y"));
+            assertTrue(templateProcessor.consumes("c"));
+            assertEquals(EnumSet.allOf(TemplateCapability.class), templateProcessor.getCapabilities());
+        }
+    }
+
+    @Test
+    public void testReferencedByDefault() {
+        AbstractTemplateProcessor templateProcessor = new AbstractTemplateProcessor() {
+            @Override
+            protected void loadTemplate(ResourceConfig resourceConfig) {
+            }
+
+            @Override
+            protected void applyTemplate(Element element, ExecutionContext executionContext, Writer writer) {
+            }
+        };
+
+        assertTrue(templateProcessor.isReferenced("y"));
+        assertTrue(templateProcessor.consumes("y"));
+    }
+}
@@ -0,0 +1,251 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.compiled;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.smooks.Smooks;
+import org.smooks.api.SmooksConfigException;
+import org.smooks.api.resource.visitor.sax.ng.AfterVisitor;
+import org.smooks.cartridges.templating.TemplatingConfiguration;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompiledTemplateProcessorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSyntax() throws Exception {
+        String template = "@import java.util.List\n" +
+                "@param List<String> items\n" +
+                "@param String title\n" +
+                "<list title=\"${title}\" size=\"${items.size()}\" @@x>\n" +
+                "@for(String item : items)\n" +
+                "    @if(item.isEmpty())\n" +
+                "    <empty/>\n" +
+                "    @elseif(item.equals(\"b\"))\n" +
+                "    <b>${item}${null}</b>\n" +
+                "    @else\n" +
+                "    <item>${item.charAt(0)}${'\\u00e9'}${\"}\"}</item>\n" +
+                "    @endif\n" +
+                "@endfor\n" +
+                "</list>";
+        Map<String, Object> beans = new HashMap<>();
+        beans.put("items", Arrays.asList("a", "", "b"));
+        beans.put("title", "\"t\"\\");
+
+        assertEquals("<list title=\"\"t\"\\\" size=\"3\" @x>\n" +
+                "    <item>aé}</item>\n" +
+                "    <empty/>\n" +
+                "    <b>b</b>\n" +
+                "</list>", render(template, beans));
+    }
+
+    @Test
+    public void testSyntaxErrors() throws IOException {
+        assertSyntaxError("a\n@if(true)\nb", "Unclosed @if block in template 'test' at line 3.");
+        assertSyntaxError("a\n@endfor", "@endfor outside of an @for block in template 'test' at line 2.");
+        assertSyntaxError("a\n${x", "Missing closing '}' in template 'test' at line 2.");
+        assertSyntaxError("@param x", "Invalid @param declaration 'x'.  Expected '@param <type> <name>' in template 'test' at line 1.");
+    }
+
+    @Test
+    public void testCompileError() throws IOException {
+        try {
+            render("${unknown}", new HashMap<>());
+            fail("Expected SmooksConfigException");
+        } catch (SmooksConfigException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to compile template 'test':"));
+            assertTrue(e.getMessage(), e.getMessage().contains("unknown"));
+        }
+    }
+
+    @Test
+    public void testClassCache() throws IOException {
+        Path classDirectory = temporaryFolder.newFolder().toPath();
+        String template = "<x>${beans.size()}</x>";
+        String classFile = TemplateCompiler.getClassName(template).replace('.', '/') + ".class";
+
+        Class<? extends CompiledTemplate> templateClass = new TemplateCompiler(classDirectory, getClass().getClassLoader()).getTemplateClass("test", template);
+        assertTrue(Files.isRegularFile(classDirectory.resolve(classFile)));
+
+        // A new compiler loads the cached class rather than compiling it again...
+        long lastModified = Files.getLastModifiedTime(classDirectory.resolve(classFile)).toMillis();
+        Class<? extends CompiledTemplate> cachedTemplateClass = new TemplateCompiler(classDirectory, getClass().getClassLoader()).getTemplateClass("test", template);
+        assertNotSame(templateClass, cachedTemplateClass);
+        assertEquals(templateClass.getName(), cachedTemplateClass.getName());
+        assertEquals(lastModified, Files.getLastModifiedTime(classDirectory.resolve(classFile)).toMillis());
+    }
+
+    @Test
+    public void testClassCache_tampered() throws IOException {
+        Path classDirectory = temporaryFolder.newFolder().toPath();
+        String template = "<x>${beans.size()}</x>";
+        Path classFile = classDirectory.resolve(TemplateCompiler.getClassName(template).replace('.', '/') + ".class");
+
+        new TemplateCompiler(classDirectory, getClass().getClassLoader()).getTemplateClass("test", template);
+        byte[] classBytes = Files.readAllBytes(classFile);
+        Files.write(classFile, new byte[]{1}, StandardOpenOption.APPEND);
+
+        // The tampered class is compiled again rather than loaded...
+        new TemplateCompiler(classDirectory, getClass().getClassLoader()).getTemplateClass("test", template);
+        assertArrayEquals(classBytes, Files.readAllBytes(classFile));
+    }
+
+    @Test
+    public void testClassCache_referencedClassChanged() throws IOException {
+        Path classDirectory = temporaryFolder.newFolder().toPath();
+        String template = "@param " + Bean.class.getCanonicalName() + " bean\n<x>${bean.getName()}</x>";
+        Path digestFile = classDirectory.resolve(TemplateCompiler.getClassName(template).replace('.', '/') + ".digest");
+
+        new TemplateCompiler(classDirectory, getClass().getClassLoader()).getTemplateClass("test", template);
+        List<String> digests = Files.readAllLines(digestFile);
+        String beanDigest = Bean.class.getName().replace('.', '/') + ' ';
+        assertTrue(digests.toString(), digests.stream().anyMatch(digest -> digest.startsWith(beanDigest)));
+
+        // Compiled against another version of the bean class...
+        Files.write(digestFile, digests.stream().map(digest -> digest.startsWith(beanDigest) ? beanDigest + "-" : digest).collect(Collectors.toList()));
+        Map<String, Object> beans = new HashMap<>();
+        beans.put("bean", new Bean());
+        StringWriter writer = new StringWriter();
+        try {
+            new TemplateCompiler(classDirectory, getClass().getClassLoader()).getTemplateClass("test", template).getDeclaredConstructor().newInstance().render(beans, null, writer);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        assertEquals("<x>bean</x>", writer.toString());
+        assertEquals(digests, Files.readAllLines(digestFile));
+    }
+
+    @Test
+    public void testClassDirectoryPermissions() throws IOException {
+        Path classDirectory = temporaryFolder.newFolder().toPath();
+        Files.setPosixFilePermissions(classDirectory, PosixFilePermissions.fromString("rwxrwxrwx"));
+        try {
+            new TemplateCompiler(classDirectory, getClass().getClassLoader());
+            fail("Expected SmooksConfigException");
+        } catch (SmooksConfigException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Template class directory '" + classDirectory + "' grants "));
+        }
+    }
+
+    @Test
+    public void testPrecompile() throws IOException {
+        Path outputDirectory = temporaryFolder.newFolder().toPath();
+        Path templateFile = temporaryFolder.newFile("test.ctl").toPath();
+        Files.write(templateFile, "<x/>".getBytes());
+
+        TemplateCompiler.main(new String[]{outputDirectory.toString(), templateFile.toString()});
+        assertTrue(Files.isRegularFile(outputDirectory.resolve(TemplateCompiler.getClassName("<x/>").replace('.', '/') + ".class")));
+    }
+
+    @Test
+    public void testFragment() throws IOException {
+        System.setProperty(CompiledTemplateProcessor.CLASS_DIRECTORY, temporaryFolder.newFolder().toString());
+        try {
+            assertFragments();
+        } finally {
+            System.clearProperty(CompiledTemplateProcessor.CLASS_DIRECTORY);
+        }
+    }
+
+    private void assertFragments() {
+        CompiledTemplateProcessor templateProcessor = new CompiledTemplateProcessor(new TemplatingConfiguration("<x>${fragment.getAttribute(\"id\")}</x>"));
+        List<String> renders = new ArrayList<>();
+        Smooks smooks = new Smooks();
+        smooks.addVisitor(templateProcessor, "c");
+        smooks.addVisitor((AfterVisitor) (element, executionContext) -> renders.add(new String(templateProcessor.render(element, executionContext), StandardCharsets.UTF_8)), "c");
+
+        smooks.filterSource(new StringSource("<a><c id='1'/><c id='2'/></a>"), new StringResult());
+        assertEquals(Arrays.asList("<x>1</x>", "<x>2</x>"), renders);
+    }
+
+    public static class Bean {
+        public String getName() {
+            return "bean";
+        }
+    }
+
+    private String render(String template, Map<String, Object> beans) throws IOException {
+        TemplateCompiler templateCompiler = new TemplateCompiler(temporaryFolder.getRoot().toPath(), getClass().getClassLoader());
+        StringWriter writer = new StringWriter();
+        try {
+            templateCompiler.getTemplateClass("test", template).getDeclaredConstructor().newInstance().render(beans, null, writer);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    private void assertSyntaxError(String template, String message) throws IOException {
+        try {
+            render(template, new HashMap<>());
+            fail("Expected SmooksConfigException");
+        } catch (SmooksConfigException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.junit.Test;
+import org.smooks.Smooks;
+import org.smooks.cartridges.templating.MyBean;
+import org.smooks.io.payload.JavaSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class AccessorObjectWrapperTest {
+
+    @Test
+    public void testGetInstanceIsShared() {
+        assertSame(AccessorObjectWrapper.getInstance(Configuration.VERSION_2_3_21), AccessorObjectWrapper.getInstance(Configuration.VERSION_2_3_21));
+    }
+
+    @Test
+    public void testNestedProperties() throws IOException, TemplateException {
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_21);
+        configuration.setObjectWrapper(AccessorObjectWrapper.getInstance(Configuration.VERSION_2_3_21));
+        Template template = new Template("nested", new StringReader("${order.customer.name}/${order.number}/${order.customer.vip?c}/${order.missing!'none'}"), configuration);
+
+        Map<String, Object> model = new HashMap<>();
+        model.put("order", new Order(7, new Customer("joe", true)));
+
+        StringWriter writer = new StringWriter();
+        template.process(model, writer);
+        assertEquals("joe/7/true/none", writer.toString());
+    }
+
+    @Test
+    public void testObjectWrapperParam() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-accessor-wrapper.xml"));
+
+        Map<String, Object> myBeans = new HashMap<>();
+        MyBean myBean = new MyBean();
+        myBean.setX("xxx");
+        myBeans.put("myBeanData", myBean);
+        myBeans.put("items", Arrays.asList("a", "b"));
+        myBeans.put("map", Collections.singletonMap("k", "v"));
+
+        JavaSource source = new JavaSource(myBeans);
+        source.setEventStreamRequired(false);
+
+        StringWriter myTransformResult = new StringWriter();
+        smooks.filterSource(smooks.createExecutionContext(), source, new StreamResult(myTransformResult));
+
+        assertEquals("<mybean x=\"xxx\" upper=\"XXX\">abv</mybean>", myTransformResult.toString());
+    }
+
+    public static class Order {
+        private final int number;
+        private final Customer customer;
+
+        public Order(int number, Customer customer) {
+            this.number = number;
+            this.customer = customer;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+    }
+
+    public static class Customer {
+        private final String name;
+        private final boolean vip;
+
+        public Customer(String name, boolean vip) {
+            this.name = name;
+            this.vip = vip;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isVip() {
+            return vip;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.ext.dom.NodeModel;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModelException;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.smooks.cartridges.templating.MyBean;
+import org.smooks.cartridges.templating.soapshipping.ftl.FreeMarkerShippingIntegTest;
+import org.smooks.support.FreeMarkerTemplate;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompiledFreeMarkerTemplateTest {
+
+    @Test
+    public void testCompiledOutputMatchesInterpretedOutput() throws Exception {
+        Configuration configuration = newConfiguration();
+        Map<String, Object> model = newModel();
+
+        assertSameOutput(configuration, model, "Hello ${name}!");
+        assertSameOutput(configuration, model, "${i} ${d} ${bd} ${l} ${1.50} ${2}");
+        assertSameOutput(configuration, model, "${missing!\"default\"} ${(bean.missing)!'x'} ${missing!} ${(missing.x)!} ${missing!name?upper_case}");
+        assertSameOutput(configuration, model, "<#if name??>a</#if><#if missing??>b</#if><#if (map.missing.x)??>c</#if><#if name?exists>d</#if><#if missing?has_content>e</#if><#if empty?has_content>f</#if><#if items?has_content>g</#if>");
+        assertSameOutput(configuration, model, "<#if name?has_content && !(missing??)>yes<#elseif i == 1>one<#else>no</#if>");
+        assertSameOutput(configuration, model, "<#if missing??>a<#elseif flag || missing>b</#if><#if !flag>c<#else>d</#if>");
+        assertSameOutput(configuration, model, "<#if i == 1234567 && d != 3><#if name = \"World\">eq</#if></#if><#if bd == 1.5>bd</#if><#if flag == true>t</#if>");
+        assertSameOutput(configuration, model, "<#list items as item>${item_index}:${item}<#if item_has_next>,</#if></#list>");
+        assertSameOutput(configuration, model, "<#list items as item>${item?index}/${item?counter}<#if item?is_first>first</#if><#if item?is_last>last</#if><#if item?has_next>;</#if></#list>");
+        assertSameOutput(configuration, model, "<#list rows as row><#list row as item>${row_index}${item?index}${item}</#list>|</#list>");
+        assertSameOutput(configuration, model, "<#list rows as item><#list item as item>${item}</#list>${item?size}</#list>");
+        assertSameOutput(configuration, model, "<#foreach item in items>'${item}'</#foreach>");
+        assertSameOutput(configuration, model, "<#list nulls as name>${name}</#list>");
+        assertSameOutput(configuration, model, "${markup?html} ${markup?xml} ${name?upper_case} ${name?lower_case} ${padded?trim} ${padded?length} ${items?size} ${map?size}");
+        assertSameOutput(configuration, model, "${bean.x} ${bean.getX()} ${map.a} ${map.b.c}");
+        assertSameOutput(configuration, model, "<x>${node}</x><#if node?has_content>${node?size}</#if>");
+        assertSameOutput(configuration, model, "${greeting} ${\"a\\\"b\\l\\x41\"} ${'single'}a<#-- a comment -->b");
+        assertSameOutput(configuration, model, "<ul>\n  <#list items as item>\n    <#if item == \"b\">\n      <li>${item}</li>\n    </#if>\n  </#list>\n</ul>\n");
+
+        Configuration germanConfiguration = newConfiguration();
+        germanConfiguration.setLocale(Locale.GERMANY);
+        germanConfiguration.setNumberFormat("#,##0.00");
+        assertSameOutput(germanConfiguration, model, "${i} ${d} ${bd} ${name?upper_case}");
+        germanConfiguration.setNumberFormat("number");
+        assertSameOutput(germanConfiguration, model, "${i} ${d} ${bd}");
+    }
+
+    @Test
+    public void testUnsupportedConstructs() throws IOException, TemplateModelException {
+        Configuration configuration = newConfiguration();
+
+        assertNotCompiled(configuration, "<#assign x = 1>${x}");
+        assertNotCompiled(configuration, "<#macro m>x</#macro><@m/>");
+        assertNotCompiled(configuration, "${i?string(\"0.00\")}");
+        assertNotCompiled(configuration, "${i + 1}");
+        assertNotCompiled(configuration, "${items[0]}");
+        assertNotCompiled(configuration, "${\"${name}\"}");
+        assertNotCompiled(configuration, "<#list items as item>${item}<#sep>,</#list>");
+        assertNotCompiled(configuration, "<#list items as item>${item}<#else>none</#list>");
+        assertNotCompiled(configuration, "<#list map as k, v>${k}</#list>");
+        assertNotCompiled(configuration, "<#list 1..3 as i>${i}</#list>");
+        assertNotCompiled(configuration, "<#if (i > 1)>x</#if>");
+        assertNotCompiled(configuration, "<#if i gt 1>x</#if>");
+        assertNotCompiled(configuration, "${.now}");
+        assertNotCompiled(configuration, "<#noparse>${x}</#noparse>");
+        assertNotCompiled(configuration, "#{i}");
+
+        Configuration computerNumbers = newConfiguration();
+        computerNumbers.setNumberFormat("computer");
+        assertNotCompiled(computerNumbers, "${i}");
+
+        Configuration htmlOutput = newConfiguration();
+        htmlOutput.setOutputFormat(freemarker.core.HTMLOutputFormat.INSTANCE);
+        assertNotCompiled(htmlOutput, "${name}");
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        Configuration configuration = newConfiguration();
+        Map<String, Object> model = newModel();
+
+        assertCompiledError(configuration, model, "${missing}", "missing");
+        assertCompiledError(configuration, model, "${missing.x}", "missing");
+        assertCompiledError(configuration, model, "${flag}", "boolean");
+        assertCompiledError(configuration, model, "<#if name>x</#if>", "Expected a boolean");
+        assertCompiledError(configuration, model, "<#if name == 1>x</#if>", "Can't compare");
+        assertCompiledError(configuration, model, "${node.x}", "DOM node models");
+    }
+
+    @Test
+    public void testVerifyExistingTemplates() {
+        // Every FreeMarker template of these tests is rendered by both the interpreter and, where the template
+        // compiles, the compiled template.  Any difference in output fails the render...
+        System.setProperty(FreeMarkerTemplateProcessor.COMPILE, "verify");
+        try {
+            Result result = JUnitCore.runClasses(FreeMarkerContentHandlerFactoryTest.class, FreeMarkerContentHandlerFactoryExtendedConfigTest.class,
+                    FreeMarkerProgramaticConfigTest.class, AccessorObjectWrapperTest.class, RouteToOutputStreamResourceTest.class,
+                    FreeMarkerShippingIntegTest.class);
+            for (Failure failure : result.getFailures()) {
+                fail(failure.getTestHeader() + ": " + failure.getTrace());
+            }
+            assertTrue(result.getRunCount() > 0);
+        } finally {
+            System.clearProperty(FreeMarkerTemplateProcessor.COMPILE);
+        }
+    }
+
+    private void assertSameOutput(Configuration configuration, Map<String, Object> model, String source) throws IOException, TemplateException {
+        Template template = new Template("test", new StringReader(source), configuration);
+        CompiledFreeMarkerTemplate compiledTemplate = CompiledFreeMarkerTemplate.compile(template);
+        assertNotNull("Template not compiled: " + source, compiledTemplate);
+
+        StringWriter interpretedOutput = new StringWriter();
+        StringWriter compiledOutput = new StringWriter();
+        template.process(model, interpretedOutput);
+        compiledTemplate.process(model, compiledOutput);
+        assertEquals(source, interpretedOutput.toString(), compiledOutput.toString());
+    }
+
+    private void assertNotCompiled(Configuration configuration, String source) throws IOException {
+        assertNull(source, CompiledFreeMarkerTemplate.compile(new Template("test", new StringReader(source), configuration)));
+    }
+
+    private void assertCompiledError(Configuration configuration, Map<String, Object> model, String source, String message) throws IOException {
+        CompiledFreeMarkerTemplate compiledTemplate = CompiledFreeMarkerTemplate.compile(new Template("test", new StringReader(source), configuration));
+        assertNotNull(source, compiledTemplate);
+        try {
+            compiledTemplate.process(model, new StringWriter());
+            fail("Expected TemplateException: " + source);
+        } catch (TemplateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private Configuration newConfiguration() throws TemplateModelException {
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_21);
+        configuration.setSharedVariable("serialize", new NodeModelSerializer());
+        configuration.setSharedVariable("greeting", "Hi");
+        configuration.setNumberFormat(FreeMarkerTemplate.DEFAULT_MACHINE_READABLE_NUMBER_FORMAT);
+        return configuration;
+    }
+
+    private Map<String, Object> newModel() throws Exception {
+        Map<String, Object> model = new HashMap<>();
+        MyBean bean = new MyBean();
+        Map<String, Object> map = new LinkedHashMap<>();
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader("<c><d id=\"1\">text &amp; more</d></c>")));
+
+        bean.setX("beanX");
+        map.put("a", "A");
+        map.put("b", new HashMap<>(Collections.singletonMap("c", "C")));
+
+        model.put("name", "World");
+        model.put("i", 1234567);
+        model.put("d", 3.14159265358979);
+        model.put("bd", new BigDecimal("1.50"));
+        model.put("l", 10L);
+        model.put("flag", true);
+        model.put("empty", "");
+        model.put("padded", "  padded  ");
+        model.put("markup", "<a href=\"x?a=1&b='2'\">");
+        model.put("items", Arrays.asList("a", "b", "c"));
+        model.put("nulls", new ArrayList<>(Arrays.asList("a", null)));
+        model.put("rows", Arrays.asList(Arrays.asList("x", "y"), Arrays.asList("z")));
+        model.put("bean", bean);
+        model.put("map", map);
+        model.put("node", NodeModel.wrap(document.getDocumentElement().getFirstChild()));
+
+        return model;
+    }
+}
@@ -0,0 +1,134 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FragmentCacheDirectiveTest {
+
+    @Test
+    public void testCache() throws IOException, TemplateException {
+        FragmentCacheDirective directive = new FragmentCacheDirective(10);
+        Template template = template(directive, "<@cache key=key>${counter.increment()}</@cache>");
+
+        assertEquals("1", render(template, "a"));
+        assertEquals("1", render(template, "a"));
+        assertEquals("2", render(template, "b"));
+        assertEquals("1", render(template, "a"));
+        assertEquals(2, directive.size());
+    }
+
+    @Test
+    public void testTtl() throws IOException, TemplateException {
+        Template template = template(new FragmentCacheDirective(10), "<@cache key=key ttl=0>${counter.increment()}</@cache>|<@cache key=key + \"-long\" ttl=60000>${counter.increment()}</@cache>");
+
+        assertEquals("1|2", render(template, "a"));
+        assertEquals("3|2", render(template, "a"));
+    }
+
+    @Test
+    public void testCallSites() throws IOException, TemplateException {
+        FragmentCacheDirective directive = new FragmentCacheDirective(10);
+        Template template = template(directive, "<@cache key=key>name${counter.increment()}</@cache>|<@cache key=key>address${counter.increment()}</@cache>");
+        Template otherTemplate = template(directive, "other", "<@cache key=key>other${counter.increment()}</@cache>");
+
+        assertEquals("name1|address2", render(template, "a"));
+        assertEquals("name1|address2", render(template, "a"));
+        assertEquals("other1", render(otherTemplate, "a"));
+        assertEquals(3, directive.size());
+    }
+
+    @Test
+    public void testInvalidParameters() throws IOException {
+        assertError("<@cache>x</@cache>", "'key' parameter not defined");
+        assertError("<@cache key=\"a\" ttl=\"1\">x</@cache>", "'ttl' parameter");
+        assertError("<@cache key=\"a\" tll=1>x</@cache>", "Unsupported parameter 'tll'");
+    }
+
+    private void assertError(String source, String message) throws IOException {
+        try {
+            render(template(new FragmentCacheDirective(10), source), "a");
+            fail("Expected TemplateException.");
+        } catch (TemplateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private Template template(FragmentCacheDirective directive, String source) throws IOException {
+        return template(directive, "test", source);
+    }
+
+    private Template template(FragmentCacheDirective directive, String name, String source) throws IOException {
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_21);
+        configuration.setTemplateExceptionHandler(freemarker.template.TemplateExceptionHandler.RETHROW_HANDLER);
+        try {
+            configuration.setSharedVariable("cache", directive);
+            configuration.setSharedVariable("counter", new FreeMarkerContentHandlerFactoryExtendedConfigTest.LibraryLoadCounter());
+        } catch (freemarker.template.TemplateModelException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Template(name, new StringReader(source), configuration);
+    }
+
+    private String render(Template template, String key) throws IOException, TemplateException {
+        Map<String, Object> model = new HashMap<>();
+        StringWriter output = new StringWriter();
+
+        model.put("key", key);
+        template.process(model, output);
+        return output.toString();
+    }
+}
@@ -42,11 +42,13 @@
  */
 package org.smooks.cartridges.templating.freemarker;
 
+import freemarker.template.TemplateNumberModel;
 import org.custommonkey.xmlunit.XMLAssert;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.junit.Test;
 import org.smooks.FilterSettings;
 import org.smooks.Smooks;
+import org.smooks.api.SmooksException;
 import org.smooks.StreamFilterType;
 import org.smooks.api.ExecutionContext;
 import org.smooks.cartridges.templating.MockOutStreamResource;
@@ -62,11 +64,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author <a href="mailto:tom.fennelly@jboss.com">tom.fennelly@jboss.com</a>
@@ -249,6 +256,118 @@ public class FreeMarkerContentHandlerFactoryExtendedConfigTest {
         assertTrue(result.toString().length() > 10);
     }
 
+    @Test
+    public void test_autoImport() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-autoimport-nocache.xml"));
+
+        LibraryLoad.COUNT.set(0);
+        assertEquals("<x load=\"1\">1</x><x load=\"2\">2</x><x load=\"3\">3</x>", filter(smooks, smooks.createExecutionContext(), "<a><c x='1'/><c x='2'/><c x='3'/></a>"));
+    }
+
+    @Test
+    public void test_autoImport_cacheImports() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-autoimport-cached.xml"));
+
+        LibraryLoad.COUNT.set(0);
+        assertEquals("<x load=\"1\">1</x><x load=\"1\">2</x><x load=\"1\">3</x>", filter(smooks, smooks.createExecutionContext(), "<a><c x='1'/><c x='2'/><c x='3'/></a>"));
+        assertEquals("<x load=\"1\">4</x>", filter(smooks, smooks.createExecutionContext(), "<a><c x='4'/></a>"));
+        assertEquals(1, LibraryLoad.COUNT.get());
+    }
+
+    @Test
+    public void test_autoImport_cacheImports_dataModel() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-autoimport-cached-datamodel.xml"));
+
+        try {
+            filter(smooks, smooks.createExecutionContext(), "<a><c x='1'/></a>");
+            fail("Expected SmooksException.");
+        } catch (SmooksException e) {
+            assertTrue(hasCauseMessage(e, "must not read the data model"));
+        }
+    }
+
+    @Test
+    public void test_autoImport_cacheImports_modify() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-autoimport-cached-modify.xml"));
+
+        try {
+            filter(smooks, smooks.createExecutionContext(), "<a><c x='1'/></a>");
+            fail("Expected SmooksException.");
+        } catch (SmooksException e) {
+            assertTrue(hasCauseMessage(e, "read-only"));
+        }
+    }
+
+    @Test
+    public void test_import_cacheImports_settings() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-import-cached-settings.xml"));
+
+        LibraryLoad.COUNT.set(0);
+        assertEquals("<x load=\"001\">001</x><x load=\"1\">1</x>", filter(smooks, smooks.createExecutionContext(), "<a><c x='1'/><c x='2'/></a>"));
+        assertEquals("<x load=\"1\">1</x>", filter(smooks, smooks.createExecutionContext(), "<a><c x='2'/></a>"));
+        assertEquals(1, LibraryLoad.COUNT.get());
+    }
+
+    @Test
+    public void test_compile() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-compile.xml"));
+        ExecutionContext context = smooks.createExecutionContext();
+        MyBean bean1 = new MyBean();
+        MyBean bean2 = new MyBean();
+
+        bean1.setX("a&b");
+        bean2.setX("c");
+        context.getBeanContext().addBean("items", Arrays.asList(bean1, bean2));
+        assertEquals("<x index=\"0\">a&amp;b</x><x index=\"1\">c</x><y>1</y>", filter(smooks, context, "<a><b/><c x='1'/></a>"));
+    }
+
+    @Test
+    public void test_compile_dateFallback() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-compile-date.xml"));
+        MyBean bean = new MyBean();
+        bean.setX("a");
+
+        // Comparing dates takes the interpreter, which renders the whole template again...
+        for (int i = 0; i < 2; i++) {
+            ExecutionContext context = smooks.createExecutionContext();
+            context.getBeanContext().addBean("items", Collections.singletonList(bean));
+            context.getBeanContext().addBean("shipped", new Timestamp(1000));
+            context.getBeanContext().addBean("ordered", new Timestamp(1000));
+            assertEquals("<x>a</x><y/>", filter(smooks, context, "<a><b/></a>"));
+        }
+    }
+
+    @Test
+    public void test_cacheDirective() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-cache-directive.xml"));
+        LibraryLoadCounter renderCounter = new LibraryLoadCounter();
+
+        ExecutionContext context = smooks.createExecutionContext();
+        context.getBeanContext().addBean("libraryLoadCounter", renderCounter);
+        assertEquals("<x>p:1</x><x>q:2</x><x>p:1</x>", filter(smooks, context, "<a><c type='p'/><c type='q'/><c type='p'/></a>"));
+
+        // Across messages, evicting the least recently used section...
+        context = smooks.createExecutionContext();
+        context.getBeanContext().addBean("libraryLoadCounter", renderCounter);
+        assertEquals("<x>q:2</x><x>r:3</x><x>q:2</x><x>p:4</x>", filter(smooks, context, "<a><c type='q'/><c type='r'/><c type='q'/><c type='p'/></a>"));
+    }
+
+    private static boolean hasCauseMessage(Throwable throwable, String message) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String filter(Smooks smooks, ExecutionContext context, String input) {
+        StringResult result = new StringResult();
+
+        smooks.filterSource(context, new StringSource(input), result);
+        return result.getResult();
+    }
+
     private void test_ftl(Smooks smooks, String input, String expected) throws IOException, SAXException {
         ExecutionContext context = smooks.createExecutionContext();
         test_ftl(smooks, context, input, expected);
@@ -262,4 +381,22 @@ public class FreeMarkerContentHandlerFactoryExtendedConfigTest {
         XMLUnit.setIgnoreWhitespace(true);
         XMLAssert.assertXMLEqual(expected, result.getResult());
     }
+
+    public static class LibraryLoadCounter {
+        private int count;
+
+        public int increment() {
+            return ++count;
+        }
+    }
+
+    public static class LibraryLoad implements TemplateNumberModel {
+        private static final AtomicInteger COUNT = new AtomicInteger();
+        private final int count = COUNT.incrementAndGet();
+
+        @Override
+        public Number getAsNumber() {
+            return count;
+        }
+    }
 }
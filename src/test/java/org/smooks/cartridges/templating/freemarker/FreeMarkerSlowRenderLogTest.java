@@ -0,0 +1,125 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.freemarker;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.smooks.Smooks;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FreeMarkerSlowRenderLogTest {
+
+    private final CapturingAppender appender = new CapturingAppender();
+    private Logger logger;
+    private Level level;
+
+    @Before
+    public void setUp() {
+        logger = ((LoggerContext) LogManager.getContext(false)).getLogger("org.smooks.cartridges.templating.SlowRenderLog");
+        level = logger.getLevel();
+        appender.start();
+        logger.addAppender(appender);
+        logger.setLevel(Level.WARN);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeAppender(appender);
+        logger.setLevel(level);
+        appender.stop();
+    }
+
+    @Test
+    public void testSlowRenderIsLoggedAndRateLimited() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-slow-render.xml"));
+
+        StringResult result = new StringResult();
+        smooks.filterSource(new StringSource("<a><c x='1'/><c x='2'/><c x='3'/></a>"), result);
+        assertEquals("<x>1</x><x>2</x><x>3</x>", result.toString());
+
+        assertEquals(1, appender.messages.size());
+        String message = appender.messages.get(0);
+        assertTrue(message, message.startsWith("Slow template render: engine=ftl resource=inline fragment=/a/c "));
+        assertTrue(message, message.contains(" outputSize=8 "));
+        assertTrue(message, message.endsWith(" suppressed=0"));
+    }
+
+    @Test
+    public void testNoThreshold() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-06.xml"));
+
+        smooks.filterSource(new StringSource("<a><b><c>cvalue1</c></b></a>"), new StringResult());
+        assertTrue(appender.messages.isEmpty());
+    }
+
+    private static class CapturingAppender extends AbstractAppender {
+
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+
+        private CapturingAppender() {
+            super("capturing", null, null, true, Property.EMPTY_ARRAY);
+        }
+
+        @Override
+        public void append(LogEvent event) {
+            messages.add(event.getMessage().getFormattedMessage());
+        }
+    }
+}
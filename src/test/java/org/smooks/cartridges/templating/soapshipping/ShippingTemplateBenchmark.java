@@ -0,0 +1,100 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.soapshipping;
+
+import org.smooks.Smooks;
+import org.smooks.cartridges.templating.soapshipping.ctl.CompiledTemplateShippingIntegTest;
+import org.smooks.cartridges.templating.soapshipping.ftl.FreeMarkerShippingIntegTest;
+import org.smooks.engine.profile.DefaultProfileSet;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
+import org.smooks.support.SmooksUtil;
+import org.smooks.support.StreamUtils;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares the FreeMarker and compiled template engines on the shipping sample.
+ * <p/>
+ * Not a unit test.  Run the main method from the test classpath, optionally passing the number of
+ * measured iterations (default 20000).
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public class ShippingTemplateBenchmark {
+
+    public static void main(String[] args) throws IOException, SAXException {
+        int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+        String request = new String(StreamUtils.readStream(ShippingTemplateBenchmark.class.getResourceAsStream("request.xml")), StandardCharsets.UTF_8);
+        String response = new String(StreamUtils.readStream(ShippingTemplateBenchmark.class.getResourceAsStream("response.xml")), StandardCharsets.UTF_8);
+
+        for (Class<?> configs : new Class<?>[]{FreeMarkerShippingIntegTest.class, CompiledTemplateShippingIntegTest.class}) {
+            Smooks smooks = new Smooks();
+            SmooksUtil.registerProfileSet(new DefaultProfileSet("shipping-request"), smooks);
+            SmooksUtil.registerProfileSet(new DefaultProfileSet("shipping-response"), smooks);
+            smooks.addResourceConfigs("trans-request.xml", configs.getResourceAsStream("trans-request.xml"));
+            smooks.addResourceConfigs("trans-response.xml", configs.getResourceAsStream("trans-response.xml"));
+
+            try {
+                // Warm up, then measure...
+                run(smooks, request, response, iterations / 2);
+                long start = System.nanoTime();
+                run(smooks, request, response, iterations);
+                long elapsed = System.nanoTime() - start;
+
+                System.out.printf("%-40s %8d iterations  %8.2f us/iteration%n", configs.getSimpleName(), iterations, elapsed / 1000.0 / iterations);
+            } finally {
+                smooks.close();
+            }
+        }
+    }
+
+    private static void run(Smooks smooks, String request, String response, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            smooks.filterSource(smooks.createExecutionContext("shipping-request"), new StringSource(request), new StringResult());
+            smooks.filterSource(smooks.createExecutionContext("shipping-response"), new StringSource(response), new StringResult());
+        }
+    }
+}
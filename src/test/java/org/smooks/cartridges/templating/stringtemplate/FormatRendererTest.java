@@ -0,0 +1,83 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.stringtemplate;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class FormatRendererTest {
+
+    @Test
+    public void testNumberFormatRenderer() {
+        NumberFormatRenderer renderer = new NumberFormatRenderer();
+
+        assertEquals("1234.5", renderer.toString(1234.5, null, Locale.UK));
+        assertEquals("1,234.50", renderer.toString(1234.5, "#,##0.00", Locale.UK));
+        assertEquals("1.234,50", renderer.toString(1234.5, "#,##0.00", Locale.GERMANY));
+        assertEquals("12345678901234567890.12", renderer.toString(new BigDecimal("12345678901234567890.123"), "0.00", Locale.UK));
+        assertEquals("50%", renderer.toString(0.5, "percent", Locale.UK));
+    }
+
+    @Test
+    public void testDateFormatRenderer() {
+        DateFormatRenderer renderer = new DateFormatRenderer();
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.UK);
+        calendar.clear();
+        calendar.set(2020, Calendar.MARCH, 1, 23, 30);
+
+        assertEquals("2020-03-01 23:30", renderer.toString(calendar, "yyyy-MM-dd HH:mm", Locale.UK));
+        calendar.setTimeZone(TimeZone.getTimeZone("GMT+02:00"));
+        assertEquals("2020-03-02 01:30", renderer.toString(calendar, "yyyy-MM-dd HH:mm", Locale.UK));
+
+        assertEquals("01/03/2020", renderer.toString(LocalDate.of(2020, 3, 1), "dd/MM/yyyy", Locale.UK));
+        assertEquals("2020-03-01", renderer.toString(LocalDate.of(2020, 3, 1), null, Locale.UK));
+    }
+}
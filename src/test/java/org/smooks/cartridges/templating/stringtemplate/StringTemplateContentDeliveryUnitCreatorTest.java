@@ -45,6 +45,12 @@ package org.smooks.cartridges.templating.stringtemplate;
 import org.junit.Test;
 import org.smooks.Smooks;
 import org.smooks.api.ExecutionContext;
+import org.smooks.api.SmooksConfigException;
+import org.smooks.api.SmooksException;
+import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.engine.resource.config.DefaultResourceConfig;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
 import org.smooks.support.SmooksUtil;
 import org.xml.sax.SAXException;
 
@@ -53,8 +59,13 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.util.Locale;
+import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author tfennelly
@@ -70,6 +81,88 @@ public class StringTemplateContentDeliveryUnitCreatorTest {
         test_st(smooks, "<c x='xvalueonc1' />", "<mybean>xvalueonc1</mybean>");
     }
 
+    @Test
+    public void testStringTemplateTrans_inline() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-01.xml"));
+
+        test_st(smooks, "<a><b><c x='xvalueonc1' /><c x='xvalueonc2' /></b></a>", "<mybean>xvalueonc1</mybean><mybean>xvalueonc2</mybean>");
+    }
+
+    @Test
+    public void testStringTemplateTrans_noTrim() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-03.xml"));
+
+        test_st(smooks, "<a><c x='xvalueonc1' /><c x='xvalueonc2' /></a>", "<mybean>xvalueonc1</mybean> <mybean>xvalueonc2</mybean> ");
+    }
+
+    @Test
+    public void testStringTemplateTrans_fragment() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-04.xml"));
+
+        test_st(smooks, "<order id='1'><customer>Joe</customer><item sku='a'>2</item><item sku='b'>1</item></order>", "<order id=\"1\" customer=\"Joe\" first=\"a\">2,1</order>");
+        test_st(smooks, "<order id='2'><customer>Mary</customer><item sku='c'>5</item></order>", "<order id=\"2\" customer=\"Mary\" first=\"c\">5</order>");
+    }
+
+    @Test
+    public void testStringTemplateTrans_renderers() throws SAXException, IOException {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.UK);
+        try {
+            Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-05.xml"));
+
+            test_st(smooks, "<order total='12345.6' date='2020-03-01' items='1200'/>", "<order total=\"12,345.60\" date=\"01/03/2020\" items=\"1200\"/>");
+            test_st(smooks, "<order total='0.125' date='2021-12-31' items='3'/>", "<order total=\"0.12\" date=\"31/12/2021\" items=\"3\"/>");
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testStringTemplateTrans_groupFile() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("test-configs-ext-02.xml"));
+
+        test_st(smooks, "<a><c x='xvalueonc1' /><d/></a>", "<mybean>xvalueonc1</mybean><yourbean><mybean>xvalueonc1</mybean></yourbean>");
+
+        STGroupCache groupCache = STGroupCache.getInstance(smooks.getApplicationContext());
+        STGroupCache.GroupKey groupKey = new STGroupCache.GroupKey("org/smooks/cartridges/templating/stringtemplate/test-templates.stg", "UTF-8", '$', '$');
+        assertNotNull(groupCache.getGroup(groupKey, () -> {
+            throw new AssertionError("Group file loaded more than once.");
+        }));
+    }
+
+    @Test
+    public void testStringTemplateTrans_inlineEncoding() {
+        ResourceConfig resourceConfig = new DefaultResourceConfig("c", new Properties(), "<x>\u00e9$c.x$</x>");
+        resourceConfig.setResourceType("st");
+        resourceConfig.setParameter("encoding", "ISO-8859-1");
+
+        Smooks smooks = new Smooks();
+        smooks.addResourceConfig(resourceConfig);
+        StringResult result = new StringResult();
+
+        smooks.filterSource(new StringSource("<c x='1' />"), result);
+        assertEquals("<c x=\"1\"/><x>\u00e91</x>", result.getResult());
+    }
+
+    @Test
+    public void testStringTemplateTrans_unsupportedResource() {
+        ResourceConfig resourceConfig = new DefaultResourceConfig("c", new Properties(), "/org/smooks/cartridges/templating/stringtemplate/test-configs.xml");
+        resourceConfig.setResourceType("st");
+
+        Smooks smooks = new Smooks();
+        smooks.addResourceConfig(resourceConfig);
+        try {
+            smooks.filterSource(new StringSource("<c x='1' />"), new StringResult());
+            fail("Expected SmooksException.");
+        } catch (SmooksException e) {
+            Throwable cause = e;
+            while (cause != null && !cause.getMessage().startsWith("Unsupported StringTemplate resource")) {
+                cause = cause.getCause();
+            }
+            assertTrue(cause instanceof SmooksConfigException);
+        }
+    }
+
     private void test_st(Smooks smooks, String input, String expected) {
         InputStream stream = new ByteArrayInputStream(input.getBytes());
         ExecutionContext context = smooks.createExecutionContext();
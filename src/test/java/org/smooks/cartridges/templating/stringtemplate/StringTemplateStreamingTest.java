@@ -0,0 +1,95 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.stringtemplate;
+
+import org.junit.Test;
+import org.smooks.Smooks;
+import org.smooks.api.ExecutionContext;
+import org.smooks.cartridges.javabean.Bean;
+import org.smooks.cartridges.templating.MyBean;
+import org.smooks.cartridges.templating.TemplatingConfiguration;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
+import org.w3c.dom.Element;
+
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class StringTemplateStreamingTest {
+
+    private static final int RECORD_COUNT = 20000;
+
+    @Test
+    public void testFragmentsAreNotRetained() {
+        AtomicInteger renderCount = new AtomicInteger();
+        AtomicInteger maxRetainedNodes = new AtomicInteger();
+
+        Smooks smooks = new Smooks();
+        Bean bean = new Bean(MyBean.class, "myBeanData", "c", smooks.getApplicationContext().getRegistry());
+        smooks.addVisitors(bean.bindTo("x", "c/@x"));
+        smooks.addVisitor(new StringTemplateTemplateProcessor(new TemplatingConfiguration("/org/smooks/cartridges/templating/stringtemplate/test-template.st")) {
+            @Override
+            protected void applyTemplate(Element element, ExecutionContext executionContext, Writer writer) {
+                renderCount.incrementAndGet();
+                maxRetainedNodes.accumulateAndGet(element.getParentNode().getChildNodes().getLength() + element.getChildNodes().getLength(), Math::max);
+                super.applyTemplate(element, executionContext, writer);
+            }
+        }, "c");
+
+        StringBuilder input = new StringBuilder("<a>");
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            input.append("<c x='").append(i).append("'>record ").append(i).append("</c>");
+        }
+        input.append("</a>");
+
+        StringResult result = new StringResult();
+        smooks.filterSource(new StringSource(input.toString()), result);
+
+        assertEquals(RECORD_COUNT, renderCount.get());
+        // Only the targeted fragment is ever attached to its parent, and none of its content is captured...
+        assertEquals(1, maxRetainedNodes.get());
+        assertEquals(RECORD_COUNT, result.getResult().split("<mybean>", -1).length - 1);
+    }
+}
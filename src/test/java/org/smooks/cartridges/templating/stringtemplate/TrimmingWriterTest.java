@@ -0,0 +1,84 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.stringtemplate;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrimmingWriterTest {
+
+    @Test
+    public void testTrim() throws IOException {
+        String[] outputs = {"", "   ", "\n<a/>\n", "<a/>", "  <a>\n  <b/>\n</a>\n\n", "\t<a> </a> <b/> \r\n"};
+
+        for (String output : outputs) {
+            for (int chunkSize = 1; chunkSize <= output.length() + 1; chunkSize++) {
+                assertEquals(output.trim(), writeChunked(output, chunkSize, false));
+                assertEquals(output.trim(), writeChunked(output, chunkSize, true));
+            }
+        }
+    }
+
+    private String writeChunked(String output, int chunkSize, boolean asChars) throws IOException {
+        StringWriter result = new StringWriter();
+        TrimmingWriter trimmingWriter = new TrimmingWriter(result);
+
+        for (int i = 0; i < output.length(); i += chunkSize) {
+            int end = Math.min(output.length(), i + chunkSize);
+            if (asChars) {
+                trimmingWriter.write(output.toCharArray(), i, end - i);
+            } else if (end - i == 1) {
+                trimmingWriter.write(output.charAt(i));
+            } else {
+                trimmingWriter.write(output, i, end - i);
+            }
+        }
+        trimmingWriter.close();
+
+        return result.toString();
+    }
+}
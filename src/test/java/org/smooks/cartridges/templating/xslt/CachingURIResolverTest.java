@@ -0,0 +1,163 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CachingURIResolverTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testIncludeAndDocument() throws IOException, TransformerException {
+        write("module.xsl", "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'>" +
+                "<xsl:template name='country'><xsl:param name='code'/><xsl:value-of select=\"document('ref/countries.xml')/countries/country[@code = $code]\"/></xsl:template>" +
+                "</xsl:stylesheet>");
+        write("ref/countries.xml", "<countries><country code='IE'>Ireland</country><country code='MT'>Malta</country></countries>");
+        File stylesheet = write("main.xsl", "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'>" +
+                "<xsl:include href='module.xsl'/><xsl:output method='text'/>" +
+                "<xsl:template match='c'><xsl:call-template name='country'><xsl:with-param name='code' select='@code'/></xsl:call-template></xsl:template>" +
+                "</xsl:stylesheet>");
+
+        CachingURIResolver uriResolver = new CachingURIResolver(1024 * 1024, false);
+        TransformerFactory transformerFactory = TransformerFactory.newInstance();
+        transformerFactory.setURIResolver(uriResolver);
+        Templates templates = transformerFactory.newTemplates(new StreamSource(stylesheet));
+
+        assertEquals("Malta", transform(templates, uriResolver, "<c code='MT'/>"));
+        assertEquals("Ireland", transform(templates, uriResolver, "<c code='IE'/>"));
+        assertEquals(2, uriResolver.getEntryCount());
+    }
+
+    @Test
+    public void testCheckModified() throws IOException, TransformerException {
+        File document = write("ref/countries.xml", "<countries/>");
+        String base = temporaryFolder.getRoot().toURI().toString();
+
+        CachingURIResolver uriResolver = new CachingURIResolver(1024 * 1024, true);
+        DOMSource source = (DOMSource) uriResolver.resolve("ref/countries.xml", base);
+        assertSame(source.getNode(), ((DOMSource) uriResolver.resolve("ref/countries.xml#x", base)).getNode());
+        assertEquals(document.toURI().toURL().toExternalForm(), source.getSystemId());
+
+        write("ref/countries.xml", "<countries><country code='IE'>Ireland</country></countries>");
+        document.setLastModified(document.lastModified() + 2000);
+        DOMSource modifiedSource = (DOMSource) uriResolver.resolve("ref/countries.xml", base);
+        assertNotSame(source.getNode(), modifiedSource.getNode());
+        assertEquals(1, uriResolver.getEntryCount());
+
+        CachingURIResolver uncheckedUriResolver = new CachingURIResolver(1024 * 1024, false);
+        source = (DOMSource) uncheckedUriResolver.resolve("ref/countries.xml", base);
+        document.setLastModified(document.lastModified() + 2000);
+        assertSame(source.getNode(), ((DOMSource) uncheckedUriResolver.resolve("ref/countries.xml", base)).getNode());
+    }
+
+    @Test
+    public void testMaxSize() throws IOException, TransformerException {
+        String base = temporaryFolder.getRoot().toURI().toString();
+        for (String name : new String[]{"a", "b", "c", "d", "e"}) {
+            write(name + ".xml", "<" + name + ">0123456789</" + name + ">");
+        }
+        write("large.xml", "<large>0123456789012345678901234567890123456789</large>");
+
+        CachingURIResolver uriResolver = new CachingURIResolver(80, false);
+        DOMSource b = (DOMSource) uriResolver.resolve("b.xml", base);
+        uriResolver.resolve("a.xml", base);
+        uriResolver.resolve("c.xml", base);
+        uriResolver.resolve("d.xml", base);
+        assertEquals(4, uriResolver.getEntryCount());
+        assertEquals(68, uriResolver.getSize());
+
+        // Larger than a quarter of the cache...
+        DOMSource large = (DOMSource) uriResolver.resolve("large.xml", base);
+        assertNotSame(large.getNode(), ((DOMSource) uriResolver.resolve("large.xml", base)).getNode());
+        assertEquals(4, uriResolver.getEntryCount());
+
+        // Evicts the least recently used...
+        uriResolver.resolve("e.xml", base);
+        assertEquals(4, uriResolver.getEntryCount());
+        assertEquals(68, uriResolver.getSize());
+        assertNotSame(b.getNode(), ((DOMSource) uriResolver.resolve("b.xml", base)).getNode());
+    }
+
+    @Test
+    public void testSelfReference() throws TransformerException {
+        assertNull(new CachingURIResolver(1024, false).resolve("", null));
+    }
+
+    private String transform(Templates templates, CachingURIResolver uriResolver, String input) throws TransformerException {
+        StringWriter output = new StringWriter();
+        javax.xml.transform.Transformer transformer = templates.newTransformer();
+
+        transformer.setURIResolver(uriResolver);
+        transformer.transform(new StreamSource(new StringReader(input)), new StreamResult(output));
+        return output.toString();
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,144 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.smooks.Smooks;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Compares <code>&lt;xsl:keyIndex&gt;</code> lookups with an <code>xsl:key</code> over a <code>document()</code>
+ * lookup document.
+ * <p/>
+ * Not a unit test.  Run the main method from the test classpath, optionally passing the number of lookup document
+ * entries (default 200000) and the number of lookups per message (default 100).  Each message is filtered twice:
+ * with one transform per looked up fragment, and with a single transform doing all the lookups.
+ *
+ * @author <a href="mailto:smooks-dev@googlegroups.com">smooks-dev@googlegroups.com</a>
+ */
+public class KeyIndexBenchmark {
+
+    private static final String KEY_STYLESHEET = "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">"
+            + "<xsl:key name=\"codes\" match=\"code\" use=\"@id\"/>"
+            + "<xsl:template match=\"%s\"><xsl:variable name=\"codes\" select=\"document('%s')\"/><x><xsl:for-each select=\"%s\"><xsl:variable name=\"id\" select=\"@code\"/>"
+            + "<xsl:for-each select=\"$codes\"><xsl:value-of select=\"key('codes', $id)/@name\"/></xsl:for-each></xsl:for-each></x></xsl:template>"
+            + "</xsl:stylesheet>";
+    private static final String KEY_INDEX_STYLESHEET = "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" xmlns:smooks-key=\"org.smooks.cartridges.templating.xslt.XalanKeyIndexExtension\" exclude-result-prefixes=\"smooks-key\" version=\"1.0\">"
+            + "<xsl:template match=\"%s\"><x><xsl:for-each select=\"%s\"><xsl:value-of select=\"smooks-key:key('codes', @code)/@name\"/></xsl:for-each></x></xsl:template>"
+            + "</xsl:stylesheet>";
+
+    public static void main(String[] args) throws IOException, SAXException {
+        int entries = (args.length > 0 ? Integer.parseInt(args[0]) : 200000);
+        int lookups = (args.length > 1 ? Integer.parseInt(args[1]) : 100);
+        File lookupDocument = File.createTempFile("codes", ".xml");
+        lookupDocument.deleteOnExit();
+
+        try (Writer writer = Files.newBufferedWriter(lookupDocument.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("<codes>");
+            for (int i = 0; i < entries; i++) {
+                writer.write("<code id=\"C" + i + "\" name=\"Code " + i + "\"><description>Code number " + i + "</description></code>");
+            }
+            writer.write("</codes>");
+        }
+
+        StringBuilder message = new StringBuilder("<a>");
+        for (int i = 0; i < lookups; i++) {
+            message.append("<c code=\"C").append((int) ((long) i * 7919 % entries)).append("\"/>");
+        }
+        String input = message.append("</a>").toString();
+        String lookupUri = lookupDocument.toURI().toString();
+
+        System.out.printf("%d entries, %d lookups per message%n", entries, lookups);
+        for (boolean perFragment : new boolean[]{true, false}) {
+            String fragment = (perFragment ? "c" : "a");
+            String selected = (perFragment ? "." : "c");
+            run("xsl:key, " + (perFragment ? "one transform per lookup" : "one transform"), input, fragment,
+                    String.format(KEY_STYLESHEET, fragment, lookupUri, selected), "");
+            run("xsl:keyIndex, " + (perFragment ? "one transform per lookup" : "one transform"), input, fragment,
+                    String.format(KEY_INDEX_STYLESHEET, fragment, selected), "<xsl:keyIndex name=\"codes\" select=\"/codes/code\" use=\"@id\">" + lookupUri + "</xsl:keyIndex>");
+        }
+    }
+
+    private static void run(String name, String input, String fragment, String stylesheet, String keyIndex) throws IOException, SAXException {
+        String config = "<smooks-resource-list xmlns=\"https://www.smooks.org/xsd/smooks-2.0.xsd\" xmlns:xsl=\"https://www.smooks.org/xsd/smooks/xsl-2.0.xsd\">"
+                + "<xsl:xsl applyOnElement=\"" + fragment + "\"><xsl:template><![CDATA[" + stylesheet + "]]></xsl:template>" + keyIndex
+                + "<param name=\"templating.xslt.documentCacheSize\">1073741824</param></xsl:xsl></smooks-resource-list>";
+        Smooks smooks = new Smooks(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)));
+
+        try {
+            // The first message loads the template, and the lookup document...
+            long start = System.nanoTime();
+            filter(smooks, input);
+            long firstMessage = System.nanoTime() - start;
+
+            int messages = 0;
+            start = System.nanoTime();
+            long elapsed;
+            do {
+                filter(smooks, input);
+                messages++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < 5_000_000_000L && messages < 1000);
+
+            System.out.printf("  %-45s first message %10.1f ms   then %10.2f ms/message%n", name, firstMessage / 1e6, elapsed / 1e6 / messages);
+        } finally {
+            smooks.close();
+        }
+    }
+
+    private static void filter(Smooks smooks, String input) {
+        StringResult result = new StringResult();
+        smooks.filterSource(new StringSource(input), result);
+        if (!result.getResult().contains("Code ")) {
+            throw new IllegalStateException("Lookup failed: " + result.getResult());
+        }
+    }
+}
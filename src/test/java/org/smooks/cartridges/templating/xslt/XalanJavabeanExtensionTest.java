@@ -0,0 +1,165 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import ognl.OgnlException;
+import org.junit.Before;
+import org.junit.Test;
+import org.smooks.Smooks;
+import org.smooks.api.ExecutionContext;
+import org.smooks.cartridges.templating.MyBean;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class XalanJavabeanExtensionTest {
+
+    private final XalanJavabeanExtension extension = new XalanJavabeanExtension();
+    private ExecutionContext executionContext;
+
+    @Before
+    public void setUp() {
+        MyBean customer = new MyBean();
+        Map<String, Object> order = new LinkedHashMap<>();
+
+        customer.setX("Joe");
+        order.put("customer", customer);
+        order.put("items", Arrays.asList("pen", "book"));
+        order.put("codes", new int[]{1, 2, 3});
+        order.put("total", 12);
+        order.put("failing", new FailingBean());
+
+        executionContext = new Smooks().createExecutionContext();
+        executionContext.getBeanContext().addBean("order", order);
+    }
+
+    @Test
+    public void testPropertyPaths() throws OgnlException {
+        assertEquals("Joe", select("order.customer.x"));
+        assertEquals("Joe", select(" order.customer.x "));
+        assertEquals(3, select("order.codes.length"));
+        assertEquals(MyBean.class, select("order.customer.class"));
+        assertNull(select("order.missing"));
+        assertNull(select("missing"));
+    }
+
+    @Test
+    public void testOgnlFallback() throws OgnlException {
+        assertEquals(2, select("order.items.size"));
+        assertEquals(5, select("order.size"));
+        assertEquals(24, select("order.total * 2"));
+        assertEquals("pen", select("order.items[0]"));
+        assertNull(select("order.missing.x"));
+    }
+
+    @Test
+    public void testGetterException() {
+        try {
+            select("order.failing.value");
+            fail("Expected OgnlException.");
+        } catch (OgnlException e) {
+            assertEquals("Failed", e.getReason().getMessage());
+        }
+    }
+
+    @Test
+    public void testTransformerParameter() throws TransformerException {
+        String xsl = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' xmlns:smooks-bean='xalan://org.smooks.cartridges.templating.xslt.XalanJavabeanExtension' extension-element-prefixes='smooks-bean' version='1.0'>" +
+                "<xsl:output method='text'/><xsl:template match='/'><xsl:value-of select=\"smooks-bean:select('order.customer.x')\"/>,<smooks-bean:select ognl='order.total'/></xsl:template>" +
+                "</xsl:stylesheet>";
+        Transformer transformer = TransformerFactory.newInstance().newTransformer(new StreamSource(new StringReader(xsl)));
+        StringWriter output = new StringWriter();
+
+        // Without the transform bound to the thread, e.g. when the transformer is run on another thread...
+        transformer.setParameter(XslTransformContext.PARAMETER, new XslTransformContext(executionContext, Collections.emptyMap()));
+        transformer.transform(new StreamSource(new StringReader("<a/>")), new StreamResult(output));
+        assertEquals("Joe,12", output.toString());
+    }
+
+    @Test
+    public void testNoTransform() throws OgnlException {
+        try {
+            extension.select("order.customer.x");
+            fail("Expected IllegalStateException.");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    private Object select(String ognlExpression) throws OgnlException {
+        Object[] value = new Object[1];
+        try {
+            new XslTransformContext(executionContext, Collections.emptyMap()).transform(TransformerFactory.newInstance().newTransformer(), () -> {
+                try {
+                    value[0] = extension.select(ognlExpression);
+                } catch (OgnlException e) {
+                    throw new TransformerException(e);
+                }
+            });
+        } catch (TransformerException e) {
+            if (e.getCause() instanceof OgnlException) {
+                throw (OgnlException) e.getCause();
+            }
+            throw new IllegalStateException(e);
+        }
+        return value[0];
+    }
+
+    public static class FailingBean {
+        public String getValue() {
+            throw new IllegalStateException("Failed");
+        }
+    }
+}
@@ -42,11 +42,14 @@
  */
 package org.smooks.cartridges.templating.xslt;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.smooks.Smooks;
 import org.smooks.api.ExecutionContext;
 import org.smooks.api.SmooksConfigException;
 import org.smooks.api.resource.config.ResourceConfig;
+import org.smooks.cartridges.templating.MyBean;
 import org.smooks.cartridges.templating.util.CharUtils;
 import org.smooks.engine.DefaultApplicationContextBuilder;
 import org.smooks.engine.resource.config.DefaultResourceConfig;
@@ -57,13 +60,28 @@ import org.smooks.support.SmooksUtil;
 import org.xml.sax.SAXException;
 
 import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.TimeZone;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -71,6 +89,9 @@ import static org.junit.Assert.fail;
  */
 public class XslContentHandlerFactoryTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void testXslUnitTrans_filebased_replace() {
         Smooks smooks = new Smooks();
@@ -176,6 +197,234 @@ public class XslContentHandlerFactoryTest {
         assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><xxxxxx/>", result.getResult());
     }
 
+    @Test
+    public void test_stream_document() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("stream-document.xml"));
+        StringResult result = new StringResult();
+        ExecutionContext executionContext = smooks.createExecutionContext();
+
+        smooks.filterSource(executionContext, new StringSource("<a xmlns:n='urn:n'><n:b n:y='2'><c>x<!--z--><d>y</d></c></n:b><e/></a>"), result);
+        assertEquals("<r comment=\"z\" elements=\"5\" ns=\"1\" text=\"xy\"></r>", result.getResult().trim());
+        assertEquals("y", ((Map<?, ?>) executionContext.getBeanContext().getBean("d")).get("value"));
+    }
+
+    @Test
+    public void test_stream_fragments() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("stream-fragments.xml"));
+        StringResult result = new StringResult();
+
+        smooks.filterSource(new StringSource("<a><b><c>x<b>y</b></c></b><b/></a>"), result);
+        assertEquals("<rn=\"0\">y</r><rn=\"2\">xy</r><rn=\"0\"></r>", result.getResult().replaceAll("\\s", ""));
+    }
+
+    @Test
+    public void test_document_cache() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("document-cache.xml"));
+        StringResult result = new StringResult();
+
+        smooks.filterSource(new StringSource("<a><c code='MT'/><c code='IE'/><c code='MT'/></a>"), result);
+        assertEquals("<x>Malta</x><x>Ireland</x><x>Malta</x>", result.getResult().replaceAll("\\s", ""));
+    }
+
+    @Test
+    public void test_document_cache_modified() throws SAXException, IOException {
+        File countries = temporaryFolder.newFile("countries.xml");
+        Files.write(countries.toPath(), "<countries><country code='MT'>Malta</country></countries>".getBytes(StandardCharsets.UTF_8));
+        Smooks smooks = new Smooks(new ByteArrayInputStream(("<smooks-resource-list xmlns=\"https://www.smooks.org/xsd/smooks-2.0.xsd\" xmlns:xsl=\"https://www.smooks.org/xsd/smooks/xsl-2.0.xsd\">" +
+                "<params><param name=\"default.serialization.on\">false</param></params>" +
+                "<xsl:xsl applyOnElement=\"c\"><xsl:template><![CDATA[<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">" +
+                "<xsl:template match=\"c\"><x><xsl:value-of select=\"document('" + countries.toURI() + "')/countries/country[@code = current()/@code]\"/></x></xsl:template>" +
+                "</xsl:stylesheet>]]></xsl:template></xsl:xsl></smooks-resource-list>").getBytes(StandardCharsets.UTF_8)));
+
+        StringResult result = new StringResult();
+        smooks.filterSource(new StringSource("<a><c code='MT'/></a>"), result);
+        assertEquals("<x>Malta</x>", result.getResult().replaceAll("\\s", ""));
+
+        // A modified file is parsed again by default...
+        Files.write(countries.toPath(), "<countries><country code='MT'>Malta!</country></countries>".getBytes(StandardCharsets.UTF_8));
+        countries.setLastModified(countries.lastModified() + 2000);
+        result = new StringResult();
+        smooks.filterSource(new StringSource("<a><c code='MT'/></a>"), result);
+        assertEquals("<x>Malta!</x>", result.getResult().replaceAll("\\s", ""));
+    }
+
+    @Test
+    public void test_key_index() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("key-index.xml"));
+        StringResult result = new StringResult();
+
+        smooks.filterSource(new StringSource("<a><c code='MT'/><c code='IE'/><c code='XX'/></a>"), result);
+        assertEquals("<xcount=\"1\">MaltaMT</x><xcount=\"1\">IrelandMT</x><xcount=\"0\">MT</x>", result.getResult().replaceAll("\\s", ""));
+    }
+
+    @Test
+    public void test_key_index_chunks() throws SAXException, IOException {
+        File codes = temporaryFolder.newFile("codes.xml");
+        StringBuilder codesXml = new StringBuilder("<codes>");
+        for (int i = 0; i < 100; i++) {
+            codesXml.append("<code id='C").append(i).append("' group='G").append(i % 3).append("'>").append(i).append("</code>");
+        }
+        Files.write(codes.toPath(), codesXml.append("</codes>").toString().getBytes(StandardCharsets.UTF_8));
+        Smooks smooks = new Smooks(new ByteArrayInputStream(("<smooks-resource-list xmlns=\"https://www.smooks.org/xsd/smooks-2.0.xsd\" xmlns:xsl=\"https://www.smooks.org/xsd/smooks/xsl-2.0.xsd\">" +
+                "<params><param name=\"default.serialization.on\">false</param></params>" +
+                "<xsl:xsl applyOnElement=\"a\"><xsl:template><![CDATA[<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" xmlns:smooks-key=\"org.smooks.cartridges.templating.xslt.XalanKeyIndexExtension\" exclude-result-prefixes=\"smooks-key\" version=\"1.0\">" +
+                "<xsl:template match=\"a\"><x><xsl:for-each select=\"c\"><xsl:value-of select=\"smooks-key:key('codes', @code)\"/>,</xsl:for-each>" +
+                "<xsl:value-of select=\"count(smooks-key:key('groups', 'G0'))\"/>:<xsl:value-of select=\"sum(smooks-key:key('groups', 'G0'))\"/></x></xsl:template>" +
+                "</xsl:stylesheet>]]></xsl:template>" +
+                "<xsl:keyIndex name=\"codes\" select=\"/codes/code\" use=\"@id\">" + codes.toURI() + "</xsl:keyIndex>" +
+                "<xsl:keyIndex name=\"groups\" select=\"/codes/code\" use=\"@group\">" + codes.toURI() + "</xsl:keyIndex>" +
+                "</xsl:xsl></smooks-resource-list>").getBytes(StandardCharsets.UTF_8)));
+
+        // Elements on either side of the chunk boundaries, and a key spanning all the chunks...
+        StringResult result = new StringResult();
+        smooks.filterSource(new StringSource("<a><c code='C0'/><c code='C31'/><c code='C32'/><c code='C99'/><c code='C0'/><c code='C100'/></a>"), result);
+        assertEquals("<x>0,31,32,99,0,,34:1683</x>", result.getResult().replaceAll("\\s", ""));
+    }
+
+    @Test
+    public void test_beans_parameter() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("beans-parameter.xml"));
+        ExecutionContext executionContext = smooks.createExecutionContext();
+        Map<String, Object> order = new LinkedHashMap<>();
+        MyBean customer = new MyBean();
+        StringResult result = new StringResult();
+
+        customer.setX("Joe");
+        order.put("customer", customer);
+        order.put("items", Arrays.asList(item("pen", 5), item("book", 12.5), item("lamp", 30)));
+        order.put("self", order);
+        order.put("created", new Date(0));
+        Calendar shipped = Calendar.getInstance(TimeZone.getTimeZone("GMT+01:00"));
+        shipped.setTimeInMillis(3600000);
+        order.put("shipped", shipped);
+        executionContext.getBeanContext().addBean("order", order);
+        executionContext.getBeanContext().addBean("unreferenced", new Object() {
+            public String getValue() {
+                throw new IllegalStateException("Unreferenced bean read.");
+            }
+        });
+
+        smooks.filterSource(executionContext, new StringSource("<a><c/></a>"), result);
+        assertEquals("<x created=\"1970-01-01T00:00:00Z\" customer=\"Joe\" items=\"3\" self=\"0\" shipped=\"1970-01-01T01:00:00Z\">book;lamp;</x>", result.getResult().trim());
+    }
+
+    @Test
+    public void test_beans_parameter_document_order() throws SAXException, IOException {
+        Smooks smooks = new Smooks(new ByteArrayInputStream(("<smooks-resource-list xmlns=\"https://www.smooks.org/xsd/smooks-2.0.xsd\" xmlns:xsl=\"https://www.smooks.org/xsd/smooks/xsl-2.0.xsd\">" +
+                "<params><param name=\"default.serialization.on\">false</param></params>" +
+                "<xsl:xsl applyOnElement=\"c\"><xsl:template><![CDATA[<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">" +
+                "<xsl:param name=\"beans\"/><xsl:template match=\"c\"><x><xsl:value-of select=\"$beans/order/z\"/></x></xsl:template>" +
+                "</xsl:stylesheet>]]></xsl:template></xsl:xsl></smooks-resource-list>").getBytes(StandardCharsets.UTF_8)));
+        ExecutionContext executionContext = smooks.createExecutionContext();
+        List<String> reads = new ArrayList<>();
+        StringResult result = new StringResult();
+
+        executionContext.getBeanContext().addBean("order", new AuditedOrder(reads));
+        smooks.filterSource(executionContext, new StringSource("<a><c/></a>"), result);
+        assertEquals("<x>zed</x>", result.getResult().trim());
+
+        // Xalan builds its view of the document in document order, so the properties before z are read too...
+        assertEquals(Arrays.asList("audit", "customer", "customer.name", "z"), reads);
+    }
+
+    public static class AuditedOrder {
+        private final List<String> reads;
+
+        public AuditedOrder(List<String> reads) {
+            this.reads = reads;
+        }
+
+        public String getAudit() {
+            reads.add("audit");
+            return "audited";
+        }
+
+        public AuditedCustomer getCustomer() {
+            reads.add("customer");
+            return new AuditedCustomer(reads);
+        }
+
+        public String getZ() {
+            reads.add("z");
+            return "zed";
+        }
+    }
+
+    public static class AuditedCustomer {
+        private final List<String> reads;
+
+        public AuditedCustomer(List<String> reads) {
+            this.reads = reads;
+        }
+
+        public String getName() {
+            reads.add("customer.name");
+            return "Joe";
+        }
+    }
+
+    @Test
+    public void test_bean_params() throws SAXException, IOException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("bean-params.xml"));
+        ExecutionContext executionContext = smooks.createExecutionContext();
+        Map<String, Object> order = new LinkedHashMap<>();
+        MyBean customer = new MyBean();
+        StringResult result = new StringResult();
+
+        customer.setX("Joe");
+        order.put("total", new BigDecimal("21.5"));
+        order.put("customer", customer);
+        order.put("items", Arrays.asList(item("pen", 5), item("book", 12.5), item("lamp", 30)));
+        order.put("created", new Date(0));
+        executionContext.getBeanContext().addBean("order", order);
+
+        smooks.filterSource(executionContext, new StringSource("<a><c/></a>"), result);
+        assertEquals("<x created=\"1970-01-01T00:00:00Z\" customer=\"Joe\" expensive=\"2\" missing=\"none\" total=\"43\"></x>", result.getResult().trim());
+    }
+
+    @Test
+    public void test_bean_params_result_cache() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("bean-params-cache.xml"));
+
+        // The order bean is only referenced by the bean parameter expression, so it must still key the cached output...
+        assertEquals("<x t=\"1\"></x>", filterOrder(smooks, 1));
+        assertEquals("<x t=\"2\"></x>", filterOrder(smooks, 2));
+        assertEquals("<x t=\"1\"></x>", filterOrder(smooks, 1));
+    }
+
+    private String filterOrder(Smooks smooks, int total) {
+        ExecutionContext executionContext = smooks.createExecutionContext();
+        StringResult result = new StringResult();
+
+        executionContext.getBeanContext().addBean("order", Collections.singletonMap("total", total));
+        smooks.filterSource(executionContext, new StringSource("<a><c/></a>"), result);
+
+        return result.getResult().trim();
+    }
+
+    private Map<String, Object> item(String name, Number price) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("name", name);
+        item.put("price", price);
+        return item;
+    }
+
+    @Test
+    public void test_bad_ognl() throws IOException, SAXException {
+        Smooks smooks = new Smooks(getClass().getResourceAsStream("bad-ognl.xml"));
+
+        try {
+            smooks.createExecutionContext();
+            fail("Expected SmooksConfigException.");
+        } catch (SmooksConfigException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null && !cause.getMessage().startsWith("Invalid OGNL expression")) {
+                cause = cause.getCause();
+            }
+            assertTrue(cause.getMessage(), cause.getMessage().startsWith("Invalid OGNL expression [order.total +] in XSL template"));
+        }
+    }
+
     @Test
     public void test_badxsl() throws IOException, SAXException {
         Smooks smooks = new Smooks(getClass().getResourceAsStream("bad-xsl-config.xml"));
@@ -0,0 +1,127 @@
+/*-
+ * ========================LICENSE_START=================================
+ * smooks-templating-cartridge
+ * %%
+ * Copyright (C) 2020 Smooks
+ * %%
+ * Licensed under the terms of the Apache License Version 2.0, or
+ * the GNU Lesser General Public License version 3.0 or later.
+ *
+ * SPDX-License-Identifier: Apache-2.0 OR LGPL-3.0-or-later
+ *
+ * ======================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ======================================================================
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ * =========================LICENSE_END==================================
+ */
+package org.smooks.cartridges.templating.xslt;
+
+import org.junit.Test;
+import org.smooks.Smooks;
+import org.smooks.io.payload.StringResult;
+import org.smooks.io.payload.StringSource;
+import org.smooks.support.ClassUtils;
+import org.smooks.support.StreamUtils;
+import org.smooks.support.XmlUtils;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class XslCopyTemplateletTest {
+
+    private static final String[] COPY_TEMPLATELETS = {
+            "<xsl:copy-of select=\".\"/>",
+            "<xsl:copy><xsl:copy-of select=\"@*[not(name() = 'id')] | node()[not(self::c or self::e)]\"/></xsl:copy>",
+            "<order><xsl:copy-of select=\"@* | *\"/></order>",
+            "<order>\n    <xsl:copy-of select=\"node()\"/>\n</order>"
+    };
+
+    private static final String[] INPUTS = {
+            "<a><b id='1' x='2'>t<c>1</c><!--k--><d/><c/><e x='&amp;'>&lt;&amp;</e></b><b/></a>",
+            "<a><b x='1'><c><b>nested</b></c></b></a>",
+            "<a xmlns:n='urn:n'><b n:x='1'><n:c/></b></a>",
+            "<a><b><c xmlns='urn:c'/></b></a>",
+            "<a><b><![CDATA[<x>]]></b></a>"
+    };
+
+    @Test
+    public void testCreate() throws IOException, SAXException, ParserConfigurationException {
+        for (String templatelet : COPY_TEMPLATELETS) {
+            assertNotNull(templatelet, create(templatelet));
+        }
+        assertNull(create("<xsl:copy-of select=\"c\"/>"));
+        assertNull(create("<xsl:copy-of select=\"@* | node() | c\"/>"));
+        assertNull(create("<xsl:copy><xsl:value-of select=\".\"/></xsl:copy>"));
+        assertNull(create("<order id=\"1\"><xsl:copy-of select=\"@* | node()\"/></order>"));
+        assertNull(create("<order><xsl:copy-of select=\"node()[not(self::n:c)]\" xmlns:n=\"urn:n\"/></order>"));
+        assertNull(create("<order>x<xsl:copy-of select=\"node()\"/></order>"));
+        assertNull(create("<xsl:copy-of select=\".\"/><xsl:copy-of select=\".\"/>"));
+    }
+
+    @Test
+    public void testApply() throws IOException, SAXException {
+        for (String templatelet : COPY_TEMPLATELETS) {
+            for (String input : INPUTS) {
+                for (boolean closeEmptyElements : new boolean[]{false, true}) {
+                    assertEquals(templatelet + " " + input, filter(templatelet, input, false, closeEmptyElements), filter(templatelet, input, true, closeEmptyElements));
+                }
+            }
+        }
+    }
+
+    private XslCopyTemplatelet create(String templatelet) throws IOException, SAXException, ParserConfigurationException {
+        String templateletWrapper = new String(StreamUtils.readStream(ClassUtils.getResourceAsStream("doc-files/templatelet.xsl", XslTemplateProcessor.class)));
+        return XslCopyTemplatelet.create(XmlUtils.parseStream(new StringReader(templateletWrapper.replace("@@@templatelet@@@", templatelet))));
+    }
+
+    private String filter(String templatelet, String input, boolean copyTemplatelets, boolean closeEmptyElements) throws IOException, SAXException {
+        String config = "<smooks-resource-list xmlns=\"https://www.smooks.org/xsd/smooks-2.0.xsd\">" +
+                "<params><param name=\"max.node.depth\">0</param><param name=\"close.empty.elements\">" + closeEmptyElements + "</param></params>" +
+                "<resource-config selector=\"b\">" +
+                "<resource type=\"xsl\"><![CDATA[" + templatelet + "]]></resource>" +
+                "<param name=\"is-xslt-templatelet\">true</param>" +
+                "<param name=\"enableFilterBypass\">false</param>" +
+                "<param name=\"" + XslTemplateProcessor.COPY_TEMPLATELETS + "\">" + copyTemplatelets + "</param>" +
+                "</resource-config>" +
+                "</smooks-resource-list>";
+        Smooks smooks = new Smooks(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)));
+        StringResult result = new StringResult();
+
+        smooks.filterSource(new StringSource(input), result);
+        return result.getResult();
+    }
+}